@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the phases following the parse: populating the maps from the class facts, building the catalog,
+ * laying it out, emitting the viewer page and exporting the graph in every format in one pass. The synthetic tree is
+ * parsed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int components;
+
+    @Param("3")
+    public int fanOut;
+
+    @Param("2")
+    public int depth;
+
+    private List<ClassFacts> facts;
+    private GraphHandler prepared;
+    private JSONArray catalog;
+    private JSONObject layout;
+    private PageWriter pageWriter;
+
+    @Setup(Level.Trial)
+    public void parse() throws Exception {
+        Path tree = Files.createTempDirectory("cdvue-bench");
+        try {
+            new SyntheticTreeGenerator(components, components / 4, fanOut, depth, 1).generate(tree);
+            DependencyParser parser = new DependencyParser(tree.toString(), 0);
+            parser.execute();
+            facts = parser.getClassFacts();
+        }
+        finally {
+            SyntheticTreeGenerator.delete(tree);
+        }
+
+        prepared = new GraphHandler(facts);
+        prepared.prepareData();
+        prepared.buildComponentNodes();
+        catalog = prepared.getCatalog();
+        layout = GraphLayout.build(catalog, 0);
+        pageWriter = new PageWriter();
+    }
+
+    @Benchmark
+    public GraphHandler populateMaps() {
+        GraphHandler handler = new GraphHandler(facts);
+        handler.prepareData();
+        return handler;
+    }
+
+    @Benchmark
+    public JSONArray buildComponentNodes() {
+        prepared.buildComponentNodes();
+        return prepared.getCatalog();
+    }
+
+    @Benchmark
+    public JSONObject layOut() {
+        return GraphLayout.build(catalog, 0);
+    }
+
+    @Benchmark
+    public long emitPage() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        pageWriter.write("Dependency Mapper", catalog, layout, writer);
+        return writer.count;
+    }
+
+    @Benchmark
+    public long exportGraph() throws IOException {
+        List<CountingWriter> writers = new ArrayList<>();
+        List<GraphExporter> exporters = new ArrayList<>();
+        for (GraphExporter.Format format : GraphExporter.Format.values()) {
+            CountingWriter writer = new CountingWriter();
+            writers.add(writer);
+            exporters.add(GraphExporter.create(format, writer));
+        }
+        GraphExporter.feed(prepared.getComponentGraph(), prepared.getAnalysis(), exporters);
+        long count = 0;
+        for (CountingWriter writer : writers)
+            count += writer.count;
+        return count;
+    }
+
+    /**
+     * Writer which discards everything but the number of characters written.
+     */
+    private static class CountingWriter extends Writer {
+        private long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the parse phase: walking a synthetic tree, parsing it with QDox and extracting the class facts.
+ * Each invocation parses the whole tree, so it is measured as single shot time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int components;
+
+    @Param("3")
+    public int fanOut;
+
+    @Param("2")
+    public int depth;
+
+    @Param("1")
+    public int threads;
+
+    private Path tree;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        tree = Files.createTempDirectory("cdvue-bench");
+        new SyntheticTreeGenerator(components, components / 4, fanOut, depth, 1).generate(tree);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        SyntheticTreeGenerator.delete(tree);
+    }
+
+    @Benchmark
+    public List<ClassFacts> parse() throws Exception {
+        DependencyParser parser = new DependencyParser(tree.toString(), threads);
+        parser.execute();
+        return parser.getClassFacts();
+    }
+}
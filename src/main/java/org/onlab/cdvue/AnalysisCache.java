@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that persists the per-class facts extracted from each source file, keyed by the file's path and a digest of
+ * its contents, so that unchanged files do not have to be parsed again on the next run.
+ * <p>
+ * The facts of a class also depend on its superclasses, so each entry records the digests of the files declaring
+ * them as well; an entry is only reused if its own file and all of those files are unchanged. Names written in those
+ * files resolve to classes of their own packages and of the packages they import with wildcards, so the entry also
+ * records the classes each of those packages declared, and is not reused once a class was added to or removed from
+ * one of them. Entries for files which were not seen during a run are dropped when the cache is saved. Facts
+ * extracted under other annotation rules are never reused.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class AnalysisCache {
+    private static final long VERSION = 3;
+
+    private final File file;
+    private final Map<String, JSONObject> entries;
+    private final JSONObject retained = new JSONObject();
+    private int hits;
+    private int misses;
+
+    private AnalysisCache(File file, Map<String, JSONObject> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the cache from the given file. A missing, unreadable or outdated file yields an empty cache.
+     *
+     * @param file      the cache file
+     * @return the loaded cache
+     */
+    static AnalysisCache load(File file) {
+        Map<String, JSONObject> entries = new HashMap<>();
+        if (file.isFile()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                JSONObject root = (JSONObject) new JSONParser().parse(reader);
+                if (!Long.valueOf(VERSION).equals(root.get("version")))
+                    println("Ignoring cache " + file + " written by another version.");
+                else if (!AnnotationRules.get().getFingerprint().equals(root.get("rules")))
+                    println("Ignoring cache " + file + " written under other annotation rules.");
+                else
+                    entries.putAll((JSONObject) root.get("entries"));
+            }
+            catch (IOException | ParseException | ClassCastException e) {
+                println("Ignoring unreadable cache " + file + ": " + e.getMessage());
+            }
+        }
+        return new AnalysisCache(file, entries);
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the first bytes of the given buffer, which hold a file's contents.
+     *
+     * @param buffer    the buffer holding the file
+     * @param length    the number of bytes of the file
+     * @return the digest
+     */
+    static String digest(ByteBuffer buffer, int length) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(buffer.array(), buffer.arrayOffset(), length);
+            byte[] hash = md.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached class facts for the given file if the file and every file it depends on still have the
+     * recorded digests, and every package their names were resolved in still declares the same classes, or null
+     * otherwise.
+     *
+     * @param source            the source file
+     * @param digests           the current digests of all files in the tree
+     * @param packageDigests    the current digests of the classes of each package, as given by
+     *                          {@link SourceTree#packageDigests}
+     * @return list of class facts, or null if there is no valid entry
+     */
+    List<ClassFacts> get(File source, Map<File, String> digests, Map<String, String> packageDigests) {
+        String path = source.getAbsolutePath();
+        JSONObject entry = entries.get(path);
+        if (entry == null || !entry.get("digest").equals(digests.get(source)) || !dependenciesUnchanged(entry, digests)
+                || !packagesUnchanged(entry, packageDigests)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        retained.put(path, entry);
+
+        List<ClassFacts> classes = new ArrayList<>();
+        for (Object o : (JSONArray) entry.get("classes")) {
+            JSONObject facts = (JSONObject) o;
+            classes.add(new ClassFacts((String) facts.get("cn"), (boolean) facts.get("hc"), (boolean) facts.get("hs"),
+                                       (boolean) facts.get("ii"), (String) facts.get("st"),
+                                       (List<String>) facts.get("ic"), (List<String>) facts.get("rf")));
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the files that the cached facts of the given file were derived from, as recorded in its entry.
+     *
+     * @param source    the source file, whose entry was returned by {@link #get}
+     * @return list of files
+     */
+    List<File> getDependencies(File source) {
+        List<File> dependencies = new ArrayList<>();
+        JSONObject entry = (JSONObject) retained.get(source.getAbsolutePath());
+        if (entry != null) {
+            for (String path : ((Map<String, String>) entry.get("dependencies")).keySet())
+                dependencies.add(new File(path));
+        }
+        return dependencies;
+    }
+
+    private boolean dependenciesUnchanged(JSONObject entry, Map<File, String> digests) {
+        for (Map.Entry<String, String> dependency : ((Map<String, String>) entry.get("dependencies")).entrySet()) {
+            if (!dependency.getValue().equals(digests.get(new File(dependency.getKey()))))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean packagesUnchanged(JSONObject entry, Map<String, String> packageDigests) {
+        for (Map.Entry<String, String> listing : ((Map<String, String>) entry.get("packages")).entrySet()) {
+            if (!listing.getValue().equals(packageDigests.getOrDefault(listing.getKey(), "")))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records the class facts extracted from the given file.
+     *
+     * @param source            the source file
+     * @param digests           the current digests of all files in the tree
+     * @param dependencies      the files declaring the superclasses the facts were derived from
+     * @param packages          the packages names in those files were resolved in
+     * @param packageDigests    the current digests of the classes of each package
+     * @param classes           list of class facts extracted from the file
+     */
+    void put(File source, Map<File, String> digests, Iterable<File> dependencies, Iterable<String> packages,
+             Map<String, String> packageDigests, List<ClassFacts> classes) {
+        JSONObject deps = new JSONObject();
+        for (File dependency : dependencies) {
+            String digest = digests.get(dependency);
+            if (digest != null && !dependency.equals(source))
+                deps.put(dependency.getAbsolutePath(), digest);
+        }
+        JSONObject listings = new JSONObject();
+        for (String packageName : packages)
+            listings.put(packageName, packageDigests.getOrDefault(packageName, "")); //"" for packages of no tree
+
+        JSONArray cached = new JSONArray();
+        for (ClassFacts classFacts : classes) {
+            JSONObject facts = new JSONObject();
+            facts.put("cn", classFacts.getName());
+            facts.put("hc", classFacts.isComponent());
+            facts.put("hs", classFacts.isService());
+            facts.put("ii", classFacts.isInterface());
+            facts.put("st", classFacts.getServiceTag());
+            facts.put("ic", classFacts.getInterfaces());
+            facts.put("rf", classFacts.getReferences());
+            cached.add(facts);
+        }
+
+        JSONObject entry = new JSONObject();
+        entry.put("digest", digests.get(source));
+        entry.put("dependencies", deps);
+        entry.put("packages", listings);
+        entry.put("classes", cached);
+        retained.put(source.getAbsolutePath(), entry);
+    }
+
+    /**
+     * Writes the entries that were used or recorded during this run back to the cache file; all others are evicted.
+     *
+     * @throws IOException if the cache could not be written
+     */
+    void save() throws IOException {
+        println("Cache: " + hits + " files reused, " + misses + " files parsed, "
+                + (entries.size() - hits) + " entries evicted or replaced.");
+        JSONObject root = new JSONObject();
+        root.put("version", VERSION);
+        root.put("rules", AnnotationRules.get().getFingerprint());
+        root.put("entries", retained);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            Files.createDirectories(parent.toPath());
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            root.writeJSONString(writer);
+        }
+    }
+}
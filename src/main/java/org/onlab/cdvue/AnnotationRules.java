@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class that tells what the annotations of classes, fields and methods mean to the graph: whether they make a class a
+ * component, make it provide services, or make a field or method refer to a service.
+ * <p>
+ * The rules are read from a table once, at startup: the table bundled as annotations.txt, which covers Felix SCR and
+ * OSGi Declarative Services, followed by the rules of the file given with "--annotations", if any, which replace the
+ * bundled rules for the same annotation. The table is compiled into hash maps from fully qualified names, from simple
+ * names, for annotations written through wildcard imports, and from class file descriptors, so that every annotation
+ * met while extracting facts costs one lookup rather than a comparison with every known name. The simple names of the
+ * component annotations and the bytes of all descriptors are kept too, for the scans which tell whether a source file
+ * or a class file needs to be read at all.
+ * </p>
+ */
+final class AnnotationRules {
+    private static final String DEFAULTS = "annotations.txt";
+
+    /**
+     * The roles an annotation can play.
+     */
+    enum Role {
+        COMPONENT, //the annotated class is a component
+        SERVICE, //the annotated class provides services
+        REFERENCE; //the annotated field or method refers to a service
+
+        private int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    private static volatile AnnotationRules current;
+
+    private final Map<String, Rule> byName;
+    private final Map<String, List<Rule>> bySimpleName = new HashMap<>();
+    private final Map<String, Rule> byDescriptor = new HashMap<>();
+    private final byte[][][] descriptorsByLength; //descriptor length to the bytes of the descriptors of that length
+    private final byte[][] componentNames; //the simple names of the component annotations
+    private final String fingerprint;
+
+    private AnnotationRules(Map<String, Rule> byName) {
+        this.byName = byName;
+        int longest = 0;
+        Set<String> components = new LinkedHashSet<>();
+        StringBuilder table = new StringBuilder();
+        for (Rule rule : byName.values()) {
+            bySimpleName.computeIfAbsent(rule.simpleName, n -> new ArrayList<>()).add(rule);
+            byDescriptor.put(rule.descriptor, rule);
+            longest = Math.max(longest, rule.descriptor.length());
+            if (rule.has(Role.COMPONENT))
+                components.add(rule.simpleName);
+            table.append(rule.name).append(' ').append(rule.roles).append(' ').append(rule.element).append('\n');
+        }
+
+        List<List<byte[]>> lengths = new ArrayList<>();
+        for (int i = 0; i <= longest; i++)
+            lengths.add(new ArrayList<>());
+        for (String descriptor : byDescriptor.keySet())
+            lengths.get(descriptor.length()).add(descriptor.getBytes(StandardCharsets.UTF_8));
+        descriptorsByLength = new byte[longest + 1][][];
+        for (int i = 0; i <= longest; i++)
+            descriptorsByLength[i] = lengths.get(i).toArray(new byte[0][]);
+
+        componentNames = new byte[components.size()][];
+        int i = 0;
+        for (String name : components)
+            componentNames[i++] = name.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = table.toString().getBytes(StandardCharsets.UTF_8);
+        fingerprint = AnalysisCache.digest(ByteBuffer.wrap(bytes), bytes.length);
+    }
+
+    /**
+     * Returns the rules in force: the bundled rules, unless others were configured.
+     *
+     * @return the rules
+     */
+    static AnnotationRules get() {
+        AnnotationRules rules = current;
+        if (rules == null) {
+            synchronized (AnnotationRules.class) {
+                if (current == null) {
+                    try {
+                        current = new AnnotationRules(read(null));
+                    }
+                    catch (IOException e) {
+                        throw new IllegalStateException("Cannot read the bundled annotation rules", e);
+                    }
+                }
+                rules = current;
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Compiles the bundled rules followed by those of the given file, and puts them in force. Meant to be called once,
+     * before anything is parsed.
+     *
+     * @param file      the file of further rules
+     * @throws IOException if the file could not be read
+     * @throws IllegalArgumentException if a line of the file is not a valid rule
+     */
+    static synchronized void configure(File file) throws IOException {
+        current = new AnnotationRules(read(file));
+    }
+
+    private static Map<String, Rule> read(File file) throws IOException {
+        Map<String, Rule> rules = new LinkedHashMap<>();
+        InputStream stream = AnnotationRules.class.getResourceAsStream("/" + DEFAULTS);
+        if (stream == null)
+            throw new IOException("Missing resource " + DEFAULTS);
+        try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            read(reader, DEFAULTS, rules);
+        }
+        if (file != null) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                read(reader, file.getPath(), rules);
+            }
+        }
+        return rules;
+    }
+
+    private static void read(Reader reader, String source, Map<String, Rule> rules) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        int number = 0;
+        while ((line = br.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] words = line.split("\\s+");
+            if (words.length < 2 || words.length > 3)
+                throw new IllegalArgumentException("Line " + number + " of " + source + " should name an annotation, "
+                        + "its roles and optionally an element: " + line);
+            int roles = 0;
+            for (String role : words[1].split(",")) {
+                try {
+                    roles |= Role.valueOf(role.toUpperCase(Locale.ROOT)).bit();
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + number + " of " + source + " names an unknown role "
+                            + role + "; roles are component, service and reference.");
+                }
+            }
+            rules.remove(words[0]); //a later rule takes the place of an earlier one
+            rules.put(words[0], new Rule(words[0], roles, words.length > 2 ? words[2] : null));
+        }
+    }
+
+    /**
+     * Returns the rule for the annotation of the given fully qualified name.
+     *
+     * @param name      the name of the annotation
+     * @return the rule, or null if the annotation plays no role
+     */
+    Rule ofName(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Returns the rule for an annotation written by its simple name, which is all a parser can tell of an annotation
+     * imported through a wildcard. If several rules have the simple name, the one whose package is imported is
+     * chosen, or else the first one in the table.
+     *
+     * @param simpleName    the simple name of the annotation
+     * @param imports       the imports of the source file, as written
+     * @return the rule, or null if no annotation of that simple name plays a role
+     */
+    Rule ofSimpleName(String simpleName, List<String> imports) {
+        List<Rule> rules = bySimpleName.get(simpleName);
+        if (rules == null)
+            return null;
+        if (rules.size() > 1) {
+            for (Rule rule : rules) {
+                if (imports.contains(rule.packageName + ".*"))
+                    return rule;
+            }
+        }
+        return rules.get(0);
+    }
+
+    /**
+     * Returns the rule for the annotation of the given class file descriptor, e.g. "Lorg/example/Component;".
+     *
+     * @param descriptor    the descriptor
+     * @return the rule, or null if the annotation plays no role
+     */
+    Rule ofDescriptor(String descriptor) {
+        return byDescriptor.get(descriptor);
+    }
+
+    /**
+     * Returns whether the given bytes of a class file constant are the descriptor of an annotation with a rule, without
+     * decoding them. Only descriptors of the same length are compared.
+     *
+     * @param buffer    the buffer holding the class file
+     * @param offset    the offset of the constant's bytes
+     * @param length    the number of bytes of the constant
+     * @return true if the constant names an annotation with a rule
+     */
+    boolean isDescriptor(ByteBuffer buffer, int offset, int length) {
+        if (length >= descriptorsByLength.length)
+            return false;
+        for (byte[] descriptor : descriptorsByLength[length]) {
+            int i = length - 1; //descriptors share their package, so they differ towards the end
+            while (i >= 0 && buffer.get(offset + i) == descriptor[i])
+                i--;
+            if (i < 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the simple names of the annotations which make a class a component, encoded as bytes for scanning
+     * source files.
+     *
+     * @return the names; not to be modified
+     */
+    byte[][] getComponentNames() {
+        return componentNames;
+    }
+
+    /**
+     * Returns a digest of the rules, which tells whether facts extracted under other rules can be reused.
+     *
+     * @return the hex encoded digest
+     */
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The roles of one annotation.
+     */
+    static final class Rule {
+        private final String name;
+        private final String packageName;
+        private final String simpleName;
+        private final String descriptor;
+        private final int roles;
+        private final String element;
+
+        private Rule(String name, int roles, String element) {
+            this.name = name;
+            int dot = name.lastIndexOf('.');
+            this.packageName = dot < 0 ? "" : name.substring(0, dot);
+            this.simpleName = name.substring(dot + 1);
+            this.descriptor = "L" + name.replace('.', '/') + ";";
+            this.roles = roles;
+            this.element = element;
+        }
+
+        /**
+         * Returns whether the annotation plays the given role.
+         *
+         * @param role      the role
+         * @return true if it does
+         */
+        boolean has(Role role) {
+            return (roles & role.bit()) != 0;
+        }
+
+        /**
+         * Returns the element naming the service types the annotation provides or refers to.
+         *
+         * @return the name of the element, or null if there is none
+         */
+        String getElement() {
+            return element;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that compiles the facts of each class from compiled classes instead of source, so that bundles only available
+ * as jars can be mapped as well, and large trees are mapped without parsing any source.
+ * <p>
+ * The given path may be a jar, or a directory, such as a build output directory or a Karaf assembly, in which class
+ * files and jars are looked for. Jars nested in jars, as in Karaf archives, are read too. Each jar, and the class
+ * files of each directory, are read on the fork-join pool as a unit. What a class inherits from its superclasses is
+ * resolved afterwards, over the classes of all units, with the same rules the source front end applies; a class found
+ * more than once keeps its last occurrence, in path order. Several paths may be given, and are read as one.
+ * </p>
+ */
+class BytecodeParser {
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final List<File> roots = new ArrayList<>();
+    private final int threads;
+    private final List<ClassFacts> classFacts = new ArrayList<>();
+    private RunMetrics metrics = new RunMetrics();
+
+    private Map<String, ClassFile> classes; //annotated classes by binary name
+    private final Map<String, List<String>> inheritedReferences = new HashMap<>();
+    private final Map<String, List<String>> inheritedInterfaces = new HashMap<>();
+
+    /**
+     * Constructor for objects of class BytecodeParser.
+     *
+     * @param path      the jar or directory to process
+     * @param threads   the number of threads to read with; 0 or less uses all available processors
+     */
+    BytecodeParser(String path, int threads) {
+        this(Collections.singletonList(path), threads);
+    }
+
+    /**
+     * Constructor for objects of class BytecodeParser.
+     *
+     * @param paths     the jars or directories to process, in order
+     * @param threads   the number of threads to read with; 0 or less uses all available processors
+     */
+    BytecodeParser(List<String> paths, int threads) {
+        for (String path : paths)
+            roots.add(new File(path));
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Reads every class found in the path and compiles the facts of the classes carrying annotations with a rule.
+     *
+     * @throws Exception        if a jar or class file could not be read
+     */
+    void execute() throws Exception {
+        classFacts.clear();
+        inheritedReferences.clear();
+        inheritedInterfaces.clear();
+        long start = System.nanoTime();
+
+        List<File> jars = new ArrayList<>();
+        Map<File, List<File>> classFiles = new LinkedHashMap<>(); //directory to the class files in it
+        metrics.time(RunMetrics.Phase.SCAN, () -> roots.forEach(root -> find(root, jars, classFiles)));
+        metrics.count(RunMetrics.Counter.FILES, jars.size() + classFiles.values().stream().mapToInt(List::size).sum());
+
+        List<Callable<Unit>> tasks = new ArrayList<>();
+        for (File jar : jars)
+            tasks.add(() -> timed(() -> readJar(jar)));
+        for (List<File> files : classFiles.values())
+            tasks.add(() -> timed(() -> readFiles(files)));
+        println("Reading " + jars.size() + " jars and " + classFiles.size() + " class directories with " + threads
+                + " threads.");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Unit> units;
+        try {
+            units = invokeAll(pool, tasks);
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        classes = new LinkedHashMap<>();
+        int read = 0;
+        for (Unit unit : units) {
+            read += unit.read;
+            for (ClassFile classFile : unit.classes) {
+                classes.remove(classFile.getName()); //the last occurrence wins, and takes its place in the order
+                classes.put(classFile.getName(), classFile);
+            }
+        }
+        metrics.time(RunMetrics.Phase.EXTRACT, () -> {
+            for (ClassFile classFile : classes.values()) {
+                if (!classFile.isAbstract())
+                    classFacts.add(facts(classFile));
+            }
+        });
+        classes = null;
+        metrics.count(RunMetrics.Counter.CLASSES, classFacts.size());
+
+        println("Read " + read + " classes from " + jars.size() + " jars and " + classFiles.size()
+                + " directories in " + (System.nanoTime() - start) / 1000000 + " ms; " + classFacts.size()
+                + " carry component or service annotations.");
+    }
+
+    /**
+     * Sets the metrics to record the phases and counts of executions in.
+     *
+     * @param metrics       the metrics
+     */
+    void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the given read task, timing it as parsing.
+     */
+    private Unit timed(Callable<Unit> task) throws Exception {
+        return metrics.time(RunMetrics.Phase.PARSE, task::call);
+    }
+
+    /**
+     * Collects the jars and the class files below the given file, in name order.
+     */
+    private static void find(File file, List<File> jars, Map<File, List<File>> classFiles) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null)
+                return;
+            Arrays.sort(children);
+            for (File child : children)
+                find(child, jars, classFiles);
+        }
+        else if (isJar(file.getName()))
+            jars.add(file);
+        else if (isClass(file.getName()))
+            classFiles.computeIfAbsent(file.getParentFile(), d -> new ArrayList<>()).add(file);
+    }
+
+    private static boolean isJar(String name) {
+        return name.endsWith(".jar") || name.endsWith(".kar") || name.endsWith(".war");
+    }
+
+    /**
+     * Returns whether the given name is that of a class file, leaving out the module and package descriptors.
+     */
+    private static boolean isClass(String name) {
+        return name.endsWith(CLASS_SUFFIX) && !name.endsWith("module-info.class") && !name.endsWith("package-info.class");
+    }
+
+    /**
+     * Reads the given class files, each straight into one buffer reused for all of them.
+     */
+    private static Unit readFiles(List<File> files) throws IOException {
+        Unit unit = new Unit();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > buffer.capacity())
+                    buffer = ByteBuffer.allocate((int) Math.max(size, buffer.capacity() * 2L));
+                buffer.clear();
+                while (buffer.position() < size && channel.read(buffer) >= 0) {
+                    //reads until the whole file is in the buffer
+                }
+                buffer.flip();
+                unit.add(buffer, file.getPath());
+            }
+        }
+        return unit;
+    }
+
+    /**
+     * Reads the class files of the given jar, and of the jars nested in it.
+     */
+    private static Unit readJar(File jar) throws IOException {
+        Unit unit = new Unit();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && (isClass(entry.getName()) || isJar(entry.getName()))) {
+                    try (InputStream stream = zip.getInputStream(entry)) {
+                        readEntry(entry, stream, jar.getPath(), unit);
+                    }
+                }
+            }
+        }
+        return unit;
+    }
+
+    private static void readEntry(ZipEntry entry, InputStream stream, String location, Unit unit) throws IOException {
+        if (entry.getName().startsWith("META-INF/"))
+            return; //classes for other Java versions, in multi-release jars
+        if (isJar(entry.getName())) {
+            ZipInputStream nested = new ZipInputStream(stream);
+            ZipEntry nestedEntry;
+            while ((nestedEntry = nested.getNextEntry()) != null) {
+                if (!nestedEntry.isDirectory() && (isClass(nestedEntry.getName()) || isJar(nestedEntry.getName())))
+                    readEntry(nestedEntry, nested, location + "!/" + entry.getName(), unit);
+            }
+        }
+        else
+            unit.add(unit.fill(stream, entry.getSize()), location + "!/" + entry.getName());
+    }
+
+    /**
+     * Compiles the facts of the given class.
+     */
+    private ClassFacts facts(ClassFile classFile) {
+        println(() -> "Processing class: " + classFile.getName() + ".");
+        List<String> interfaces = new ArrayList<>(classFile.getInterfaces());
+        List<String> tags = classFile.getServiceTags();
+        if (tags.size() > 1)
+            interfaces.addAll(tags.subList(1, tags.size())); //further services named count as implemented
+        List<String> references = new ArrayList<>();
+        if (classFile.isComponent())
+            references.addAll(inheritedReferences(classFile.getSuperName()));
+        if (classFile.isService())
+            interfaces.addAll(inheritedInterfaces(classFile.getSuperName()));
+        if (classFile.isComponent() || classFile.isService())
+            references.addAll(classFile.getReferences());
+        return new ClassFacts(classFile.getName(), classFile.isComponent(), classFile.isService(),
+                              classFile.isInterface(), classFile.getServiceTag(), interfaces, references);
+    }
+
+    /**
+     * Returns the types referred to by the @Reference fields and methods declared along the chain of @Component
+     * classes starting at the given superclass, nearest superclass first, as
+     * {@link HierarchyResolver#inheritedReferences} does for source.
+     */
+    private List<String> inheritedReferences(String superName) {
+        ClassFile superClass = superName == null ? null : classes.get(superName);
+        if (superClass == null || !superClass.isComponent())
+            return Collections.emptyList();
+
+        List<String> references = inheritedReferences.get(superName);
+        if (references == null) {
+            references = new ArrayList<>(superClass.getReferences());
+            references.addAll(inheritedReferences(superClass.getSuperName()));
+            inheritedReferences.put(superName, references);
+        }
+        return references;
+    }
+
+    /**
+     * Returns the interfaces provided along the chain of @Service classes starting at the given superclass, as
+     * {@link HierarchyResolver#inheritedInterfaces} does for source.
+     */
+    private List<String> inheritedInterfaces(String superName) {
+        ClassFile superClass = superName == null ? null : classes.get(superName);
+        if (superClass == null || !superClass.isService())
+            return Collections.emptyList();
+
+        List<String> interfaces = inheritedInterfaces.get(superName);
+        if (interfaces == null) {
+            interfaces = new ArrayList<>();
+            List<String> inherited = inheritedInterfaces(superClass.getSuperName());
+            for (String javaInterface : superClass.getInterfaces()) {
+                interfaces.add(javaInterface);
+                interfaces.addAll(superClass.getServiceTags());
+                interfaces.addAll(inherited);
+            }
+            inheritedInterfaces.put(superName, interfaces);
+        }
+        return interfaces;
+    }
+
+    /**
+     * Runs the given tasks on the pool and returns their results in task order, rethrowing the first failure.
+     */
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks))
+                results.add(future.get());
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the facts of all classes compiled by the last execution.
+     *
+     * @return list of class facts
+     */
+    List<ClassFacts> getClassFacts() {
+        return classFacts;
+    }
+
+    /**
+     * The annotated classes read by one task, with the buffer it reads entries into.
+     */
+    private static class Unit {
+        private final List<ClassFile> classes = new ArrayList<>();
+        private int read;
+        private byte[] bytes = new byte[64 * 1024];
+
+        /**
+         * Reads the given stream to its end into the unit's buffer.
+         */
+        ByteBuffer fill(InputStream stream, long size) throws IOException {
+            if (size > bytes.length)
+                bytes = new byte[(int) size];
+            int length = 0;
+            int n;
+            while ((n = stream.read(bytes, length, bytes.length - length)) >= 0) {
+                length += n;
+                if (length == bytes.length)
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        void add(ByteBuffer buffer, String location) {
+            read++;
+            try {
+                ClassFile classFile = ClassFile.read(buffer);
+                if (classFile != null)
+                    classes.add(classFile);
+            }
+            catch (IllegalArgumentException e) {
+                println(() -> "Skipping " + location + ": " + e.getMessage() + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that builds the catalog of graph nodes from the component and service mappings. Nodes are indexed by name
+ * and each node's dependencies are tracked in a set next to its dependsOn array, so the catalog is built in time
+ * linear in the number of nodes and edges.
+ */
+@SuppressWarnings("unchecked")
+class CatalogBuilder {
+    private final Map<String, Set<String>> serviceToComponents;
+    private final Map<String, Set<String>> componentToReferences;
+    private final Map<String, Set<String>> componentToServices;
+
+    private final JSONArray catalog = new JSONArray();
+    private final Map<String, JSONObject> nodes = new HashMap<>(); //the catalog nodes by name
+    private final Map<String, Set<String>> dependsOnIndex = new HashMap<>(); //the contents of each node's dependsOn array
+
+    /**
+     * Constructor for objects of class CatalogBuilder.
+     *
+     * @param serviceToComponents       the map of service interfaces to the components that implement them
+     * @param componentToReferences     the map of components to the interfaces they refer to
+     * @param componentToServices       the map of components to the interfaces they implement
+     */
+    CatalogBuilder(Map<String, Set<String>> serviceToComponents, Map<String, Set<String>> componentToReferences,
+                   Map<String, Set<String>> componentToServices) {
+        this.serviceToComponents = serviceToComponents;
+        this.componentToReferences = componentToReferences;
+        this.componentToServices = componentToServices;
+    }
+
+    /**
+     * Puts a node for every component on the catalog and links it to the nodes it depends on.
+     *
+     * @return the catalog
+     */
+    JSONArray build() {
+        for (Map.Entry<String, Set<String>> entry : componentToReferences.entrySet()) {
+            String componentClassName = entry.getKey();
+
+            JSONObject node = nodes.get(componentClassName);
+            if (node == null)
+                node = addNode(componentClassName);
+            linkNode(componentClassName, entry.getValue(), node); //link the node to every interface node in its associated Set
+        }
+        return catalog;
+    }
+
+    /**
+     * Builds the catalog of the given graph directly, as when the graph was loaded from a snapshot and the maps it
+     * was built from are not at hand. The nodes are the same as those built from the maps.
+     *
+     * @param graph     the component graph
+     * @return the catalog
+     */
+    static JSONArray build(ComponentGraph graph) {
+        JSONArray catalog = new JSONArray();
+        for (int i = 0; i < graph.getNodeCount(); i++) {
+            JSONObject node = new JSONObject();
+            String name = graph.getNodeName(i);
+            node.put("name", name);
+            JSONArray dependsOn = new JSONArray();
+            for (int target : graph.dependenciesOf(i))
+                dependsOn.add(graph.getNodeName(target));
+            node.put("dependsOn", dependsOn);
+            node.put("numberDependents", graph.dependentsOf(i).length);
+            if (i < graph.getComponentCount()) {
+                node.put("numberDependsOn", dependsOn.size());
+                node.put("dependsOnServices", serviceNames(graph, graph.referencesOf(i)));
+                node.put("dependentsServices", serviceNames(graph, graph.servicesOf(i)));
+            }
+            else {
+                node.put("numberDependsOn", "N/A");
+                node.put("dependsOnServices", new JSONArray());
+                JSONArray ghostServices = new JSONArray();
+                ghostServices.add(name.substring(0, name.length() - 1));
+                node.put("dependentsServices", ghostServices);
+            }
+            catalog.add(node);
+        }
+        return catalog;
+    }
+
+    private static JSONArray serviceNames(ComponentGraph graph, int[] services) {
+        JSONArray names = new JSONArray();
+        for (int service : services)
+            names.add(graph.getServiceName(service));
+        return names;
+    }
+
+    /**
+     * Returns the changes between two catalogs: the nodes of the current catalog which are new or differ from their
+     * previous version, and the names of the previous nodes which are gone.
+     *
+     * @param previous  the previous catalog
+     * @param current   the current catalog
+     * @return object holding an "updated" array of nodes and a "removed" array of names
+     */
+    static JSONObject diff(JSONArray previous, JSONArray current) {
+        Map<String, Object> previousNodes = new HashMap<>();
+        for (Object o : previous)
+            previousNodes.put((String) ((JSONObject) o).get("name"), o);
+
+        JSONArray updated = new JSONArray();
+        for (Object o : current) {
+            if (!o.equals(previousNodes.remove((String) ((JSONObject) o).get("name"))))
+                updated.add(o);
+        }
+        JSONArray removed = new JSONArray();
+        removed.addAll(previousNodes.keySet());
+
+        JSONObject delta = new JSONObject();
+        delta.put("updated", updated);
+        delta.put("removed", removed);
+        return delta;
+    }
+
+    /**
+     * Links a node to the components implementing each of the given interfaces, or to a ghost node for each
+     * interface that no component implements.
+     *
+     * @param className     the name of the component
+     * @param names         the interfaces the component refers to
+     * @param node          the node of the component
+     */
+    private void linkNode(String className, Set<String> names, JSONObject node) {
+        String nodeName = (String) node.get("name");
+        JSONArray dependsOnArray = (JSONArray) node.get("dependsOn");
+        JSONArray dependsOnServices = (JSONArray) node.get("dependsOnServices");
+        JSONArray dependentsServices = (JSONArray) node.get("dependentsServices");
+        Set<String> dependsOnSet = dependsOnIndex.get(nodeName);
+
+        if (names != null)
+            dependsOnServices.addAll(names);
+
+        Set<String> dependents = componentToServices.get(className);
+        if (dependents != null)
+            dependentsServices.addAll(dependents);
+
+        int dependsOn = 0;
+        if (names != null) {
+            for (String name : names) {
+                Set<String> retrievedComponents = serviceToComponents.get(name);
+                if (retrievedComponents == null) {
+                    String ghostName = name + "?";
+                    if (dependsOnSet.add(ghostName)) {
+                        JSONObject ghost = nodes.get(ghostName);
+                        if (ghost == null)
+                            ghost = addGhostNode(name);
+                        dependsOnArray.add(ghostName);
+                        ghost.put("numberDependents", (int) ghost.get("numberDependents") + 1);
+                        dependsOn++;
+                    }
+                }
+                else {
+                    for (String n : retrievedComponents) {
+                        if (!n.equals(nodeName) && dependsOnSet.add(n)) {
+                            JSONObject target = nodes.get(n);
+                            if (target == null)
+                                target = addNode(n);
+                            dependsOnArray.add(n);
+                            target.put("numberDependents", (int) target.get("numberDependents") + 1);
+                            dependsOn++;
+                        }
+                    }
+                }
+            }
+        }
+        else {
+            println("Names was null");
+        }
+
+        node.put("numberDependsOn", dependsOn);
+    }
+
+    private JSONObject addNode(String name) {
+        JSONObject node = new JSONObject();
+        node.put("name", name);
+        node.put("dependsOn", new JSONArray());
+        node.put("numberDependsOn", 0);
+        node.put("dependsOnServices", new JSONArray());
+        node.put("numberDependents", 0);
+        node.put("dependentsServices", new JSONArray());
+        return register(node);
+    }
+
+    /**
+     * Adds a node standing in for an interface which no component implements.
+     */
+    private JSONObject addGhostNode(String serviceName) {
+        JSONObject ghost = new JSONObject();
+        ghost.put("name", serviceName + "?");
+        ghost.put("dependsOn", new JSONArray());
+        ghost.put("numberDependsOn", "N/A");
+        ghost.put("dependsOnServices", new JSONArray());
+        ghost.put("numberDependents", 0);
+        List<String> ghostServices = new ArrayList<>();
+        ghostServices.add(serviceName);
+        ghost.put("dependentsServices", ghostServices);
+        return register(ghost);
+    }
+
+    private JSONObject register(JSONObject node) {
+        String name = (String) node.get("name");
+        catalog.add(node);
+        nodes.put(name, node);
+        dependsOnIndex.put(name, new HashSet<>());
+        return node;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that writes the viewer as a directory rather than as a single page, so that graphs of whole code bases can
+ * be published without pages of many megabytes, which the browser has to parse completely before drawing anything.
+ * <p>
+ * The directory holds a small index page, which shows an aggregate node for each package with a summary of the
+ * dependencies between packages, the d3 library, written once next to it, and a chunk for each package in the chunks
+ * directory, which the page loads when the package is expanded. A chunk holds the catalog nodes of the package and
+ * the dependencies on them from other packages, so that they can be linked to packages which are not expanded.
+ * Chunks can be written compressed with gzip; the page decompresses them itself unless the server already did.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class ChunkWriter {
+    static final String INDEX = "index.html";
+    static final String CHUNKS = "chunks";
+
+    private final PageWriter pageWriter = new PageWriter();
+    private final boolean gzip;
+
+    /**
+     * Constructor for objects of class ChunkWriter.
+     *
+     * @param gzip      whether to compress the chunks with gzip
+     * @throws IOException if the page template could not be read
+     */
+    ChunkWriter(boolean gzip) throws IOException {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Writes the viewer for the given catalog to the given directory. Chunks left in the directory by an earlier run
+     * are deleted first.
+     *
+     * @param title     the title of the page
+     * @param catalog   the catalog of graph nodes
+     * @param directory the directory to write to, which is created if needed
+     * @return the files written
+     * @throws IOException if a file could not be written
+     */
+    List<File> write(String title, JSONArray catalog, File directory) throws IOException {
+        File chunks = new File(directory, CHUNKS);
+        Files.createDirectories(chunks.toPath());
+        File[] stale = chunks.listFiles((dir, name) -> name.endsWith(".json") || name.endsWith(".json.gz"));
+        if (stale != null) {
+            for (File file : stale)
+                Files.delete(file.toPath());
+        }
+
+        //groups the nodes by package, in the order each package first appears, as the page would
+        Map<String, Chunk> packages = new LinkedHashMap<>();
+        Map<String, Chunk> chunkOf = new LinkedHashMap<>();
+        for (Object o : catalog) {
+            JSONObject node = (JSONObject) o;
+            String name = (String) node.get("name");
+            Chunk chunk = packages.computeIfAbsent(GraphLayout.packageOf(name), Chunk::new);
+            chunk.nodes.add(node);
+            chunkOf.putIfAbsent(name, chunk);
+        }
+        for (Chunk chunk : packages.values()) {
+            for (Object o : chunk.nodes) {
+                JSONObject node = (JSONObject) o;
+                link(chunk, node, (List<String>) node.get("dependsOn"), chunkOf);
+                link(chunk, node, (List<String>) node.get("dependsOnRemoved"), chunkOf);
+            }
+        }
+
+        List<File> written = new ArrayList<>();
+        JSONArray summaries = new JSONArray();
+        for (Chunk chunk : packages.values()) {
+            String path = CHUNKS + "/" + summaries.size() + (gzip ? ".json.gz" : ".json");
+            summaries.add(chunk.summarize(path));
+            File file = new File(directory, path);
+            try (Writer writer = open(file)) {
+                chunk.toJSON().writeJSONString(writer);
+            }
+            written.add(file);
+        }
+
+        File d3 = new File(directory, PageWriter.D3JS);
+        pageWriter.writeD3(d3);
+        written.add(d3);
+        File index = new File(directory, INDEX);
+        pageWriter.writeIndex(title, summaries, index);
+        written.add(index);
+        println(() -> "Wrote " + catalog.size() + " nodes in " + packages.size() + " chunks to " + directory + ".");
+        return written;
+    }
+
+    /**
+     * Records the dependencies of the given node on nodes of other packages.
+     */
+    private static void link(Chunk chunk, JSONObject node, List<String> targets, Map<String, Chunk> chunkOf) {
+        if (targets == null)
+            return;
+        for (String target : targets) {
+            Chunk other = chunkOf.get(target);
+            if (other != null && other != chunk) {
+                chunk.dependsOn.add(other);
+                other.dependents.add(chunk);
+                JSONArray edge = new JSONArray();
+                edge.add(node.get("name"));
+                edge.add(target);
+                other.incoming.add(edge);
+            }
+        }
+    }
+
+    private Writer open(File file) throws IOException {
+        OutputStream stream = Files.newOutputStream(file.toPath());
+        if (gzip)
+            stream = new GZIPOutputStream(stream, 64 * 1024);
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    /**
+     * The nodes of a package, and how the package is linked to the others.
+     */
+    private static class Chunk {
+        private final String name;
+        private final JSONArray nodes = new JSONArray();
+        private final JSONArray incoming = new JSONArray(); //pairs of names of nodes of other packages and of this one
+        private final Set<Chunk> dependsOn = new LinkedHashSet<>();
+        private final Set<Chunk> dependents = new LinkedHashSet<>();
+
+        Chunk(String name) {
+            this.name = name;
+        }
+
+        private String aggregateName() {
+            return GraphLayout.aggregateName(name);
+        }
+
+        /**
+         * Returns the summary of the package, which the index page shows as an aggregate node, like a collapsed
+         * package: it is linked to the packages its nodes depend on, is part of a cycle if one of its nodes is, and
+         * is marked changed if any of its nodes changed.
+         */
+        JSONObject summarize(String path) {
+            JSONObject summary = new JSONObject();
+            summary.put("name", aggregateName());
+            summary.put("label", GraphLayout.aggregateName(name.substring(name.lastIndexOf('.') + 1)) + " ("
+                    + nodes.size() + ")");
+            summary.put("chunk", path);
+            summary.put("members", nodes.size());
+            JSONArray names = names(dependsOn);
+            summary.put("dependsOn", names);
+            summary.put("numberDependsOn", dependsOn.size());
+            summary.put("dependsOnServices", names);
+            summary.put("numberDependents", dependents.size());
+            summary.put("dependentsServices", names(dependents));
+            for (Object o : nodes) {
+                JSONObject node = (JSONObject) o;
+                if (node.get("cycle") != null && summary.get("cycle") == null)
+                    summary.put("cycle", node.get("cycle"));
+                if (node.get("diff") != null)
+                    summary.put("diff", "changed");
+            }
+            return summary;
+        }
+
+        private static JSONArray names(Set<Chunk> chunks) {
+            JSONArray names = new JSONArray();
+            for (Chunk chunk : chunks)
+                names.add(chunk.aggregateName());
+            return names;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("nodes", nodes);
+            json.put("incoming", incoming);
+            return json;
+        }
+    }
+}
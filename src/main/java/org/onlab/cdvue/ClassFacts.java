@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable facts extracted from a single class; the only part of the parsed source model that outlives parsing.
+ * Names are interned, since the same service interfaces are referenced by many classes.
+ */
+final class ClassFacts {
+    private static final int COMPONENT = 1;
+    private static final int SERVICE = 2;
+    private static final int INTERFACE = 4;
+
+    private final String name;
+    private final int flags;
+    private final String serviceTag;
+    private final String[] interfaces;
+    private final String[] references;
+
+    /**
+     * Constructor for objects of class ClassFacts.
+     *
+     * @param name          the fully qualified name of the class
+     * @param component     whether the class has an @Component annotation
+     * @param service       whether the class has an @Service annotation
+     * @param isInterface   whether the class is an interface
+     * @param serviceTag    the interface named by the @Service annotation, or an empty string
+     * @param interfaces    the interfaces the class implements, including the ones provided by service superclasses
+     * @param references    the types of all @Reference fields, including those of component superclasses
+     */
+    ClassFacts(String name, boolean component, boolean service, boolean isInterface, String serviceTag,
+               List<String> interfaces, List<String> references) {
+        this.name = name.intern();
+        this.flags = (component ? COMPONENT : 0) | (service ? SERVICE : 0) | (isInterface ? INTERFACE : 0);
+        this.serviceTag = serviceTag.intern();
+        this.interfaces = intern(interfaces);
+        this.references = intern(references);
+    }
+
+    private static String[] intern(List<String> names) {
+        String[] result = new String[names.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = names.get(i).intern();
+        return result;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isComponent() {
+        return (flags & COMPONENT) != 0;
+    }
+
+    boolean isService() {
+        return (flags & SERVICE) != 0;
+    }
+
+    boolean isInterface() {
+        return (flags & INTERFACE) != 0;
+    }
+
+    /**
+     * Returns the interface named by the class's @Service annotation.
+     *
+     * @return the service tag, or an empty string if there is none
+     */
+    String getServiceTag() {
+        return serviceTag;
+    }
+
+    /**
+     * Returns the interfaces the class implements, in the order they were found; may contain duplicates.
+     *
+     * @return list of fully qualified interface names
+     */
+    List<String> getInterfaces() {
+        return Collections.unmodifiableList(Arrays.asList(interfaces));
+    }
+
+    /**
+     * Returns the types of the class's @Reference fields, in the order they were found; may contain duplicates.
+     *
+     * @return list of fully qualified type names
+     */
+    List<String> getReferences() {
+        return Collections.unmodifiableList(Arrays.asList(references));
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of a compiled class that matter to the graph: its name, its supertypes, its component and service
+ * annotations and the types referred to by its @Reference fields and methods, as told by the annotation rules.
+ * <p>
+ * A class file is read in a single pass over its bytes. Only the offsets of the constant pool entries are noted, and
+ * only the strings actually needed are decoded; methods, code and all other attributes are skipped by their lengths.
+ * The SCR and Declarative Services annotations are retained in class files as invisible annotations, so both the
+ * visible and the invisible annotation attributes are read. A class whose constant pool names no annotation with a
+ * rule can neither be part of the graph nor pass anything on to its subclasses, so reading stops after the constant
+ * pool; constants are compared with the descriptors of the same length only, without being decoded.
+ * </p>
+ * <p>
+ * Names are given in binary form with dots for slashes, e.g. "org.onlab.Outer$Inner", which is also how the source
+ * front end names nested classes.
+ * </p>
+ */
+final class ClassFile {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final int access;
+    private final boolean component;
+    private final boolean service;
+    private final List<String> serviceTags;
+    private final List<String> references;
+
+    private ClassFile(Reader reader) {
+        this.name = reader.name;
+        this.superName = reader.superName;
+        this.interfaces = reader.interfaces;
+        this.access = reader.access;
+        this.component = reader.component;
+        this.service = reader.service;
+        this.serviceTags = reader.serviceTags;
+        this.references = reader.references;
+    }
+
+    /**
+     * Reads the class file held by the given buffer, from its position to its limit.
+     *
+     * @param buffer    the buffer holding the class file
+     * @return the class, or null if it carries no annotations with a rule
+     * @throws IllegalArgumentException if the buffer does not hold a valid class file
+     */
+    static ClassFile read(ByteBuffer buffer) {
+        try {
+            Reader reader = new Reader(buffer.slice()).read();
+            return reader == null ? null : new ClassFile(reader);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * Returns the name of the class.
+     *
+     * @return the fully qualified name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the name of the superclass.
+     *
+     * @return the name, or null for java.lang.Object and module descriptors
+     */
+    String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * Returns the names of the interfaces the class directly implements, in declaration order.
+     *
+     * @return list of names
+     */
+    List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * Returns whether the class is abstract; interfaces, which are always abstract in class files, are not counted,
+     * like in source.
+     *
+     * @return true if the class is an abstract class
+     */
+    boolean isAbstract() {
+        return (access & (ACC_ABSTRACT | ACC_INTERFACE)) == ACC_ABSTRACT;
+    }
+
+    boolean isComponent() {
+        return component;
+    }
+
+    boolean isService() {
+        return service;
+    }
+
+    /**
+     * Returns the first interface named by the class's @Service annotations, unless it names the class itself.
+     *
+     * @return the fully qualified name of the interface, or an empty string if there is none
+     */
+    String getServiceTag() {
+        return serviceTags.isEmpty() ? "" : serviceTags.get(0);
+    }
+
+    /**
+     * Returns all interfaces named by the class's @Service annotations, leaving out the class itself.
+     *
+     * @return list of fully qualified names, in the order they are named
+     */
+    List<String> getServiceTags() {
+        return serviceTags;
+    }
+
+    /**
+     * Returns the types referred to by the fields and methods annotated with @Reference: the types named by the
+     * annotation, or else the type of the field or of the first parameter of the method, fields first, in declaration
+     * order.
+     *
+     * @return list of fully qualified type names
+     */
+    List<String> getReferences() {
+        return references;
+    }
+
+    /**
+     * The state of reading a single class file.
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final AnnotationRules rules = AnnotationRules.get();
+        private int[] offsets; //constant pool index to the offset of its entry's tag
+        private String[] strings; //decoded UTF-8 constants
+        private boolean annotated; //whether a UTF-8 constant names an annotation with a rule
+
+        private String name;
+        private String superName;
+        private List<String> interfaces = Collections.emptyList();
+        private int access;
+        private boolean component;
+        private boolean service;
+        private final List<String> serviceTags = new ArrayList<>();
+        private final List<String> references = new ArrayList<>();
+        private final List<String> methodReferences = new ArrayList<>();
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reads the class file.
+         *
+         * @return this reader, or null if the class carries no annotations with a rule
+         */
+        Reader read() {
+            if (buffer.getInt() != MAGIC)
+                throw new IllegalArgumentException("Not a class file");
+            buffer.getInt(); //minor and major version
+            readConstantPool();
+            if (!annotated)
+                return null;
+
+            access = u2();
+            name = className(u2());
+            int superIndex = u2();
+            superName = superIndex == 0 ? null : className(superIndex);
+            int interfaceCount = u2();
+            int[] interfaceIndexes = new int[interfaceCount];
+            for (int i = 0; i < interfaceCount; i++)
+                interfaceIndexes[i] = u2();
+
+            int fieldCount = u2();
+            for (int i = 0; i < fieldCount; i++)
+                readField();
+            int methodCount = u2();
+            for (int i = 0; i < methodCount; i++)
+                readMethod();
+            references.addAll(methodReferences);
+            int attributeCount = u2();
+            for (int i = 0; i < attributeCount; i++) {
+                String attribute = utf8(u2());
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                if (attribute.equals("RuntimeInvisibleAnnotations") || attribute.equals("RuntimeVisibleAnnotations"))
+                    readClassAnnotations();
+                buffer.position(end);
+            }
+
+            if (interfaceCount > 0) {
+                interfaces = new ArrayList<>(interfaceCount);
+                for (int index : interfaceIndexes)
+                    interfaces.add(className(index));
+            }
+            serviceTags.remove(name); //the class is a @Service of itself
+            return this;
+        }
+
+        private void readConstantPool() {
+            int count = u2();
+            offsets = new int[count];
+            strings = new String[count];
+            for (int i = 1; i < count; i++) {
+                offsets[i] = buffer.position();
+                int tag = buffer.get();
+                switch (tag) {
+                    case 1: //Utf8
+                        int length = u2();
+                        annotated = annotated || rules.isDescriptor(buffer, buffer.position(), length);
+                        buffer.position(buffer.position() + length);
+                        break;
+                    case 7: //Class
+                    case 8: //String
+                    case 16: //MethodType
+                    case 19: //Module
+                    case 20: //Package
+                        buffer.position(buffer.position() + 2);
+                        break;
+                    case 15: //MethodHandle
+                        buffer.position(buffer.position() + 3);
+                        break;
+                    case 3: //Integer
+                    case 4: //Float
+                    case 9: //Fieldref
+                    case 10: //Methodref
+                    case 11: //InterfaceMethodref
+                    case 12: //NameAndType
+                    case 17: //Dynamic
+                    case 18: //InvokeDynamic
+                        buffer.position(buffer.position() + 4);
+                        break;
+                    case 5: //Long
+                    case 6: //Double
+                        buffer.position(buffer.position() + 8);
+                        i++; //takes two entries
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        private void readField() {
+            buffer.position(buffer.position() + 2); //access
+            buffer.position(buffer.position() + 2); //name
+            int descriptor = u2();
+            readMemberAnnotations(descriptor, references, false);
+        }
+
+        private void readMethod() {
+            buffer.position(buffer.position() + 2); //access
+            buffer.position(buffer.position() + 2); //name
+            int descriptor = u2();
+            readMemberAnnotations(descriptor, methodReferences, true);
+        }
+
+        /**
+         * Reads the attributes of a field or method, adding the types it refers to to the given list if it is
+         * annotated with @Reference: the types named by the annotation, or else the type given by the descriptor of
+         * the field, or by the descriptor of the first parameter of the method.
+         */
+        private void readMemberAnnotations(int descriptor, List<String> found, boolean method) {
+            int attributeCount = u2();
+            for (int i = 0; i < attributeCount; i++) {
+                String attribute = utf8(u2());
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                if (attribute.equals("RuntimeInvisibleAnnotations") || attribute.equals("RuntimeVisibleAnnotations")) {
+                    int count = u2();
+                    List<String> named = null; //the class values of the first @Reference, once one is read
+                    for (int a = 0; a < count; a++) {
+                        List<String> values = new ArrayList<>();
+                        AnnotationRules.Rule rule = readAnnotation(values);
+                        if (named == null && rule != null && rule.has(AnnotationRules.Role.REFERENCE))
+                            named = values;
+                    }
+                    if (named != null && named.isEmpty()) {
+                        String type = method ? firstParameter(utf8(descriptor)) : utf8(descriptor);
+                        if (type != null)
+                            found.add(typeName(type));
+                    }
+                    else if (named != null) {
+                        for (String type : named)
+                            found.add(typeName(type));
+                    }
+                }
+                buffer.position(end);
+            }
+        }
+
+        /**
+         * Returns the descriptor of the first parameter given by a method descriptor.
+         *
+         * @return the descriptor, or null if the method takes no parameters
+         */
+        private static String firstParameter(String descriptor) {
+            int i = 1;
+            if (descriptor.charAt(i) == ')')
+                return null;
+            while (descriptor.charAt(i) == '[')
+                i++;
+            int end = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+            return descriptor.substring(1, end);
+        }
+
+        private void readClassAnnotations() {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                List<String> values = new ArrayList<>();
+                AnnotationRules.Rule rule = readAnnotation(values);
+                if (rule == null)
+                    continue;
+                component |= rule.has(AnnotationRules.Role.COMPONENT);
+                if (rule.has(AnnotationRules.Role.SERVICE)) {
+                    service = true;
+                    for (String value : values)
+                        serviceTags.add(typeName(value));
+                }
+            }
+        }
+
+        /**
+         * Reads an annotation, collecting the class values of the element its rule names, if any, such as the value
+         * of @Service.
+         *
+         * @param values    the list to add the descriptors of the class values to
+         * @return the rule of the annotation, or null if it has none
+         */
+        private AnnotationRules.Rule readAnnotation(List<String> values) {
+            AnnotationRules.Rule rule = rules.ofDescriptor(utf8(u2()));
+            String element = rule == null ? null : rule.getElement();
+            int pairs = u2();
+            for (int i = 0; i < pairs; i++)
+                readElementValue(utf8(u2()).equals(element) ? values : null);
+            return rule;
+        }
+
+        /**
+         * Reads an element value, adding the descriptors of the classes it holds, alone or in an array, to the given
+         * list, if any.
+         */
+        private void readElementValue(List<String> classes) {
+            int tag = buffer.get();
+            switch (tag) {
+                case 'c':
+                    String value = utf8(u2());
+                    if (classes != null)
+                        classes.add(value);
+                    break;
+                case 'e':
+                    buffer.position(buffer.position() + 4);
+                    break;
+                case '@':
+                    buffer.position(buffer.position() + 2);
+                    int pairs = u2();
+                    for (int i = 0; i < pairs; i++) {
+                        buffer.position(buffer.position() + 2);
+                        readElementValue(null);
+                    }
+                    break;
+                case '[':
+                    int count = u2();
+                    for (int i = 0; i < count; i++)
+                        readElementValue(classes);
+                    break;
+                default: //a constant
+                    buffer.position(buffer.position() + 2);
+                    break;
+            }
+        }
+
+        /**
+         * Returns the name of the type given by a field descriptor, with a pair of brackets per array dimension.
+         */
+        private String typeName(String descriptor) {
+            int dimensions = 0;
+            while (descriptor.charAt(dimensions) == '[')
+                dimensions++;
+            String type;
+            char kind = descriptor.charAt(dimensions);
+            if (kind == 'L')
+                type = descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.');
+            else
+                type = primitive(kind);
+            StringBuilder sb = new StringBuilder(type);
+            for (int i = 0; i < dimensions; i++)
+                sb.append("[]");
+            return sb.toString();
+        }
+
+        private static String primitive(char kind) {
+            switch (kind) {
+                case 'B': return "byte";
+                case 'C': return "char";
+                case 'D': return "double";
+                case 'F': return "float";
+                case 'I': return "int";
+                case 'J': return "long";
+                case 'S': return "short";
+                case 'Z': return "boolean";
+                default: return "void";
+            }
+        }
+
+        private int u2() {
+            return buffer.getShort() & 0xFFFF;
+        }
+
+        private String className(int index) {
+            return utf8(buffer.getShort(offsets[index] + 1) & 0xFFFF).replace('/', '.');
+        }
+
+        /**
+         * Decodes the given UTF-8 constant on first use. Class files use a modified UTF-8, which differs from the
+         * standard one only in how the null character and supplementary characters are encoded.
+         */
+        private String utf8(int index) {
+            String s = strings[index];
+            if (s == null) {
+                int offset = offsets[index];
+                int length = buffer.getShort(offset + 1) & 0xFFFF;
+                char[] chars = new char[length];
+                int count = 0;
+                int i = offset + 3;
+                int end = i + length;
+                while (i < end) {
+                    int b = buffer.get(i++) & 0xFF;
+                    if (b < 0x80)
+                        chars[count++] = (char) b;
+                    else if (b < 0xE0)
+                        chars[count++] = (char) ((b & 0x1F) << 6 | buffer.get(i++) & 0x3F);
+                    else {
+                        chars[count++] = (char) ((b & 0x0F) << 12 | (buffer.get(i) & 0x3F) << 6 | buffer.get(i + 1) & 0x3F);
+                        i += 2;
+                    }
+                }
+                s = new String(chars, 0, count);
+                strings[index] = s;
+            }
+            return s;
+        }
+    }
+}
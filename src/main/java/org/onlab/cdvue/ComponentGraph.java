@@ -0,0 +1,720 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Class that holds the component graph in compact form for answering queries. Nodes and services are numbered, and
+ * every relation is kept in compressed sparse row form: an offsets array indexed by id, and a targets array holding
+ * the ids each id is related to, sorted.
+ * <p>
+ * The nodes are the nodes of the catalog: the components, followed by a ghost node named "service?" for every
+ * referenced service which no component implements. A node depends on another if it refers to a service the other
+ * node provides. Services are kept as well, with the components providing and referring to them, so that queries
+ * may start at a service and removals can be followed service by service.
+ * </p>
+ * <p>
+ * The graph is built from the maps of the graph handler, or loaded from a snapshot, whose relations are copied over
+ * without building any map. Nodes and services are sorted by name either way, so names are looked up by binary search.
+ * </p>
+ * <p>
+ * The graph is immutable once built. Traversals reuse scratch arrays and are therefore serialized.
+ * </p>
+ */
+class ComponentGraph {
+    private final String[] nodeNames;
+    private final int componentCount;
+    private final String[] serviceNames;
+    private Map<String, List<String>> simpleNames; //simple names of nodes and services to full ones, built on first use
+
+    private final int[] dependsOnOffsets;
+    private final int[] dependsOn;
+    private final int[] dependentsOffsets;
+    private final int[] dependents;
+    private final int[] providesOffsets; //component to the services it provides
+    private final int[] provides;
+    private final int[] providersOffsets; //service to the components providing it
+    private final int[] providers;
+    private final int[] refersToOffsets; //node to the services it refers to
+    private final int[] refersTo;
+    private final int[] referrersOffsets; //service to the components referring to it
+    private final int[] referrers;
+    private final int[] ghostOf; //service to its ghost node, or -1
+    private final boolean[] serviceComponents; //whether each node is a component providing services
+
+    //scratch space for traversals
+    private final int[] queue;
+    private final int[] marks;
+    private final int[] parents;
+    private final int[] distances;
+    private final int[] serviceMarks;
+    private final int[] providersLeft;
+    private int mark;
+
+    /**
+     * Constructor for objects of class ComponentGraph.
+     *
+     * @param serviceToComponents       the map of service interfaces to the components that implement them
+     * @param componentToReferences     the map of components to the interfaces they refer to
+     * @param componentToServices       the map of components to the interfaces they implement
+     */
+    ComponentGraph(Map<String, Set<String>> serviceToComponents, Map<String, Set<String>> componentToReferences,
+                   Map<String, Set<String>> componentToServices) {
+        this(Layout.of(serviceToComponents, componentToReferences, componentToServices));
+    }
+
+    /**
+     * Constructor for objects of class ComponentGraph; loads the graph from a snapshot, dependencies included.
+     *
+     * @param snapshot  the snapshot
+     */
+    ComponentGraph(GraphSnapshot snapshot) {
+        this(Layout.of(snapshot));
+    }
+
+    private ComponentGraph(Layout layout) {
+        nodeNames = layout.nodeNames;
+        componentCount = layout.componentCount;
+        serviceNames = layout.serviceNames;
+        serviceComponents = layout.serviceComponents;
+        ghostOf = layout.ghostOf;
+        providesOffsets = layout.providesOffsets;
+        provides = layout.provides;
+        refersToOffsets = layout.refersToOffsets;
+        refersTo = layout.refersTo;
+        providersOffsets = new int[serviceNames.length + 1];
+        providers = transpose(providesOffsets, provides, providersOffsets);
+        referrersOffsets = new int[serviceNames.length + 1];
+        referrers = transpose(refersToOffsets, refersTo, referrersOffsets);
+
+        queue = new int[Math.max(nodeNames.length, serviceNames.length)];
+        marks = new int[nodeNames.length];
+        parents = new int[nodeNames.length];
+        distances = new int[nodeNames.length];
+        serviceMarks = new int[serviceNames.length];
+        providersLeft = new int[serviceNames.length];
+
+        if (layout.dependsOn != null) {
+            dependsOnOffsets = layout.dependsOnOffsets;
+            dependsOn = layout.dependsOn;
+        }
+        else {
+            //a component depends on the other providers of each service it refers to, or on the service's ghost node
+            dependsOnOffsets = new int[nodeNames.length + 1];
+            int[] targets = new int[16];
+            int count = 0;
+            for (int i = 0; i < componentCount; i++) {
+                mark++;
+                int start = count;
+                for (int k = refersToOffsets[i]; k < refersToOffsets[i + 1]; k++) {
+                    int s = refersTo[k];
+                    if (ghostOf[s] >= 0 && visit(ghostOf[s]))
+                        targets = append(targets, count++, ghostOf[s]);
+                    for (int p = providersOffsets[s]; p < providersOffsets[s + 1]; p++) {
+                        int target = providers[p];
+                        if (target != i && visit(target))
+                            targets = append(targets, count++, target);
+                    }
+                }
+                Arrays.sort(targets, start, count);
+                dependsOnOffsets[i + 1] = count;
+            }
+            for (int i = componentCount; i < nodeNames.length; i++)
+                dependsOnOffsets[i + 1] = count;
+            dependsOn = Arrays.copyOf(targets, count);
+        }
+        dependentsOffsets = new int[nodeNames.length + 1];
+        dependents = transpose(dependsOnOffsets, dependsOn, dependentsOffsets);
+    }
+
+    private static void index(Map<String, List<String>> simpleNames, String name) {
+        simpleNames.computeIfAbsent(name.substring(name.lastIndexOf('.') + 1), s -> new ArrayList<>(1)).add(name);
+    }
+
+    private static int[] serviceIdsOf(Set<String> names, Map<String, Integer> serviceIds) {
+        if (names == null)
+            return new int[0];
+        int[] ids = new int[names.size()];
+        int i = 0;
+        for (String name : names)
+            ids[i++] = serviceIds.get(name);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static int[] flatten(List<int[]> rows, int[] offsets) {
+        int[] flat = new int[offsets[offsets.length - 1]];
+        for (int i = 0; i < rows.size(); i++)
+            System.arraycopy(rows.get(i), 0, flat, offsets[i], rows.get(i).length);
+        return flat;
+    }
+
+    private static int[] append(int[] array, int size, int value) {
+        if (size == array.length)
+            array = Arrays.copyOf(array, size * 2);
+        array[size] = value;
+        return array;
+    }
+
+    /**
+     * Returns the reverse of the given relation, filling in its offsets; rows come out sorted since they are
+     * filled in id order.
+     */
+    private static int[] transpose(int[] offsets, int[] targets, int[] reverseOffsets) {
+        for (int target : targets)
+            reverseOffsets[target + 1]++;
+        for (int i = 1; i < reverseOffsets.length; i++)
+            reverseOffsets[i] += reverseOffsets[i - 1];
+        int[] next = Arrays.copyOf(reverseOffsets, reverseOffsets.length - 1);
+        int[] reverse = new int[targets.length];
+        for (int i = 0; i + 1 < offsets.length; i++) {
+            for (int k = offsets[i]; k < offsets[i + 1]; k++)
+                reverse[next[targets[k]]++] = i;
+        }
+        return reverse;
+    }
+
+    /**
+     * Marks the given node as visited in the current traversal.
+     *
+     * @return true if it was not visited before
+     */
+    private boolean visit(int node) {
+        if (marks[node] == mark)
+            return false;
+        marks[node] = mark;
+        return true;
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return number of nodes
+     */
+    int getNodeCount() {
+        return nodeNames.length;
+    }
+
+    /**
+     * Returns the number of dependency edges.
+     *
+     * @return number of edges
+     */
+    int getEdgeCount() {
+        return dependsOn.length;
+    }
+
+    /**
+     * Returns the name of the given node.
+     *
+     * @param node      the node id
+     * @return the name, as on the catalog
+     */
+    String getNodeName(int node) {
+        return nodeNames[node];
+    }
+
+    /**
+     * Returns the id of the node with the given name. Components and services are sorted by name, so the name is
+     * looked up by binary search, and that of a ghost node through its service.
+     *
+     * @param name      the name, as on the catalog
+     * @return the node id, or -1 if there is no such node
+     */
+    int getNodeId(String name) {
+        if (name.endsWith("?")) {
+            int service = getServiceId(name.substring(0, name.length() - 1));
+            return service < 0 ? -1 : ghostOf[service];
+        }
+        int id = Arrays.binarySearch(nodeNames, 0, componentCount, name);
+        return id < 0 ? -1 : id;
+    }
+
+    /**
+     * Returns the number of components. Components are numbered first, so any higher node id is that of a ghost node.
+     *
+     * @return number of components
+     */
+    int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Returns the name of the given service.
+     *
+     * @param service   the service id
+     * @return the fully qualified name
+     */
+    String getServiceName(int service) {
+        return serviceNames[service];
+    }
+
+    /**
+     * Returns the number of services, referenced or provided.
+     *
+     * @return number of services
+     */
+    int getServiceCount() {
+        return serviceNames.length;
+    }
+
+    /**
+     * Returns the ghost node standing in for the given service.
+     *
+     * @param service   the service id
+     * @return the node id, or -1 if some component provides the service
+     */
+    int getGhostNode(int service) {
+        return ghostOf[service];
+    }
+
+    /**
+     * Returns the id of the service with the given name.
+     *
+     * @param name      the fully qualified name
+     * @return the service id, or -1 if no component provides or refers to such a service
+     */
+    int getServiceId(String name) {
+        int id = Arrays.binarySearch(serviceNames, name);
+        return id < 0 ? -1 : id;
+    }
+
+    /**
+     * Returns the full names of the nodes and services with the given simple name.
+     *
+     * @param simpleName    the name without its package
+     * @return list of names; empty if there are none
+     */
+    synchronized List<String> getFullNames(String simpleName) {
+        if (simpleNames == null) {
+            Map<String, List<String>> index = new HashMap<>();
+            for (String service : serviceNames)
+                index(index, service);
+            for (int i = 0; i < componentCount; i++)
+                index(index, nodeNames[i]);
+            simpleNames = index;
+        }
+        return simpleNames.getOrDefault(simpleName, Collections.emptyList());
+    }
+
+    /**
+     * Returns the offsets into the dependency targets, indexed by node id; the targets of node i are found from
+     * offsets[i] up to offsets[i + 1]. The array must not be modified.
+     *
+     * @return the offsets
+     */
+    int[] getDependsOnOffsets() {
+        return dependsOnOffsets;
+    }
+
+    /**
+     * Returns the dependency targets of all nodes, as addressed by {@link #getDependsOnOffsets()}. The array must not
+     * be modified.
+     *
+     * @return the targets
+     */
+    int[] getDependsOn() {
+        return dependsOn;
+    }
+
+    /**
+     * Returns the nodes the given node directly depends on.
+     *
+     * @param node      the node id
+     * @return sorted node ids
+     */
+    int[] dependenciesOf(int node) {
+        return Arrays.copyOfRange(dependsOn, dependsOnOffsets[node], dependsOnOffsets[node + 1]);
+    }
+
+    /**
+     * Returns the nodes which directly depend on the given node.
+     *
+     * @param node      the node id
+     * @return sorted node ids
+     */
+    int[] dependentsOf(int node) {
+        return Arrays.copyOfRange(dependents, dependentsOffsets[node], dependentsOffsets[node + 1]);
+    }
+
+    /**
+     * Returns the services the given node refers to.
+     *
+     * @param node      the node id
+     * @return sorted service ids; empty for ghost nodes
+     */
+    int[] referencesOf(int node) {
+        return Arrays.copyOfRange(refersTo, refersToOffsets[node], refersToOffsets[node + 1]);
+    }
+
+    /**
+     * Returns the services the given node provides.
+     *
+     * @param node      the node id
+     * @return sorted service ids; empty for ghost nodes
+     */
+    int[] servicesOf(int node) {
+        return Arrays.copyOfRange(provides, providesOffsets[node], providesOffsets[node + 1]);
+    }
+
+    /**
+     * Returns whether the given node is a component providing services, that is one with an @Service annotation,
+     * even if the annotation names no interface.
+     *
+     * @param node      the node id
+     * @return true if the node provides services
+     */
+    boolean isServiceComponent(int node) {
+        return serviceComponents[node];
+    }
+
+    /**
+     * Returns the nodes providing the given service: its implementing components, or its ghost node.
+     *
+     * @param service   the service id
+     * @return sorted node ids
+     */
+    int[] providersOf(int service) {
+        if (ghostOf[service] >= 0)
+            return new int[]{ghostOf[service]};
+        return Arrays.copyOfRange(providers, providersOffsets[service], providersOffsets[service + 1]);
+    }
+
+    /**
+     * Returns the components which refer to the given service.
+     *
+     * @param service   the service id
+     * @return sorted node ids
+     */
+    int[] referrersOf(int service) {
+        return Arrays.copyOfRange(referrers, referrersOffsets[service], referrersOffsets[service + 1]);
+    }
+
+    /**
+     * Returns every node reachable from the given nodes, in breadth-first order, together with its distance from
+     * the nearest of them. The given nodes themselves are not included.
+     *
+     * @param starts        the node ids to start from
+     * @param dependencies  true to follow dependencies, false to follow dependents
+     * @return two arrays: the node ids reached, and their distances
+     */
+    synchronized int[][] reach(int[] starts, boolean dependencies) {
+        int[] offsets = dependencies ? dependsOnOffsets : dependentsOffsets;
+        int[] targets = dependencies ? dependsOn : dependents;
+        mark++;
+        int head = 0;
+        int tail = 0;
+        for (int start : starts) {
+            if (marks[start] != mark) {
+                marks[start] = mark;
+                distances[start] = 0;
+                queue[tail++] = start;
+            }
+        }
+        int found = tail;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int k = offsets[node]; k < offsets[node + 1]; k++) {
+                int target = targets[k];
+                if (visit(target)) {
+                    distances[target] = distances[node] + 1;
+                    queue[tail++] = target;
+                }
+            }
+        }
+
+        int[] nodes = Arrays.copyOfRange(queue, found, tail);
+        int[] depths = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            depths[i] = distances[nodes[i]];
+        return new int[][]{nodes, depths};
+    }
+
+    /**
+     * Returns a shortest chain of dependencies leading from one of the given nodes to one of the other given nodes.
+     *
+     * @param from      the node ids to start from
+     * @param to        the node ids to end at
+     * @return the node ids along the path, both ends included; empty if there is none
+     */
+    synchronized int[] path(int[] from, int[] to) {
+        int goal = ++mark;
+        for (int target : to)
+            marks[target] = goal; //targets keep this mark until the search, which uses the next one, reaches them
+        for (int start : from) {
+            if (marks[start] == goal)
+                return new int[]{start};
+        }
+
+        mark++;
+        int end = -1;
+        int head = 0;
+        int tail = 0;
+        for (int start : from) {
+            if (marks[start] != mark) {
+                marks[start] = mark;
+                parents[start] = -1;
+                queue[tail++] = start;
+            }
+        }
+        while (head < tail && end < 0) {
+            int node = queue[head++];
+            for (int k = dependsOnOffsets[node]; k < dependsOnOffsets[node + 1] && end < 0; k++) {
+                int target = dependsOn[k];
+                if (marks[target] == goal)
+                    end = target;
+                if (marks[target] != mark) {
+                    marks[target] = mark;
+                    parents[target] = node;
+                    queue[tail++] = target;
+                }
+            }
+        }
+        if (end < 0)
+            return new int[0];
+
+        int length = 0;
+        for (int node = end; node >= 0; node = parents[node])
+            length++;
+        int[] path = new int[length];
+        for (int node = end; node >= 0; node = parents[node])
+            path[--length] = node;
+        return path;
+    }
+
+    /**
+     * Works out what stops working if the given components and services are removed. A component breaks once a
+     * service it refers to has no working provider left, and its own services then lose it as a provider in turn.
+     * Every reference is assumed to be mandatory.
+     *
+     * @param removedNodes      the node ids of the removed components
+     * @param removedServices   the ids of the removed services
+     * @return three arrays: the ids of the services left without a provider, the node ids of the broken components
+     * in the order they break, and the round in which each of them breaks
+     */
+    synchronized int[][] impact(int[] removedNodes, int[] removedServices) {
+        mark++;
+        for (int s = 0; s < serviceNames.length; s++)
+            providersLeft[s] = providersOffsets[s + 1] - providersOffsets[s];
+
+        int head = 0;
+        int tail = 0;
+        int[] orphaned = new int[serviceNames.length];
+        int orphanedCount = 0;
+        for (int s : removedServices) {
+            if (serviceMarks[s] != mark) {
+                serviceMarks[s] = mark;
+                orphaned[orphanedCount++] = s;
+            }
+        }
+        for (int node : removedNodes) {
+            if (visit(node)) {
+                distances[node] = 0;
+                queue[tail++] = node;
+            }
+        }
+
+        //services orphaned up front break their referrers in the first round
+        int firstBroken = tail;
+        for (int i = 0; i < orphanedCount; i++) {
+            int s = orphaned[i];
+            for (int k = referrersOffsets[s]; k < referrersOffsets[s + 1]; k++) {
+                if (visit(referrers[k])) {
+                    distances[referrers[k]] = 1;
+                    queue[tail++] = referrers[k];
+                }
+            }
+        }
+
+        while (head < tail) {
+            int node = queue[head++];
+            for (int k = providesOffsets[node]; k < providesOffsets[node + 1]; k++) {
+                int s = provides[k];
+                if (--providersLeft[s] == 0 && serviceMarks[s] != mark) {
+                    serviceMarks[s] = mark;
+                    orphaned[orphanedCount++] = s;
+                    for (int r = referrersOffsets[s]; r < referrersOffsets[s + 1]; r++) {
+                        if (visit(referrers[r])) {
+                            distances[referrers[r]] = distances[node] + 1;
+                            queue[tail++] = referrers[r];
+                        }
+                    }
+                }
+            }
+        }
+
+        int[] broken = Arrays.copyOfRange(queue, firstBroken, tail);
+        int[] rounds = new int[broken.length];
+        for (int i = 0; i < broken.length; i++)
+            rounds[i] = distances[broken[i]];
+        return new int[][]{Arrays.copyOf(orphaned, orphanedCount), broken, rounds};
+    }
+
+    /**
+     * The names and the relations a graph is built from, gathered either from the maps or from a snapshot. The
+     * dependencies are only known when loading a snapshot; otherwise they are left null, to be worked out.
+     */
+    private static class Layout {
+        private String[] nodeNames;
+        private int componentCount;
+        private String[] serviceNames;
+        private boolean[] serviceComponents;
+        private int[] ghostOf;
+        private int[] providesOffsets;
+        private int[] provides;
+        private int[] refersToOffsets;
+        private int[] refersTo;
+        private int[] dependsOnOffsets;
+        private int[] dependsOn;
+
+        static Layout of(Map<String, Set<String>> serviceToComponents, Map<String, Set<String>> componentToReferences,
+                         Map<String, Set<String>> componentToServices) {
+            Layout layout = new Layout();
+            String[] components = componentToReferences.keySet().toArray(new String[0]);
+            Arrays.sort(components);
+            layout.componentCount = components.length;
+
+            Set<String> services = new TreeSet<>(serviceToComponents.keySet());
+            Set<String> ghosts = new TreeSet<>();
+            for (Set<String> references : componentToReferences.values()) {
+                services.addAll(references);
+                for (String reference : references) {
+                    if (!serviceToComponents.containsKey(reference))
+                        ghosts.add(reference);
+                }
+            }
+            layout.serviceNames = services.toArray(new String[0]);
+            Map<String, Integer> serviceIds = new HashMap<>();
+            for (int s = 0; s < layout.serviceNames.length; s++)
+                serviceIds.put(layout.serviceNames[s], s);
+
+            String[] nodeNames = new String[components.length + ghosts.size()];
+            System.arraycopy(components, 0, nodeNames, 0, components.length);
+            layout.ghostOf = new int[layout.serviceNames.length];
+            Arrays.fill(layout.ghostOf, -1);
+            int n = components.length;
+            for (String ghost : ghosts) {
+                layout.ghostOf[serviceIds.get(ghost)] = n;
+                nodeNames[n++] = ghost + "?";
+            }
+            layout.nodeNames = nodeNames;
+
+            //components to the services they provide and refer to; ghost nodes do neither
+            layout.serviceComponents = new boolean[nodeNames.length];
+            layout.providesOffsets = new int[nodeNames.length + 1];
+            layout.refersToOffsets = new int[nodeNames.length + 1];
+            List<int[]> provided = new ArrayList<>();
+            List<int[]> referred = new ArrayList<>();
+            for (int i = 0; i < nodeNames.length; i++) {
+                boolean component = i < components.length;
+                layout.serviceComponents[i] = component && componentToServices.containsKey(nodeNames[i]);
+                int[] p = component ? serviceIdsOf(componentToServices.get(nodeNames[i]), serviceIds) : new int[0];
+                int[] r = component ? serviceIdsOf(componentToReferences.get(nodeNames[i]), serviceIds) : new int[0];
+                provided.add(p);
+                referred.add(r);
+                layout.providesOffsets[i + 1] = layout.providesOffsets[i] + p.length;
+                layout.refersToOffsets[i + 1] = layout.refersToOffsets[i] + r.length;
+            }
+            layout.provides = flatten(provided, layout.providesOffsets);
+            layout.refersTo = flatten(referred, layout.refersToOffsets);
+            return layout;
+        }
+
+        /**
+         * Gathers the names and relations of a snapshot. Components, interfaces and unresolved interfaces come in
+         * name order in the snapshot, which is the order they are numbered in here as well, so every row stays sorted.
+         */
+        static Layout of(GraphSnapshot snapshot) {
+            Layout layout = new Layout();
+            int names = snapshot.getNameCount();
+            int components = snapshot.getComponentCount();
+            layout.componentCount = components;
+            layout.nodeNames = new String[components + snapshot.getUnresolvedCount()];
+            layout.serviceNames = new String[snapshot.getInterfaceCount()];
+            layout.serviceComponents = new boolean[layout.nodeNames.length];
+            layout.ghostOf = new int[layout.serviceNames.length];
+            Arrays.fill(layout.ghostOf, -1);
+
+            int[] componentNames = new int[components]; //node to its name id
+            int[] nodeOf = new int[names]; //name id to its component node
+            int[] serviceOf = new int[names]; //name id to its service id
+            int c = 0;
+            int g = components;
+            int s = 0;
+            for (int id = 0; id < names; id++) {
+                int flags = snapshot.getFlags(id);
+                String name = snapshot.getName(id);
+                nodeOf[id] = -1;
+                serviceOf[id] = -1;
+                if ((flags & GraphSnapshot.COMPONENT) != 0) {
+                    layout.serviceComponents[c] = (flags & GraphSnapshot.SERVICE) != 0;
+                    componentNames[c] = id;
+                    nodeOf[id] = c;
+                    layout.nodeNames[c++] = name;
+                }
+                if ((flags & GraphSnapshot.INTERFACE) != 0) {
+                    if ((flags & GraphSnapshot.UNRESOLVED) != 0) {
+                        layout.ghostOf[s] = g;
+                        layout.nodeNames[g++] = name + "?";
+                    }
+                    serviceOf[id] = s;
+                    layout.serviceNames[s++] = name;
+                }
+            }
+
+            int[] ghostOf = layout.ghostOf;
+            int[][] provides = rows(snapshot.getProvides(), componentNames, layout.nodeNames.length, t -> serviceOf[t]);
+            int[][] refersTo = rows(snapshot.getReferences(), componentNames, layout.nodeNames.length,
+                                    t -> serviceOf[t]);
+            int[][] dependsOn = rows(snapshot.getDependsOn(), componentNames, layout.nodeNames.length,
+                                     t -> t >= 0 ? nodeOf[t] : ghostOf[serviceOf[GraphSnapshot.unresolved(t)]]);
+            layout.providesOffsets = provides[0];
+            layout.provides = provides[1];
+            layout.refersToOffsets = refersTo[0];
+            layout.refersTo = refersTo[1];
+            layout.dependsOnOffsets = dependsOn[0];
+            layout.dependsOn = dependsOn[1];
+            return layout;
+        }
+
+        /**
+         * Copies the rows of the given components out of a snapshot, renumbering the targets; the rows of the nodes
+         * after the components are empty.
+         */
+        private static int[][] rows(GraphSnapshot.Rows rows, int[] componentNames, int nodes, IntUnaryOperator map) {
+            int[] offsets = new int[nodes + 1];
+            for (int c = 0; c < componentNames.length; c++)
+                offsets[c + 1] = offsets[c] + rows.end(componentNames[c]) - rows.start(componentNames[c]);
+            for (int i = componentNames.length; i < nodes; i++)
+                offsets[i + 1] = offsets[i];
+            //only components have rows, so the targets follow each other in node order already
+            int[] targets = rows.getAll();
+            for (int k = 0; k < targets.length; k++)
+                targets[k] = map.applyAsInt(targets[k]);
+            return new int[][]{offsets, targets};
+        }
+    }
+}
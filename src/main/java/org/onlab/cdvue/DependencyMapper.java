@@ -16,7 +16,20 @@
 
 package org.onlab.cdvue;
 
+import org.json.simple.JSONArray;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Class that runs the Dependency Mapper Tool.
@@ -25,18 +38,51 @@ import java.util.Objects;
  * @version 1.0
  */
 public class DependencyMapper {
+    private static final int DEFAULT_PORT = 8080;
+    private static final String USAGE = String.join("\n",
+            "Usage: cdvue [options] <path>...",
+            "       cdvue --diff <before> <after> [options]",
+            "Options:",
+            "  --threads <count>        parse on as many threads",
+            "  --cache <file>           reuse the facts of unchanged files",
+            "  --output <file>          write the page to the file",
+            "  --output-dir <dir>       write the graph as a directory of chunks",
+            "  --gzip                   compress the chunks",
+            "  --annotations <file>     read further annotation rules",
+            "  --export <file>          export the graph as .jsonl, .dot or .graphml",
+            "  --report <file>          write the report to the file",
+            "  --snapshot <file>        write a snapshot of the graph",
+            "  --memory <MB>            keep the facts within the budget",
+            "  --collapse <count>       draw larger packages as one node",
+            "  --metrics <file>         write the run metrics",
+            "  --watch                  serve the viewer and follow changes",
+            "  --port <port>            serve on the port",
+            "  --query                  answer queries read from the console",
+            "  --bytecode               map compiled classes",
+            "  --revision <rev>         map the source of a git revision");
 
     private static boolean debugOn = Objects.equals("true", System.getenv("cdvueDebug"));
 
-    private void processDirectory(String path) throws Exception {
-        DependencyParser p = new DependencyParser(path);
+    private void processDirectory(List<String> paths, int threads, File cacheFile, long memoryBudget, File output,
+                                  File report, File snapshot, boolean bytecode, String revision, File metricsFile,
+                                  int collapseAbove, boolean chunked, boolean gzip, List<File> exports)
+            throws Exception {
         try {
             println("Executing.");
-            p.execute();
+            RunMetrics metrics = new RunMetrics();
+            GraphHandler g = load(paths, threads, cacheFile, memoryBudget, bytecode, revision, metrics);
 
             println("Execution complete. JSON's compiled.");
             println("Making Graph...");
-            p.makeGraph();
+            g.setMetrics(metrics);
+            g.setCollapseAbove(collapseAbove);
+            g.setChunked(chunked, gzip);
+            g.setExports(exports);
+            g.prepareGraph(output, report, snapshot);
+            if (metricsFile != null) {
+                metrics.write(metricsFile);
+                System.out.println("Wrote run metrics to " + metricsFile + ".");
+            }
         }
         catch (Exception e) {
             println("Execution failed.");
@@ -44,21 +90,302 @@ public class DependencyMapper {
         }
     }
 
+    /**
+     * Compares two snapshots, writing the report to the given file, or printing it if there is none, and the viewer
+     * page highlighting the differences to the output file.
+     */
+    private void diffSnapshots(File before, File after, File output, File report, int collapseAbove, boolean chunked,
+                               boolean gzip) throws IOException {
+        SnapshotDiff diff = new SnapshotDiff(GraphSnapshot.open(before), GraphSnapshot.open(after));
+        if (report != null) {
+            try (Writer writer = Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8)) {
+                diff.writeReport(writer);
+            }
+        }
+        else {
+            Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            diff.writeReport(writer);
+            writer.flush();
+        }
+        String title = "Dependency Mapper: " + before.getName() + " to " + after.getName();
+        JSONArray catalog = diff.buildCatalog();
+        if (chunked)
+            new ChunkWriter(gzip).write(title, catalog, output);
+        else
+            new PageWriter().write(title, catalog, GraphLayout.build(catalog, collapseAbove), output);
+        int cycles = diff.getNewCycleCount();
+        System.out.println((diff.isEmpty() ? "No differences" : "Differences") + " highlighted in " + output
+                + (cycles > 0 ? "; " + cycles + (cycles == 1 ? " new dependency cycle." : " new dependency cycles.")
+                : "."));
+    }
+
+    private void queryDirectory(List<String> paths, int threads, File cacheFile, long memoryBudget, boolean bytecode,
+                                String revision) throws Exception {
+        println("Executing.");
+        GraphHandler g = load(paths, threads, cacheFile, memoryBudget, bytecode, revision, new RunMetrics());
+        g.prepareData();
+        new QueryProcessor(g.buildComponentGraph()).run(new BufferedReader(new InputStreamReader(System.in)), System.out);
+    }
+
+    /**
+     * Returns a graph handler for the given paths: the graph of a snapshot if the only path is one, which is loaded
+     * without parsing anything, or otherwise the facts of the classes found in them.
+     */
+    private GraphHandler load(List<String> paths, int threads, File cacheFile, long memoryBudget, boolean bytecode,
+                              String revision, RunMetrics metrics) throws Exception {
+        File file = new File(paths.get(0));
+        if (paths.size() == 1 && GraphSnapshot.isSnapshot(file)) {
+            println("Loading snapshot " + file + ".");
+            return metrics.time(RunMetrics.Phase.PARSE,
+                                () -> new GraphHandler(new ComponentGraph(GraphSnapshot.open(file))));
+        }
+        return new GraphHandler(parse(paths, threads, cacheFile, memoryBudget, bytecode, revision, metrics));
+    }
+
+    /**
+     * Compiles the facts of the classes found in the given paths, from source or from compiled classes. Source is
+     * read from the given git revision instead of from disk if one is given, which takes a single path. Several paths
+     * are processed in parallel and merged, with a cache file for each in the cache directory, if one is given.
+     */
+    private List<ClassFacts> parse(List<String> paths, int threads, File cacheFile, long memoryBudget,
+                                   boolean bytecode, String revision, RunMetrics metrics) throws Exception {
+        if (paths.size() > 1) {
+            FederatedParser f = new FederatedParser(paths, threads);
+            f.setCacheDirectory(cacheFile);
+            f.setMemoryBudget(memoryBudget);
+            f.setBytecode(bytecode);
+            f.setMetrics(metrics);
+            f.execute();
+            return f.getClassFacts();
+        }
+        String path = paths.get(0);
+        if (bytecode) {
+            BytecodeParser b = new BytecodeParser(path, threads);
+            b.setMetrics(metrics);
+            b.execute();
+            return b.getClassFacts();
+        }
+        DependencyParser p = new DependencyParser(path, threads);
+        p.setCacheFile(cacheFile);
+        p.setRevision(revision);
+        p.setMemoryBudget(memoryBudget);
+        p.setMetrics(metrics);
+        p.execute();
+        return p.getClassFacts();
+    }
+
+    private void watchDirectory(String path, int threads, File cacheFile, long memoryBudget, int port, boolean query)
+            throws Exception {
+        DependencyParser p = new DependencyParser(path, threads);
+        p.setCacheFile(cacheFile);
+        p.setMemoryBudget(memoryBudget);
+        println("Executing.");
+        p.execute();
+
+        GraphHandler g = new GraphHandler(p.getClassFacts());
+        g.prepareData();
+        g.buildComponentNodes();
+        QueryProcessor queries = new QueryProcessor(g.getComponentGraph());
+        LiveServer server = new LiveServer(port, "Dependency Mapper", g.getCatalog());
+        server.addQueries(queries);
+        SourceWatcher watcher = new SourceWatcher(new File(path), p, g, server, queries);
+        server.start();
+        System.out.println("Serving " + server.getUrl() + " and watching " + path + " for changes.");
+
+        if (query) {
+            Thread console = new Thread(() -> {
+                try {
+                    queries.run(new BufferedReader(new InputStreamReader(System.in)), System.out);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "cdvue-query");
+            console.setDaemon(true);
+            console.start();
+        }
+        watcher.run();
+    }
+
     static void println(String s) {
         if (debugOn) {
             System.out.println(s);
         }
     }
 
+    /**
+     * Prints the given message if debugging is on; the message is only built then, so that logging on hot paths
+     * costs nothing otherwise.
+     *
+     * @param message   the supplier of the message
+     */
+    static void println(Supplier<String> message) {
+        if (debugOn) {
+            System.out.println(message.get());
+        }
+    }
+
     public static void main(String[] args) {
         DependencyMapper m = new DependencyMapper();
         try {
-            String path = args[0];
-            m.processDirectory(path);
+            List<String> paths = new ArrayList<>();
+            int threads = 1;
+            File cacheFile = null;
+            File output = new File("mapper.html");
+            File report = null;
+            File snapshot = null;
+            File[] diff = null;
+            File metricsFile = null;
+            List<File> exports = new ArrayList<>();
+            long memoryBudget = 0;
+            int collapseAbove = 0;
+            boolean chunked = false;
+            boolean gzip = false;
+            boolean watch = false;
+            boolean query = false;
+            boolean bytecode = false;
+            String revision = null;
+            int port = DEFAULT_PORT;
+            String annotations = null;
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i].equals("--threads"))
+                        threads = number(args, i++, 1, Integer.MAX_VALUE);
+                    else if (args[i].equals("--cache"))
+                        cacheFile = new File(value(args, i++));
+                    else if (args[i].equals("--output"))
+                        output = new File(value(args, i++));
+                    else if (args[i].equals("--output-dir")) {
+                        output = new File(value(args, i++));
+                        chunked = true;
+                    }
+                    else if (args[i].equals("--gzip"))
+                        gzip = true;
+                    else if (args[i].equals("--annotations"))
+                        annotations = value(args, i++);
+                    else if (args[i].equals("--export"))
+                        exports.add(new File(value(args, i++)));
+                    else if (args[i].equals("--report"))
+                        report = new File(value(args, i++));
+                    else if (args[i].equals("--snapshot"))
+                        snapshot = new File(value(args, i++));
+                    else if (args[i].equals("--memory"))
+                        memoryBudget = number(args, i++, 1, Integer.MAX_VALUE) * 1024L * 1024;
+                    else if (args[i].equals("--collapse"))
+                        collapseAbove = number(args, i++, 1, Integer.MAX_VALUE);
+                    else if (args[i].equals("--metrics"))
+                        metricsFile = new File(value(args, i++));
+                    else if (args[i].equals("--diff")) {
+                        if (i + 2 >= args.length)
+                            throw new IllegalArgumentException("The --diff option needs two snapshots.");
+                        diff = new File[]{new File(args[++i]), new File(args[++i])};
+                    }
+                    else if (args[i].equals("--watch"))
+                        watch = true;
+                    else if (args[i].equals("--bytecode"))
+                        bytecode = true;
+                    else if (args[i].equals("--revision"))
+                        revision = value(args, i++);
+                    else if (args[i].equals("--query"))
+                        query = true;
+                    else if (args[i].equals("--port"))
+                        port = number(args, i++, 0, 65535);
+                    else if (args[i].startsWith("--"))
+                        throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+                    else
+                        paths.add(args[i]);
+                }
+                if (paths.isEmpty() && diff == null)
+                    throw new IllegalArgumentException("No path to map was given.");
+            }
+            catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.out.println(USAGE);
+                return;
+            }
+            if (annotations != null) {
+                try {
+                    AnnotationRules.configure(new File(annotations));
+                }
+                catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            }
+
+            File unknown = exports.stream().filter(f -> GraphExporter.Format.of(f) == null).findFirst().orElse(null);
+            if (unknown != null)
+                System.out.println("Cannot tell the format of " + unknown + "; exported files should end with "
+                        + GraphExporter.Format.extensions() + ".");
+            else if (diff != null)
+                m.diffSnapshots(diff[0], diff[1], output, report, collapseAbove, chunked, gzip);
+            else if (watch && bytecode)
+                System.out.println("Watching is only supported for source; --watch and --bytecode cannot be combined.");
+            else if (watch && revision != null)
+                System.out.println("A revision does not change; --watch and --revision cannot be combined.");
+            else if (bytecode && revision != null)
+                System.out.println("Revisions are only read as source; --bytecode and --revision cannot be combined.");
+            else if (bytecode && cacheFile != null)
+                System.out.println("Only facts extracted from source are cached; --bytecode and --cache cannot be "
+                        + "combined.");
+            else if (paths.size() > 1 && watch)
+                System.out.println("Watching takes a single root; --watch cannot be given several paths.");
+            else if (paths.size() > 1 && revision != null)
+                System.out.println("A revision is read from a single repository; --revision cannot be given several "
+                        + "paths.");
+            else if (watch && chunked)
+                System.out.println("Pages served while watching hold the whole graph; --watch and --output-dir cannot "
+                        + "be combined.");
+            else if (watch)
+                m.watchDirectory(paths.get(0), threads, cacheFile, memoryBudget, port, query);
+            else if (query)
+                m.queryDirectory(paths, threads, cacheFile, memoryBudget, bytecode, revision);
+            else
+                m.processDirectory(paths, threads, cacheFile, memoryBudget, output, report, snapshot, bytecode, revision,
+                                   metricsFile, collapseAbove, chunked, gzip, exports);
         }
         catch (Exception e) {
-            println("Could not process files...");
+            System.out.println("Could not process files: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Returns the value given to the option at the given index.
+     *
+     * @param args      the arguments
+     * @param i         the index of the option
+     * @return the argument following the option
+     * @throws IllegalArgumentException if the option is the last argument
+     */
+    private static String value(String[] args, int i) {
+        if (i + 1 >= args.length)
+            throw new IllegalArgumentException("The " + args[i] + " option needs a value.");
+        return args[i + 1];
+    }
+
+    /**
+     * Returns the number given to the option at the given index.
+     *
+     * @param args      the arguments
+     * @param i         the index of the option
+     * @param min       the smallest number allowed
+     * @param max       the largest number allowed
+     * @return the number following the option
+     * @throws IllegalArgumentException if the option is the last argument, or not followed by a number in range
+     */
+    private static int number(String[] args, int i, int min, int max) {
+        String value = value(args, i);
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= min && number <= max)
+                return number;
+        }
+        catch (NumberFormatException e) {
+            //reported below
+        }
+        String range = max == Integer.MAX_VALUE ? "of at least " + min : "from " + min + " to " + max;
+        throw new IllegalArgumentException("The " + args[i] + " option takes a whole number " + range + ", not \""
+                + value + "\".");
+    }
 }
\ No newline at end of file
@@ -19,28 +19,59 @@ package org.onlab.cdvue;
 import com.thoughtworks.qdox.JavaProjectBuilder;
 import com.thoughtworks.qdox.model.JavaAnnotation;
 import com.thoughtworks.qdox.model.JavaClass;
-import com.thoughtworks.qdox.model.JavaField;
-import com.thoughtworks.qdox.model.expression.AnnotationValue;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import com.thoughtworks.qdox.model.JavaSource;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static org.onlab.cdvue.DependencyMapper.println;
 
 /**
- * Class that contains methods and variables to parse through the java files in an inputted filepath and fill out an array of JSONObjects for later use.
+ * Class that contains methods and variables to parse through the java files in an inputted filepath and compile the facts of each class for later use.
  *
  * @author Parth Pendurkar
  * @version 1.0
  */
-@SuppressWarnings("unchecked")
 class DependencyParser {
+    private static final int MAX_UNIT_SIZE = 500;
+    private static final long MODEL_BYTES_PER_FILE = 4 * 1024; //rough QDox model size, with the classes it loads
+    private static final long MODEL_BYTES_PER_BYTE = 8;
+
     private String path;
-    private JSONArray jsonObjects;
+    private int threads;
+    private File cacheFile;
+    private String revision;
+    private RunMetrics metrics = new RunMetrics();
+    private long memoryBudget; //bytes of heap parsing may take, or 0 for no bound
+    private int unitSize; //files per work unit, or 0 to size units by the number of threads
+    private List<ClassFacts> classFacts;
+    private AnalysisCache cache; //held from a scan until the parse following it
+    private GitRevision git;
+
+    //state kept for incremental updates
+    private SourceTree tree;
+    private List<SourceTree> libraries = Collections.emptyList();
+    private final Map<File, List<ClassFacts>> factsByFile = new HashMap<>();
+    private final Map<File, Collection<File>> dependenciesByFile = new HashMap<>();
+    private Map<String, NavigableMap<File, ClassFacts>> declarations; //built on the first update
 
     /**
      * Constructor for objects of class DependencyParser.
@@ -48,45 +79,563 @@ class DependencyParser {
      * @param path      the path to process
      */
     DependencyParser(String path) {
+        this(path, 1);
+    }
+
+    /**
+     * Constructor for objects of class DependencyParser.
+     *
+     * @param path      the path to process
+     * @param threads   the number of threads to parse with; 0 or less uses all available processors
+     */
+    DependencyParser(String path, int threads) {
         this.path = path;
-        jsonObjects = new JSONArray();
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        classFacts = new ArrayList<>();
     }
 
     /**
-     * Processes each class found in the inputted path.
+     * Processes each class found in the inputted path. Files without an @Component annotation are skipped by a
+     * lexical pre-scan, and the remaining ones are split into shards, one per package directory, which are parsed on
+     * a fork-join pool; results are merged back in walk order, so the outcome does not depend on the number of
+     * threads. If a cache is set, files whose facts are cached are not parsed at all. If a revision is set, the files
+     * are read from that revision of the git repository the path is in, rather than from disk. If a memory budget is
+     * set, the units are sized to fit it and parsed in batches, one module after another, and the facts extracted so
+     * far are spilled to disk whenever they outgrow their share of the budget.
      *
      * @throws Exception        if files not found
      */
      void execute() throws Exception {
+        scan();
+        parse(Collections.emptyList());
+    }
+
+    /**
+     * Scans the inputted path, the first step of an execution, and loads the cache. The files are parsed by a
+     * following call to parse, which may be given the trees of other paths to resolve superclasses in.
+     *
+     * @return the scanned tree
+     * @throws Exception        if the path could not be scanned
+     */
+    SourceTree scan() throws Exception {
+        classFacts.clear();
+        factsByFile.clear();
+        dependenciesByFile.clear();
+        declarations = null;
+        libraries = Collections.emptyList();
+
         try {
-            JavaProjectBuilder builder = new JavaProjectBuilder(); //QDox
-            builder.addSourceTree(new File(path));
-            builder.getClasses().forEach(this::processClass);
+            cache = cacheFile == null ? null : AnalysisCache.load(cacheFile);
+            File root = new File(path).getAbsoluteFile(); //absolute, like the superclass files QDox reports
+            tree = metrics.time(RunMetrics.Phase.SCAN, () -> {
+                if (revision != null)
+                    git = new GitRevision(root, revision);
+                return git == null ? SourceTree.scan(root, cache != null) : SourceTree.scan(git, cache != null);
+            });
+            return tree;
         }
         catch (Exception e) {
             println("Couldn't find any java files.");
             e.printStackTrace();
+            if (git != null)
+                git.close();
+            git = null;
             throw e;
         }
     }
 
     /**
-     * Processes the given class and compiles a JSONObject to add to the jsonObjects array.
+     * Parses the tree found by the last scan, the second step of an execution. Superclasses the tree does not
+     * declare are looked up in the given trees, in order, and cached facts depending on them stay valid only as long
+     * as the files declaring those superclasses do not change.
+     *
+     * @param libraries     the scanned trees of other paths; may be empty
+     * @throws Exception        if files not found
+     */
+    void parse(List<SourceTree> libraries) throws Exception {
+        this.libraries = libraries;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            File root = new File(path).getAbsoluteFile();
+            SourceTree tree = this.tree;
+            Map<File, String> digests = tree.getDigests();
+            if (!libraries.isEmpty()) {
+                digests = new HashMap<>(digests);
+                for (SourceTree library : libraries)
+                    digests.putAll(library.getDigests());
+            }
+            List<SourceTree> trees = new ArrayList<>(libraries);
+            trees.add(tree);
+            Map<String, String> packageDigests = cache == null ? Collections.emptyMap()
+                    : SourceTree.packageDigests(trees);
+
+            //looks up cached facts first; only the remaining files of each shard are parsed
+            Map<File, List<ClassFacts>> cached = new HashMap<>();
+            List<List<File>> pending = new ArrayList<>();
+            for (SourceTree.Shard shard : tree.getShards()) {
+                List<File> files = new ArrayList<>();
+                for (File file : shard.getFiles()) {
+                    List<ClassFacts> classes = cache == null ? null : cache.get(file, digests, packageDigests);
+                    if (classes == null)
+                        files.add(file);
+                    else
+                        cached.put(file, classes);
+                }
+                pending.add(files);
+            }
+
+            HierarchyResolver hierarchy = new HierarchyResolver(); //shared by all units, so common base classes are resolved once
+            List<List<List<File>>> batches = memoryBudget > 0 ? batches(root, tree.getShards(), pending)
+                    : Collections.singletonList(workUnits(pending));
+            println("Parsing " + batches.stream().mapToInt(List::size).sum() + " work units in " + batches.size()
+                    + " batches with " + threads + " threads.");
+            metrics.count(RunMetrics.Counter.FILES, tree.getFileCount());
+            metrics.count(RunMetrics.Counter.CACHED_FILES, cached.size());
+            metrics.count(RunMetrics.Counter.PARSED_FILES, pending.stream().mapToInt(List::size).sum());
+
+            //the facts of each batch are stored as soon as it is done, so that they can be spilled to disk in time
+            try (FactStore parsed = new FactStore(memoryBudget / 2)) {
+                long parseStart = System.nanoTime();
+                for (List<List<File>> batch : batches) {
+                    List<Callable<Map<File, ParsedFile>>> tasks = new ArrayList<>();
+                    for (List<File> unit : batch)
+                        tasks.add(() -> processFiles(unit, tree, hierarchy));
+                    List<Map<File, ParsedFile>> results = invokeAll(pool, tasks);
+                    for (int u = 0; u < batch.size(); u++) {
+                        for (File file : batch.get(u)) {
+                            ParsedFile parsedFile = results.get(u).get(file);
+                            parsed.add(file, parsedFile.classes, parsedFile.dependencies, parsedFile.packages);
+                        }
+                    }
+                }
+                printSummary(tree, pending, System.nanoTime() - parseStart);
+                metrics.count(RunMetrics.Counter.SPILLED_BYTES, parsed.getSpilledBytes());
+
+                //parsed files come back in walk order, as they were stored
+                Map<String, ClassFacts> merged = new LinkedHashMap<>(); //later classes with the same name win, as in QDox
+                for (SourceTree.Shard shard : tree.getShards()) {
+                    for (File file : shard.getFiles()) {
+                        List<ClassFacts> classes = cached.get(file);
+                        if (classes == null) {
+                            FactStore.Entry entry = parsed.next();
+                            classes = entry.getClasses();
+                            dependenciesByFile.put(file, entry.getDependencies());
+                            if (cache != null)
+                                cache.put(file, digests, entry.getDependencies(), entry.getPackages(), packageDigests,
+                                          classes);
+                        }
+                        else
+                            dependenciesByFile.put(file, cache.getDependencies(file));
+                        factsByFile.put(file, classes);
+                        for (ClassFacts facts : classes)
+                            merged.put(facts.getName(), facts);
+                    }
+                }
+                classFacts.addAll(merged.values());
+            }
+            metrics.count(RunMetrics.Counter.CLASSES, classFacts.size());
+
+            if (cache != null)
+                cache.save();
+        }
+        catch (Exception e) {
+            println("Couldn't find any java files.");
+            e.printStackTrace();
+            throw e;
+        }
+        finally {
+            pool.shutdown();
+            if (git != null)
+                git.close();
+            git = null;
+            cache = null;
+        }
+    }
+
+    /**
+     * Re-analyzes the given files after they were created, modified or deleted, and returns how the compiled class
+     * facts changed. Besides the files themselves, the candidate files whose superclasses are declared in one of them
+     * are parsed again. Creating or deleting a file can also change how names in its package resolve, so in that case
+     * all candidate files of the same directory are parsed again as well.
+     *
+     * @param changed   the files that changed since the last execution or update
+     * @return the facts that were dropped and the facts that replaced them or were added
+     * @throws Exception        if a file could not be read
+     */
+    FactsChange update(Collection<File> changed) throws Exception {
+        Set<File> changedFiles = new HashSet<>();
+        Set<File> directories = new HashSet<>();
+        for (File file : changed) {
+            file = file.getAbsoluteFile();
+            boolean existed = tree.contains(file);
+            tree.remove(file);
+            boolean exists = file.isFile() && SourceTree.isSource(file);
+            if (exists)
+                tree.add(file);
+            if (existed != exists)
+                directories.add(file.getParentFile());
+            changedFiles.add(file);
+        }
+
+        Set<File> affected = new TreeSet<>(SourceTree.WALK_ORDER);
+        affected.addAll(changedFiles);
+        dependenciesByFile.forEach((file, dependencies) -> {
+            if (directories.contains(file.getParentFile()) || dependencies.stream().anyMatch(changedFiles::contains))
+                affected.add(file);
+        });
+
+        List<File> reparse = new ArrayList<>();
+        for (File file : affected) {
+            if (tree.isCandidate(file))
+                reparse.add(file);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Map<File, ParsedFile> parsed = new HashMap<>();
+        try {
+            HierarchyResolver hierarchy = new HierarchyResolver(); //superclasses may have changed, so nothing is reused
+            List<Callable<Map<File, ParsedFile>>> tasks = new ArrayList<>();
+            for (List<File> unit : workUnits(Collections.singletonList(reparse)))
+                tasks.add(() -> processFiles(unit, tree, hierarchy));
+            invokeAll(pool, tasks).forEach(parsed::putAll);
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        if (declarations == null) {
+            declarations = new HashMap<>();
+            factsByFile.forEach(this::declare);
+        }
+
+        //notes the facts each affected name resolved to before the update, then swaps the files' facts
+        Map<String, ClassFacts> before = new HashMap<>();
+        for (File file : affected) {
+            List<ClassFacts> previous = factsByFile.remove(file);
+            dependenciesByFile.remove(file);
+            if (previous != null) {
+                for (ClassFacts facts : previous) {
+                    NavigableMap<File, ClassFacts> declared = declarations.get(facts.getName());
+                    before.putIfAbsent(facts.getName(), declared.lastEntry().getValue());
+                    declared.remove(file);
+                    if (declared.isEmpty())
+                        declarations.remove(facts.getName());
+                }
+            }
+
+            ParsedFile parsedFile = parsed.get(file);
+            if (parsedFile != null) {
+                for (ClassFacts facts : parsedFile.classes) {
+                    if (!before.containsKey(facts.getName())) {
+                        NavigableMap<File, ClassFacts> declared = declarations.get(facts.getName());
+                        before.put(facts.getName(), declared == null ? null : declared.lastEntry().getValue());
+                    }
+                }
+                factsByFile.put(file, parsedFile.classes);
+                dependenciesByFile.put(file, parsedFile.dependencies);
+                declare(file, parsedFile.classes);
+            }
+        }
+
+        FactsChange change = new FactsChange();
+        before.forEach((name, previous) -> {
+            NavigableMap<File, ClassFacts> declared = declarations.get(name);
+            ClassFacts current = declared == null ? null : declared.lastEntry().getValue();
+            if (previous != current) {
+                if (previous != null)
+                    change.removed.add(previous);
+                if (current != null)
+                    change.added.add(current);
+            }
+        });
+        println("Re-analyzed " + reparse.size() + " files; " + change.removed.size() + " classes removed, "
+                + change.added.size() + " classes added.");
+        return change;
+    }
+
+    /**
+     * Records the given facts as declared in the given file; later files in walk order, and later classes within a
+     * file, win over earlier ones with the same name.
+     */
+    private void declare(File file, List<ClassFacts> classes) {
+        for (ClassFacts facts : classes)
+            declarations.computeIfAbsent(facts.getName(), name -> new TreeMap<>(SourceTree.WALK_ORDER)).put(file, facts);
+    }
+
+    /**
+     * Sets the file in which extracted facts are cached between runs.
+     *
+     * @param cacheFile     the cache file, or null to disable caching
+     */
+    void setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Sets the git revision to read the files from, instead of reading them from disk.
+     *
+     * @param revision      the revision, such as a tag, a branch or a commit id, or null to read from disk
+     */
+    void setRevision(String revision) {
+        this.revision = revision;
+    }
+
+    /**
+     * Sets the memory budget of executions. Half of it bounds the QDox models parsed at the same time, which sizes the
+     * work units, and the other half the facts held in memory until they are merged; facts beyond it are spilled to a
+     * temporary file. Files are then parsed in batches, one module after another.
+     *
+     * @param memoryBudget  the budget in bytes, or 0 for no bound
+     */
+    void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the number of files work units are filled up to, instead of sizing them by the number of threads. The facts
+     * do not depend on how files are split into units; a single unit holding every file parses the tree the way one
+     * QDox builder would.
+     *
+     * @param unitSize      the number of files, or 0 to size units by the number of threads
+     */
+    void setUnitSize(int unitSize) {
+        this.unitSize = unitSize;
+    }
+
+    /**
+     * Sets the metrics to record the phases and counts of executions in.
+     *
+     * @param metrics       the metrics
+     */
+    void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Prints, when debugging, how many files the pre-scan kept away from QDox, along with an estimate of the parse
+     * time this saved, extrapolated from the time it took to parse the remaining files. Skipped files declaring a
+     * supertype of a candidate are still parsed on demand, so the estimate is an upper bound.
+     */
+    private static void printSummary(SourceTree tree, List<List<File>> pending, long parseNanos) {
+        println(() -> {
+            long parsedBytes = 0;
+            for (List<File> files : pending) {
+                for (File file : files)
+                    parsedBytes += file.length();
+            }
+            long savedMillis = parsedBytes == 0 ? 0
+                    : (long) ((double) tree.getSkippedBytes() * parseNanos / parsedBytes / 1e6);
+            return "Scanned " + tree.getFileCount() + " files in " + tree.getScanNanos() / 1000000 + " ms; skipped "
+                    + tree.getSkippedCount() + " files (" + tree.getSkippedBytes() / 1024 + " KB) without @Component, "
+                    + "saving up to an estimated " + savedMillis + " ms of parsing.";
+        });
+    }
+
+    /**
+     * Runs the given tasks on the pool and returns their results in task order, rethrowing the first failure.
+     */
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks))
+                results.add(future.get());
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return results;
+    }
+
+    /**
+     * Groups consecutive shards into a few work units per thread, so that each QDox builder gets enough files to
+     * amortize loading the classes shared between them. Units are capped in size, since each unit's QDox model is
+     * held in memory until the unit has been processed.
+     *
+     * @param shards    the files of each shard, in walk order
+     * @return list of work units, each a list of files in walk order
+     */
+    private List<List<File>> workUnits(List<List<File>> shards) {
+        int total = shards.stream().mapToInt(List::size).sum();
+        int unitSize = this.unitSize > 0 ? this.unitSize : Math.min(MAX_UNIT_SIZE, Math.max(1, total / (threads * 4)));
+        long unitBytes = memoryBudget > 0 ? memoryBudget / 2 / threads : Long.MAX_VALUE;
+
+        List<List<File>> units = new ArrayList<>();
+        List<File> unit = new ArrayList<>();
+        long bytes = 0;
+        for (List<File> shard : shards) {
+            for (File file : shard) {
+                //a shard is only split when its model would not fit the memory budget
+                long estimate = MODEL_BYTES_PER_FILE + MODEL_BYTES_PER_BYTE * tree.length(file);
+                if (!unit.isEmpty() && bytes + estimate > unitBytes) {
+                    units.add(unit);
+                    unit = new ArrayList<>();
+                    bytes = 0;
+                }
+                unit.add(file);
+                bytes += estimate;
+            }
+            if (unit.size() >= unitSize) {
+                units.add(unit);
+                unit = new ArrayList<>();
+                bytes = 0;
+            }
+        }
+        if (!unit.isEmpty())
+            units.add(unit);
+        return units;
+    }
+
+    /**
+     * Groups the files left to parse into batches, one module after another in walk order, each made of a few work
+     * units per thread. A module is the directory holding the outermost "src" directory of a shard, or else the
+     * top-level directory the shard is in.
+     *
+     * @param root      the root of the tree
+     * @param shards    the shards of the tree
+     * @param pending   the files of each shard which are left to parse
+     * @return list of batches, each a list of work units
+     */
+    private List<List<List<File>>> batches(File root, List<SourceTree.Shard> shards, List<List<File>> pending) {
+        List<List<List<File>>> batches = new ArrayList<>();
+        List<List<File>> module = new ArrayList<>();
+        File current = null;
+        for (int i = 0; i < shards.size(); i++) {
+            File next = moduleOf(root, shards.get(i).getDirectory());
+            if (!next.equals(current) && !module.isEmpty()) {
+                addBatches(batches, module);
+                module = new ArrayList<>();
+            }
+            current = next;
+            module.add(pending.get(i));
+        }
+        if (!module.isEmpty())
+            addBatches(batches, module);
+        return batches;
+    }
+
+    private void addBatches(List<List<List<File>>> batches, List<List<File>> module) {
+        List<List<File>> units = workUnits(module);
+        int batchSize = threads * 4;
+        for (int i = 0; i < units.size(); i += batchSize)
+            batches.add(units.subList(i, Math.min(units.size(), i + batchSize)));
+    }
+
+    private static File moduleOf(File root, File directory) {
+        File module = null;
+        File top = directory;
+        for (File d = directory; d != null && !d.equals(root); d = d.getParentFile()) {
+            if (d.getName().equals("src"))
+                module = d.getParentFile();
+            top = d;
+        }
+        return module != null ? module : top;
+    }
+
+    /**
+     * Parses the given files with a dedicated QDox builder and processes every class declared in them.
+     * Classes from outside the files, such as superclasses, are loaded lazily through the tree's class index.
+     * Only the extracted facts are returned, so the QDox model can be collected as soon as the files are done.
+     *
+     * @param files     the files to parse
+     * @param tree      the tree the files belong to
+     * @param hierarchy the resolver for what classes inherit from their superclasses
+     * @return map of each file to the results of processing its classes
+     * @throws IOException      if a file could not be read
+     */
+    private Map<File, ParsedFile> processFiles(List<File> files, SourceTree tree, HierarchyResolver hierarchy)
+            throws IOException {
+        JavaProjectBuilder builder = new JavaProjectBuilder(new IndexedClassLibraryBuilder(tree, libraries)); //QDox
+
+        Map<File, List<JavaClass>> classesByFile = new LinkedHashMap<>();
+        metrics.time(RunMetrics.Phase.PARSE, () -> {
+            for (File file : files) {
+                List<JavaClass> classes = new ArrayList<>();
+                JavaSource source = builder.addSource(file);
+                if (source != null)
+                    source.getClasses().forEach(javaClass -> addWithNestedClasses(javaClass, classes));
+                classesByFile.put(file, classes);
+            }
+        });
+
+        Map<File, ParsedFile> result = new HashMap<>();
+        metrics.time(RunMetrics.Phase.EXTRACT, () -> classesByFile.forEach((file, classes) -> {
+            ParsedFile parsedFile = new ParsedFile();
+            for (JavaClass javaClass : classes) {
+                ClassFacts facts = processClass(javaClass, hierarchy);
+                if (facts != null) {
+                    parsedFile.classes.add(facts);
+                    addPackages(javaClass.getSource(), parsedFile.packages);
+                    if (facts.isComponent() || facts.isService())
+                        addSuperclassFiles(javaClass, parsedFile);
+                }
+            }
+            result.put(file, parsedFile);
+        }));
+        return result;
+    }
+
+    private void addWithNestedClasses(JavaClass javaClass, List<JavaClass> classes) {
+        classes.add(javaClass);
+        javaClass.getNestedClasses().forEach(nested -> addWithNestedClasses(nested, classes));
+    }
+
+    /**
+     * Collects the files declaring the superclasses whose annotations were consulted while processing the given
+     * class, that is the chain of annotated superclasses and the first superclass without annotations, along with
+     * the packages names in those files were resolved in.
+     */
+    private void addSuperclassFiles(JavaClass javaClass, ParsedFile parsedFile) {
+        JavaClass superClass = javaClass.getSuperJavaClass();
+        while (superClass != null) {
+            JavaSource source = superClass.getSource();
+            if (source != null && source.getURL() != null && "file".equals(source.getURL().getProtocol())) {
+                try {
+                    parsedFile.dependencies.add(new File(source.getURL().toURI()));
+                    addPackages(source, parsedFile.packages);
+                }
+                catch (URISyntaxException e) {
+                    println(() -> "Skipping superclass source " + source.getURL() + ".");
+                }
+            }
+            if (!HierarchyResolver.containsClassAnnotation(superClass, AnnotationRules.Role.COMPONENT)
+                    && !HierarchyResolver.containsClassAnnotation(superClass, AnnotationRules.Role.SERVICE))
+                break;
+            superClass = superClass.getSuperJavaClass();
+        }
+    }
+
+    /**
+     * Collects the packages the simple names written in the given source may resolve in: its own package and the
+     * packages it imports with wildcards.
+     */
+    private static void addPackages(JavaSource source, Set<String> packages) {
+        if (source == null)
+            return;
+        packages.add(source.getPackageName());
+        for (String imported : source.getImports()) {
+            if (imported.endsWith(".*") && !imported.startsWith("static "))
+                packages.add(imported.substring(0, imported.length() - 2));
+        }
+    }
+
+    /**
+     * Processes the given class and compiles its facts.
      *
      * @param javaClass     the given JavaClass
+     * @param hierarchy     the resolver for what the class inherits from its superclasses
+     * @return the compiled facts, or null if the class is abstract
      */
-    private void processClass(JavaClass javaClass) {
+    private ClassFacts processClass(JavaClass javaClass, HierarchyResolver hierarchy) {
         if (javaClass.isAbstract())
-            return;
+            return null;
         String fullyClassifiedName = javaClass.getFullyQualifiedName();
-        JSONObject jsonObject = new JSONObject();
 
         println("");
-        println("Processing class: " + fullyClassifiedName + ".");
+        println(() -> "Processing class: " + fullyClassifiedName + ".");
 
-        //default values to be loaded into the JSONObject
-        boolean isComponent = containsClassAnnotation(javaClass, "Component");
-        boolean isService = containsClassAnnotation(javaClass, "Service");
+        //default values to be loaded into the facts
+        boolean isComponent = HierarchyResolver.containsClassAnnotation(javaClass, AnnotationRules.Role.COMPONENT);
+        boolean isService = HierarchyResolver.containsClassAnnotation(javaClass, AnnotationRules.Role.SERVICE);
         boolean isInterface = javaClass.isInterface();
         List<JavaAnnotation> classAnnotations = javaClass.getAnnotations();
         List<JavaClass> implementedClassesUnparsed = javaClass.getImplementedInterfaces();
@@ -97,126 +646,85 @@ class DependencyParser {
             implementedClasses.add(ic.getFullyQualifiedName());
         }
 
-        List<JavaField> fields = javaClass.getFields();
         List<String> referenceFields = new ArrayList<>();
         String serviceTag = "";
 
         if (!classAnnotations.isEmpty()) {
-            //modifying serviceTag if necessary
-            serviceTag = getServiceTag(javaClass);
+            //modifying serviceTag if necessary; further services named by the annotations count as implemented
+            List<String> serviceTags = HierarchyResolver.serviceTags(javaClass);
+            if (!serviceTags.isEmpty()) {
+                serviceTag = serviceTags.get(0);
+                implementedClasses.addAll(serviceTags.subList(1, serviceTags.size()));
+            }
 
             if (isComponent) {
-                referenceFields = processSuperFields(javaClass.getSuperJavaClass(), referenceFields);
+                referenceFields.addAll(hierarchy.inheritedReferences(javaClass.getSuperJavaClass()));
             }
 
             if (isService) {
-                implementedClasses = processSuperImplements(javaClass.getSuperJavaClass(), implementedClasses);
+                implementedClasses.addAll(hierarchy.inheritedInterfaces(javaClass.getSuperJavaClass()));
             }
 
             if (isComponent || isService) {
-                println("The class has " + classAnnotations.size() + " annotations, and one of them is either Component or Service.");
-                List<String> lines = new ArrayList<>();
-                println("The class has: " + fields.size() + " fields.");
+                println(() -> "The class has " + classAnnotations.size() + " annotations, and one of them is either Component or Service.");
 
-                //processes each field of the JavaClass
-                for (JavaField field : fields)
-                    processField(lines, referenceFields, field);
+                //adds the types referred to by each @Reference field and method of the JavaClass
+                List<String> declared = HierarchyResolver.declaredReferences(javaClass);
+                println(() -> "The class has " + javaClass.getFields().size() + " fields and "
+                        + javaClass.getMethods().size() + " methods; " + declared.size() + " refer to services.");
+                referenceFields.addAll(declared);
             }
             else
-                println("The class has " + classAnnotations.size() + " annotations, but none of them are Component nor Service.");
+                println(() -> "The class has " + classAnnotations.size() + " annotations, but none of them are Component nor Service.");
         }
         else
             println("This class has no annotations.");
 
-        //compiles the JSONObject
-        jsonObject.put("cn", fullyClassifiedName); //ease of access to get class's fully classified name
-        jsonObject.put(fullyClassifiedName, javaClass); //mapping the fully classified name of the class to the actual JavaClass
-        jsonObject.put("hc", isComponent); //whether the class has an @Component annotation
-        jsonObject.put("hs", isService); //whether the class has an @Service annotation
-        jsonObject.put("ca", classAnnotations); //all JavaAnnotations for the class
-        jsonObject.put("ic", implementedClasses); //all JavaClass's that the class implements
-        jsonObject.put("rf", referenceFields); //all JavaField's from this class that contain an @Reference annotation
-        jsonObject.put("ii", isInterface); //whether or not the JavaClass is an interface or not
-        jsonObject.put("st", serviceTag); //if there is a tag for the @Service annotation, this String will not be empty
-        jsonObjects.add(jsonObject);
+        return new ClassFacts(fullyClassifiedName, isComponent, isService, isInterface, serviceTag,
+                              implementedClasses, referenceFields);
     }
 
     /**
-     * Processes the given JavaField of a specific JavaClass.
+     * Returns the facts of all classes compiled by the last execution.
      *
-     * @param lines                 list of all @Reference annotations on this field
-     * @param referenceFields       list of all JavaFields with an @Reference annotation
-     * @param field                 the field to be processed.
+     * @return list of class facts
      */
-    private void processField(List<String> lines, List<String> referenceFields, JavaField field) {
-        println("");
-        println("Processing field.");
-
-        //gets all annotations of the given field
-        List<JavaAnnotation> annotations = field.getAnnotations();
-        println("The field " + field.getType().getName() + " has " + annotations.size() + " annotations.");
-
-        //filters out all annotations that aren't @Reference. Adds all @Reference annotations to both the given String and JavaField Lists.
-        annotations.stream().filter(ja -> (ja.getType().getName().equals("org.apache.felix.scr.annotations.Reference") || ja.getType().getName().equals("Reference"))).forEach(ja -> {
-            lines.add(ja.getType().getName());
-            referenceFields.add(field.getType().getFullyQualifiedName());
-        });
+    List<ClassFacts> getClassFacts() {
+        return classFacts;
     }
 
-    private List<String> processSuperFields(JavaClass superClass, List<String> referenceFields) {
-        if (superClass != null && containsClassAnnotation(superClass, "Component")) {
-            for (JavaField javaField : superClass.getFields()) {
-                if (javaField.getAnnotations().stream().filter(ja -> (ja.getType().getName().equals("org.apache.felix.scr.annotations.Reference") || ja.getType().getName().equals("Reference"))).count() > 0) {
-                    referenceFields.add(javaField.getType().getFullyQualifiedName());
-                }
-            }
-            referenceFields = processSuperFields(superClass.getSuperJavaClass(), referenceFields);
-        }
-        return referenceFields;
+    /**
+     * Returns the source tree scanned by the last execution, as kept current by later updates.
+     *
+     * @return the source tree
+     */
+    SourceTree getSourceTree() {
+        return tree;
     }
 
-    private List<String> processSuperImplements(JavaClass superClass, List<String> implementedInterfaces) {
-        if (superClass != null && containsClassAnnotation(superClass, "Service")) {
-            for (JavaClass javaInterface : superClass.getImplementedInterfaces()) {
-                implementedInterfaces.add(javaInterface.getFullyQualifiedName());
-                String serviceTag = getServiceTag(superClass);
-                if (!serviceTag.equals(""))
-                    implementedInterfaces.add(getServiceTag(superClass));
-                implementedInterfaces = processSuperImplements(superClass.getSuperJavaClass(), implementedInterfaces);
-            }
-        }
-        return implementedInterfaces;
-    }
+    /**
+     * Facts that were dropped by an update, and the facts that were added by it. A class which was re-analyzed
+     * appears in both.
+     */
+    static class FactsChange {
+        private final List<ClassFacts> removed = new ArrayList<>();
+        private final List<ClassFacts> added = new ArrayList<>();
 
-    private String getServiceTag(JavaClass javaClass) {
-        String serviceTag = "";
-        for (JavaAnnotation ja : javaClass.getAnnotations()) {
-            AnnotationValue sT = ja.getProperty("value");
-            if (sT != null) {
-                serviceTag = ja.getProperty("value").toString();
-                serviceTag = serviceTag.substring(0, serviceTag.length() - 6);
-                if (serviceTag.equals(javaClass.getFullyQualifiedName()) || serviceTag.equals(javaClass.getName())) {
-                    serviceTag = ""; //this takes care of the case where the class is a @Service of itself
-                }
-            }
+        List<ClassFacts> getRemoved() {
+            return removed;
         }
-        return serviceTag;
-    }
 
-    private boolean containsClassAnnotation(JavaClass javaClass, String annotationType) {
-        for (JavaAnnotation ja : javaClass.getAnnotations()) {
-            String aName = ja.getType().getName();
-            if (aName.equals("org.apache.felix.scr.annotations." + annotationType) || aName.equals(annotationType))
-                return true;
+        List<ClassFacts> getAdded() {
+            return added;
         }
-        return false;
     }
 
     /**
-     * Method that generates a Dependency Mapper graph html file with the compiled JSONObjects.
+     * Results of processing the classes of a single source file.
      */
-    void makeGraph() throws IOException {
-        GraphHandler g = new GraphHandler(jsonObjects);
-        g.prepareGraph();
+    private static class ParsedFile {
+        private final List<ClassFacts> classes = new ArrayList<>();
+        private final Set<File> dependencies = new LinkedHashSet<>();
+        private final Set<String> packages = new LinkedHashSet<>(); //the packages names were resolved in
     }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that holds the facts extracted from each parsed file until they are merged, within a memory budget. Files are
+ * added in walk order; whenever the facts held in memory are estimated to take more than the budget, they are
+ * appended to a temporary file and dropped from the heap. Files are handed back in the order they were added, first
+ * from the temporary file and then from memory.
+ */
+class FactStore implements Closeable {
+    private final long budget;
+    private final Deque<Entry> held = new ArrayDeque<>();
+    private long heldBytes;
+    private File spillFile;
+    private DataOutputStream spill;
+    private DataInputStream spilled;
+    private int spilledCount; //entries written to the spill file and not read back yet
+    private long spilledBytes;
+
+    /**
+     * Constructor for objects of class FactStore.
+     *
+     * @param budget    the number of bytes the facts held in memory may take; 0 or less keeps all of them in memory
+     */
+    FactStore(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Adds the facts of the given file, spilling the facts held so far to disk if they take more than the budget.
+     *
+     * @param file          the source file
+     * @param classes       the facts of the classes declared in the file
+     * @param dependencies  the files declaring the superclasses which were consulted
+     * @param packages      the packages which names in the file and in those superclasses were resolved in
+     * @throws IOException if the facts could not be spilled
+     */
+    void add(File file, List<ClassFacts> classes, Collection<File> dependencies, Collection<String> packages)
+            throws IOException {
+        Entry entry = new Entry(file, classes, dependencies, packages);
+        held.add(entry);
+        heldBytes += entry.estimate();
+        if (budget > 0 && heldBytes > budget)
+            spill();
+    }
+
+    private void spill() throws IOException {
+        if (spill == null) {
+            spillFile = File.createTempFile("cdvue-facts", ".bin");
+            spillFile.deleteOnExit();
+            spill = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile.toPath()),
+                                                                  64 * 1024));
+        }
+        for (Entry entry : held) {
+            spill.writeUTF(entry.file.getPath());
+            spill.writeInt(entry.classes.size());
+            for (ClassFacts facts : entry.classes) {
+                spill.writeUTF(facts.getName());
+                spill.writeBoolean(facts.isComponent());
+                spill.writeBoolean(facts.isService());
+                spill.writeBoolean(facts.isInterface());
+                spill.writeUTF(facts.getServiceTag());
+                writeNames(facts.getInterfaces());
+                writeNames(facts.getReferences());
+            }
+            spill.writeInt(entry.dependencies.size());
+            for (File dependency : entry.dependencies)
+                spill.writeUTF(dependency.getPath());
+            writeNames(entry.packages);
+        }
+        spilledCount += held.size();
+        spilledBytes += heldBytes;
+        println(() -> "Spilled the facts of " + held.size() + " files to " + spillFile + ".");
+        held.clear();
+        heldBytes = 0;
+    }
+
+    private void writeNames(Collection<String> names) throws IOException {
+        spill.writeInt(names.size());
+        for (String name : names)
+            spill.writeUTF(name);
+    }
+
+    /**
+     * Takes the facts of the next file, in the order the files were added.
+     *
+     * @return the facts of the file, or null if all have been taken
+     * @throws IOException if spilled facts could not be read back
+     */
+    Entry next() throws IOException {
+        if (spilledCount == 0)
+            return held.poll();
+        if (spilled == null) {
+            spill.close();
+            spilled = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile.toPath()), 64 * 1024));
+        }
+        spilledCount--;
+        File file = new File(spilled.readUTF());
+        List<ClassFacts> classes = new ArrayList<>();
+        for (int i = spilled.readInt(); i > 0; i--) {
+            classes.add(new ClassFacts(spilled.readUTF(), spilled.readBoolean(), spilled.readBoolean(),
+                                       spilled.readBoolean(), spilled.readUTF(), readNames(), readNames()));
+        }
+        Set<File> dependencies = new LinkedHashSet<>();
+        for (int i = spilled.readInt(); i > 0; i--)
+            dependencies.add(new File(spilled.readUTF()));
+        return new Entry(file, classes, dependencies, readNames());
+    }
+
+    private List<String> readNames() throws IOException {
+        int count = spilled.readInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            names.add(spilled.readUTF());
+        return names;
+    }
+
+    /**
+     * Returns the estimated number of bytes the spilled facts took in memory.
+     *
+     * @return bytes; 0 if nothing was spilled
+     */
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Deletes the temporary file, if facts were spilled.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (spilled != null)
+                spilled.close();
+            else if (spill != null)
+                spill.close();
+        }
+        finally {
+            if (spillFile != null)
+                Files.deleteIfExists(spillFile.toPath());
+        }
+    }
+
+    /**
+     * The facts extracted from a single source file.
+     */
+    static class Entry {
+        private final File file;
+        private final List<ClassFacts> classes;
+        private final Collection<File> dependencies;
+        private final Collection<String> packages;
+
+        Entry(File file, List<ClassFacts> classes, Collection<File> dependencies, Collection<String> packages) {
+            this.file = file;
+            this.classes = classes;
+            this.dependencies = dependencies;
+            this.packages = packages;
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        List<ClassFacts> getClasses() {
+            return classes;
+        }
+
+        Collection<File> getDependencies() {
+            return dependencies;
+        }
+
+        Collection<String> getPackages() {
+            return packages;
+        }
+
+        /**
+         * Estimates the heap taken by the facts, counting every name as if it were not shared with other facts.
+         */
+        long estimate() {
+            long bytes = 96 + 2L * file.getPath().length();
+            for (ClassFacts facts : classes) {
+                bytes += 96 + 2L * facts.getName().length();
+                for (String name : facts.getInterfaces())
+                    bytes += 48 + 2L * name.length();
+                for (String name : facts.getReferences())
+                    bytes += 48 + 2L * name.length();
+            }
+            for (File dependency : dependencies)
+                bytes += 96 + 2L * dependency.getPath().length();
+            for (String name : packages)
+                bytes += 48 + 2L * name.length();
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that compiles the facts of the classes of several roots, such as a core tree and separate application
+ * repositories, into one list, so that services provided in one root resolve the references made in another.
+ * <p>
+ * Each source root goes through a pipeline of its own, and the pipelines run in parallel, sharing the threads
+ * between them: all roots are scanned first, then each root is parsed, looking up the superclasses it does not declare
+ * in the other roots, in the order they were given. Each root keeps a cache file of its own, so a root whose files did
+ * not change is not parsed again when another one did, unless it extends classes of a root that changed. The facts
+ * are merged in the order the roots were given; a class declared in more than one root keeps the facts of the last
+ * one. Roots of compiled classes are read as one, which resolves superclasses across them the same way.
+ * </p>
+ */
+class FederatedParser {
+    private final List<File> roots = new ArrayList<>();
+    private final int threads;
+    private final List<ClassFacts> classFacts = new ArrayList<>();
+    private File cacheDirectory;
+    private long memoryBudget;
+    private boolean bytecode;
+    private RunMetrics metrics = new RunMetrics();
+
+    /**
+     * Constructor for objects of class FederatedParser.
+     *
+     * @param paths     the roots to process; a root given twice is processed once
+     * @param threads   the number of threads to share between the roots; 0 or less uses all available processors
+     */
+    FederatedParser(List<String> paths, int threads) {
+        Set<File> unique = new LinkedHashSet<>();
+        for (String path : paths)
+            unique.add(new File(path).getAbsoluteFile());
+        roots.addAll(unique);
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Scans every root in parallel, then parses every root in parallel against the others, and merges their facts.
+     *
+     * @throws Exception        if a root could not be processed
+     */
+    void execute() throws Exception {
+        classFacts.clear();
+        if (bytecode) {
+            BytecodeParser b = new BytecodeParser(paths(), threads);
+            b.setMetrics(metrics);
+            b.execute();
+            classFacts.addAll(b.getClassFacts());
+            return;
+        }
+
+        int rootThreads = Math.max(1, threads / roots.size());
+        println("Processing " + roots.size() + " roots with " + rootThreads + " threads each.");
+        List<DependencyParser> parsers = new ArrayList<>();
+        for (File root : roots) {
+            DependencyParser p = new DependencyParser(root.getPath(), rootThreads);
+            p.setCacheFile(cacheDirectory == null ? null : cacheFile(cacheDirectory, root));
+            p.setMemoryBudget(memoryBudget / roots.size());
+            p.setMetrics(metrics);
+            parsers.add(p);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(roots.size());
+        List<SourceTree> trees;
+        try {
+            trees = invokeAll(executor, parsers, DependencyParser::scan);
+            invokeAll(executor, parsers, p -> {
+                List<SourceTree> libraries = new ArrayList<>(trees);
+                libraries.remove(parsers.indexOf(p));
+                p.parse(libraries);
+                return p.getClassFacts();
+            });
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        Map<String, ClassFacts> merged = new LinkedHashMap<>();
+        int duplicates = 0;
+        for (DependencyParser p : parsers) {
+            for (ClassFacts declared : p.getClassFacts()) {
+                if (merged.remove(declared.getName()) != null)
+                    duplicates++; //the last declaration wins, and takes its place in the order
+                merged.put(declared.getName(), declared);
+            }
+        }
+        classFacts.addAll(merged.values());
+        metrics.set(RunMetrics.Counter.CLASSES, classFacts.size());
+        int declaredTwice = duplicates;
+        println(() -> "Merged " + classFacts.size() + " classes from " + roots.size() + " roots; " + declaredTwice
+                + " were declared in more than one root.");
+    }
+
+    private interface Step<T> {
+        T run(DependencyParser parser) throws Exception;
+    }
+
+    /**
+     * Runs the given step of every parser on the executor, and returns the results in the order of the parsers.
+     */
+    private static <T> List<T> invokeAll(ExecutorService executor, List<DependencyParser> parsers, Step<T> step)
+            throws Exception {
+        List<Callable<T>> tasks = new ArrayList<>();
+        for (DependencyParser parser : parsers)
+            tasks.add(() -> step.run(parser));
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : executor.invokeAll(tasks))
+                results.add(future.get());
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return results;
+    }
+
+    private List<String> paths() {
+        List<String> paths = new ArrayList<>();
+        for (File root : roots)
+            paths.add(root.getPath());
+        return paths;
+    }
+
+    /**
+     * Returns the cache file of the given root in the given directory, named after the root's directory and a hash
+     * of its path, so that roots with the same name do not share a cache.
+     *
+     * @param directory     the cache directory
+     * @param root          the root
+     * @return the cache file
+     */
+    static File cacheFile(File directory, File root) {
+        String path = root.getAbsolutePath();
+        return new File(directory, root.getName() + "-" + String.format("%08x", path.hashCode()) + ".json");
+    }
+
+    /**
+     * Sets the directory holding the cache file of each root.
+     *
+     * @param cacheDirectory    the directory, or null to disable caching
+     */
+    void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Sets the memory budget, which is split evenly between the roots.
+     *
+     * @param memoryBudget  the budget in bytes, or 0 for no bound
+     */
+    void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets whether the roots hold compiled classes rather than source.
+     *
+     * @param bytecode      true to read compiled classes
+     */
+    void setBytecode(boolean bytecode) {
+        this.bytecode = bytecode;
+    }
+
+    /**
+     * Sets the metrics the pipelines of all roots record their phases and counts in.
+     *
+     * @param metrics       the metrics
+     */
+    void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the merged facts of all classes compiled by the last execution.
+     *
+     * @return list of class facts
+     */
+    List<ClassFacts> getClassFacts() {
+        return classFacts;
+    }
+}
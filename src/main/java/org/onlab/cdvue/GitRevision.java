@@ -0,0 +1,255 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that reads the java files of a revision of a git repository straight from the object database, without
+ * checking the revision out.
+ * <p>
+ * The files are listed with "git ls-tree", and their contents are then streamed in bulk through a single
+ * "git cat-file --batch" process. Files are named by where they would be in a checkout, so facts cached for a
+ * checkout, or for another revision, are reused for every file whose contents are the same. Single files can be read
+ * again later through a second batch process, which is kept open until the revision is closed.
+ * </p>
+ */
+class GitRevision implements Closeable {
+    private final File directory;
+    private final String revision;
+    private final List<Blob> blobs = new ArrayList<>();
+    private Process lookup; //started on the first single read
+    private InputStream lookupOutput;
+    private OutputStream lookupInput;
+
+    /**
+     * Constructor for objects of class GitRevision; lists the java files of the revision.
+     *
+     * @param directory     a directory of the repository; only files below it are read
+     * @param revision      the revision, such as a tag, a branch or a commit id
+     * @throws IOException if git could not be run or does not know the revision
+     */
+    GitRevision(File directory, String revision) throws IOException {
+        this.directory = directory;
+        this.revision = revision;
+
+        Process process = start("ls-tree", "-r", "-z", revision);
+        process.getOutputStream().close();
+        byte[] listing = readAll(process.getInputStream());
+        String errors = new String(readAll(process.getErrorStream()), StandardCharsets.UTF_8).trim();
+        if (waitFor(process) != 0)
+            throw new IOException("Cannot list revision " + revision + " of " + directory + ": " + errors);
+
+        //each entry reads "<mode> <type> <id>\t<path>", and entries are separated by null characters
+        int start = 0;
+        for (int i = 0; i < listing.length; i++) {
+            if (listing[i] != 0)
+                continue;
+            String entry = new String(listing, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            int tab = entry.indexOf('\t');
+            String[] fields = entry.substring(0, tab).split(" ");
+            File file = new File(directory, entry.substring(tab + 1));
+            if (fields[1].equals("blob") && !fields[0].equals("120000") && SourceTree.isSource(file))
+                blobs.add(new Blob(file, fields[2]));
+        }
+        println("Revision " + revision + " has " + blobs.size() + " java files.");
+    }
+
+    /**
+     * Receives the contents of the files of a revision, one file at a time.
+     */
+    interface BlobConsumer {
+        /**
+         * Consumes the contents of a file.
+         *
+         * @param file      where the file would be in a checkout
+         * @param id        the object id of the contents
+         * @param stream    the stream to read the contents from; exactly size bytes must be read
+         * @param size      the size of the contents
+         * @throws IOException if the contents could not be read
+         */
+        void accept(File file, String id, InputStream stream, int size) throws IOException;
+    }
+
+    /**
+     * Streams the contents of every java file of the revision to the given consumer, in the order they are listed.
+     *
+     * @param consumer  the consumer
+     * @throws IOException if git failed to deliver the contents
+     */
+    void read(BlobConsumer consumer) throws IOException {
+        Process process = start("cat-file", "--batch");
+        Thread feeder = new Thread(() -> {
+            try (OutputStream input = new BufferedOutputStream(process.getOutputStream())) {
+                for (Blob blob : blobs)
+                    input.write((blob.id + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            catch (IOException e) {
+                println("Could not request blobs: " + e.getMessage());
+            }
+        }, "cdvue-git-feeder");
+        feeder.setDaemon(true);
+        feeder.start(); //fed from another thread, so that neither side of the pipe can fill up and block
+
+        try (InputStream output = new BufferedInputStream(process.getInputStream(), 256 * 1024)) {
+            for (Blob blob : blobs) {
+                int size = readHeader(output, blob.id);
+                consumer.accept(blob.file, blob.id, output, size);
+                if (output.read() != '\n')
+                    throw new IOException("Malformed output of git cat-file");
+            }
+        }
+        finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Reads the contents of a single file again.
+     *
+     * @param id    the object id of the contents, as given to the consumer
+     * @return the contents
+     * @throws IOException if git failed to deliver the contents
+     */
+    synchronized byte[] read(String id) throws IOException {
+        if (lookup == null) {
+            lookup = start("cat-file", "--batch");
+            lookupOutput = new BufferedInputStream(lookup.getInputStream());
+            lookupInput = lookup.getOutputStream();
+        }
+        lookupInput.write((id + "\n").getBytes(StandardCharsets.US_ASCII));
+        lookupInput.flush();
+        byte[] contents = new byte[readHeader(lookupOutput, id)];
+        readFully(lookupOutput, contents, contents.length);
+        if (lookupOutput.read() != '\n')
+            throw new IOException("Malformed output of git cat-file");
+        return contents;
+    }
+
+    /**
+     * Stops the process reading single files, if it was started.
+     */
+    @Override
+    public synchronized void close() {
+        if (lookup != null) {
+            lookup.destroy();
+            lookup = null;
+        }
+    }
+
+    /**
+     * Returns the number of java files in the revision.
+     *
+     * @return number of files
+     */
+    int getFileCount() {
+        return blobs.size();
+    }
+
+    String getRevision() {
+        return revision;
+    }
+
+    private Process start(String... command) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList("git", "-C", directory.getPath()));
+        args.addAll(Arrays.asList(command));
+        return new ProcessBuilder(args).start();
+    }
+
+    /**
+     * Reads the "<id> <type> <size>" line git writes ahead of each object.
+     *
+     * @return the size of the object
+     */
+    private static int readHeader(InputStream stream, String id) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = stream.read()) != '\n') {
+            if (c < 0)
+                throw new IOException("Unexpected end of git cat-file output");
+            sb.append((char) c);
+        }
+        String[] header = sb.toString().split(" ");
+        if (header.length != 3 || !header[0].equals(id))
+            throw new IOException("Unexpected git cat-file output: " + sb);
+        return Integer.parseInt(header[2]);
+    }
+
+    /**
+     * Reads exactly the given number of bytes into the given array.
+     *
+     * @param stream    the stream to read from
+     * @param bytes     the array to read into
+     * @param length    the number of bytes to read
+     * @throws IOException if the stream ends early
+     */
+    static void readFully(InputStream stream, byte[] bytes, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int count = stream.read(bytes, n, length - n);
+            if (count < 0)
+                throw new IOException("Unexpected end of git cat-file output");
+            n += count;
+        }
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = stream.read(chunk)) >= 0)
+            bytes.write(chunk, 0, n);
+        return bytes.toByteArray();
+    }
+
+    private static int waitFor(Process process) throws IOException {
+        try {
+            return process.waitFor();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for git", e);
+        }
+    }
+
+    /**
+     * A java file of the revision and the id of its contents.
+     */
+    private static class Blob {
+        private final File file;
+        private final String id;
+
+        Blob(File file, String id) {
+            this.file = file;
+            this.id = id;
+        }
+    }
+}
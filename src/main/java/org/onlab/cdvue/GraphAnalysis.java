@@ -0,0 +1,362 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Class that analyzes the structure of a component graph: its dependency cycles, its longest chain of dependencies,
+ * and the components most depended on and most depending on others.
+ * <p>
+ * Cycles are the strongly connected components of more than one node, found with Tarjan's algorithm. The algorithm
+ * runs on an explicit stack over the graph's offset and target arrays, so deep chains cannot overflow the thread's
+ * stack, and every pass takes time linear in the number of nodes and edges. Tarjan's algorithm completes each
+ * strongly connected component only after all those it leads to, which is the order in which the longest chain
+ * through the condensed graph is then worked out; a cycle counts as a single step of a chain.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class GraphAnalysis {
+    private static final int TOP = 10;
+
+    private final ComponentGraph graph;
+    private final int[] componentOf; //node to its strongly connected component
+    private final int[] members; //nodes grouped by strongly connected component, in completion order
+    private final int[] memberOffsets;
+    private final int componentCount;
+    private final int[] cycleOf; //node to its cycle number, or -1
+    private final int[] cycleComponents; //cycle number to its strongly connected component
+    private final int[] chain;
+    private final int[] fanIn;
+    private final int[] fanOut;
+
+    /**
+     * Constructor for objects of class GraphAnalysis; runs the analysis.
+     *
+     * @param graph     the graph to analyze
+     */
+    GraphAnalysis(ComponentGraph graph) {
+        this.graph = graph;
+        int n = graph.getNodeCount();
+        int[] offsets = graph.getDependsOnOffsets();
+        int[] targets = graph.getDependsOn();
+
+        componentOf = new int[n];
+        members = new int[n];
+        memberOffsets = new int[n + 1];
+        componentCount = findComponents(offsets, targets);
+
+        //cycles are numbered in the order of their first node, so that they keep their numbers while the graph is stable
+        cycleOf = new int[n];
+        Arrays.fill(cycleOf, -1);
+        int[] numbers = new int[componentCount];
+        Arrays.fill(numbers, -1);
+        int cycles = 0;
+        for (int node = 0; node < n; node++) {
+            int c = componentOf[node];
+            if (memberOffsets[c + 1] - memberOffsets[c] > 1) {
+                if (numbers[c] < 0)
+                    numbers[c] = cycles++;
+                cycleOf[node] = numbers[c];
+            }
+        }
+        cycleComponents = new int[cycles];
+        for (int c = 0; c < componentCount; c++) {
+            if (numbers[c] >= 0)
+                cycleComponents[numbers[c]] = c;
+        }
+        for (int c : cycleComponents)
+            Arrays.sort(members, memberOffsets[c], memberOffsets[c + 1]);
+
+        chain = findLongestChain(offsets, targets);
+
+        fanOut = new int[n];
+        fanIn = new int[n];
+        for (int node = 0; node < n; node++) {
+            fanOut[node] = offsets[node + 1] - offsets[node];
+            for (int k = offsets[node]; k < offsets[node + 1]; k++)
+                fanIn[targets[k]]++;
+        }
+    }
+
+    /**
+     * Finds the strongly connected components with an iterative version of Tarjan's algorithm, filling in the
+     * component of each node and the members of each component.
+     *
+     * @return the number of strongly connected components
+     */
+    private int findComponents(int[] offsets, int[] targets) {
+        int n = componentOf.length;
+        int[] index = new int[n]; //order of discovery, starting at 1; 0 while undiscovered
+        int[] low = new int[n];
+        int[] stack = new int[n]; //nodes discovered but not yet assigned to a component
+        int[] calls = new int[n]; //the nodes being explored, innermost last
+        int[] next = new int[n]; //the position of the next edge to follow from each node being explored
+        Arrays.fill(componentOf, -1);
+        int counter = 0;
+        int count = 0;
+        int assigned = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] != 0)
+                continue;
+            int depth = 0;
+            int top = 0;
+            index[root] = low[root] = ++counter;
+            stack[top++] = root;
+            calls[depth] = root;
+            next[depth++] = offsets[root];
+            while (depth > 0) {
+                int node = calls[depth - 1];
+                if (next[depth - 1] < offsets[node + 1]) {
+                    int target = targets[next[depth - 1]++];
+                    if (index[target] == 0) {
+                        index[target] = low[target] = ++counter;
+                        stack[top++] = target;
+                        calls[depth] = target;
+                        next[depth++] = offsets[target];
+                    }
+                    else if (componentOf[target] < 0 && index[target] < low[node])
+                        low[node] = index[target]; //still on the stack
+                }
+                else {
+                    depth--;
+                    if (low[node] == index[node]) {
+                        int member;
+                        do {
+                            member = stack[--top];
+                            componentOf[member] = count;
+                            members[assigned++] = member;
+                        } while (member != node);
+                        memberOffsets[++count] = assigned;
+                    }
+                    if (depth > 0 && low[node] < low[calls[depth - 1]])
+                        low[calls[depth - 1]] = low[node];
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds a longest chain of dependencies through the condensed graph. Components are visited in completion order,
+     * so every component a component leads to has its chain worked out already.
+     *
+     * @return the node ids along the chain, entering each strongly connected component once
+     */
+    private int[] findLongestChain(int[] offsets, int[] targets) {
+        if (componentCount == 0)
+            return new int[0];
+        int[] length = new int[componentCount];
+        int[] exit = new int[componentCount]; //the node leaving each component along its chain, or -1
+        int[] entry = new int[componentCount]; //the node the chain enters the next component at
+        int longest = 0;
+        for (int c = 0; c < componentCount; c++) {
+            length[c] = 1;
+            exit[c] = -1;
+            for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+                int node = members[m];
+                for (int k = offsets[node]; k < offsets[node + 1]; k++) {
+                    int target = componentOf[targets[k]];
+                    if (target != c && length[target] + 1 > length[c]) {
+                        length[c] = length[target] + 1;
+                        exit[c] = node;
+                        entry[c] = targets[k];
+                    }
+                }
+            }
+            if (length[c] > length[longest])
+                longest = c;
+        }
+
+        int[] nodes = new int[length[longest] + 1];
+        int size = 0;
+        int c = longest;
+        nodes[size++] = exit[c] >= 0 ? exit[c] : members[memberOffsets[c]];
+        while (exit[c] >= 0) {
+            nodes[size++] = entry[c];
+            c = componentOf[entry[c]];
+        }
+        return Arrays.copyOf(nodes, size);
+    }
+
+    /**
+     * Returns the number of dependency cycles, that is of groups of two or more nodes which all depend on each other,
+     * directly or transitively.
+     *
+     * @return number of cycles
+     */
+    int getCycleCount() {
+        return cycleComponents.length;
+    }
+
+    /**
+     * Returns the nodes of the given cycle.
+     *
+     * @param cycle     the cycle number, from 0
+     * @return sorted node ids
+     */
+    int[] getCycle(int cycle) {
+        int c = cycleComponents[cycle];
+        return Arrays.copyOfRange(members, memberOffsets[c], memberOffsets[c + 1]);
+    }
+
+    /**
+     * Returns the cycle the given node is part of.
+     *
+     * @param node      the node id
+     * @return the cycle number, or -1 if the node is part of no cycle
+     */
+    int getCycleOf(int node) {
+        return cycleOf[node];
+    }
+
+    /**
+     * Returns a longest chain of dependencies. A cycle along the chain counts as one step, and only the node the
+     * chain enters it at is listed.
+     *
+     * @return node ids, each depending on the next, or on a member of the cycle the next is part of
+     */
+    int[] getLongestChain() {
+        return chain.clone();
+    }
+
+    /**
+     * Returns the number of nodes which directly depend on the given node.
+     *
+     * @param node      the node id
+     * @return the fan-in
+     */
+    int getFanIn(int node) {
+        return fanIn[node];
+    }
+
+    /**
+     * Returns the number of nodes the given node directly depends on.
+     *
+     * @param node      the node id
+     * @return the fan-out
+     */
+    int getFanOut(int node) {
+        return fanOut[node];
+    }
+
+    /**
+     * Returns the nodes ordered by decreasing fan-in, nodes with equal fan-in in id order.
+     *
+     * @return node ids
+     */
+    int[] rankByFanIn() {
+        return rank(fanIn);
+    }
+
+    /**
+     * Returns the nodes ordered by decreasing fan-out, nodes with equal fan-out in id order.
+     *
+     * @return node ids
+     */
+    int[] rankByFanOut() {
+        return rank(fanOut);
+    }
+
+    /**
+     * Orders the nodes by a counting sort on the given degrees, which are less than the number of nodes.
+     */
+    private static int[] rank(int[] degrees) {
+        int[] starts = new int[degrees.length + 1];
+        for (int degree : degrees)
+            starts[degrees.length - 1 - degree]++; //counted from the highest degree down
+        int total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            int count = starts[i];
+            starts[i] = total;
+            total += count;
+        }
+        int[] ranked = new int[degrees.length];
+        for (int node = 0; node < degrees.length; node++)
+            ranked[starts[degrees.length - 1 - degrees[node]]++] = node;
+        return ranked;
+    }
+
+    /**
+     * Flags the catalog nodes which are part of a cycle with the number of their cycle, counted from 1, as "cycle".
+     * Other nodes are left as they are.
+     *
+     * @param catalog   the catalog the graph was built alongside
+     */
+    void markCycles(JSONArray catalog) {
+        if (cycleComponents.length == 0)
+            return;
+        for (Object o : catalog) {
+            JSONObject node = (JSONObject) o;
+            int id = graph.getNodeId((String) node.get("name"));
+            if (id >= 0 && cycleOf[id] >= 0)
+                node.put("cycle", cycleOf[id] + 1);
+        }
+    }
+
+    /**
+     * Writes a plain text report of the analysis: every cycle with its members, the longest chain of dependencies,
+     * and the nodes with the highest fan-in and fan-out.
+     *
+     * @param writer    the writer to write to
+     * @throws IOException if the report could not be written
+     */
+    void writeReport(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println(graph.getNodeCount() + " nodes, " + graph.getEdgeCount() + " dependencies.");
+        out.println();
+
+        int cyclic = 0;
+        for (int c : cycleComponents)
+            cyclic += memberOffsets[c + 1] - memberOffsets[c];
+        out.println("Dependency cycles: " + cycleComponents.length + ", involving " + cyclic + " components.");
+        for (int cycle = 0; cycle < cycleComponents.length; cycle++) {
+            int[] nodes = getCycle(cycle);
+            out.println("  Cycle " + (cycle + 1) + ", " + nodes.length + " components:");
+            for (int node : nodes)
+                out.println("    " + graph.getNodeName(node));
+        }
+        out.println();
+
+        out.println("Longest dependency chain: " + chain.length + " components.");
+        for (int i = 0; i < chain.length; i++) {
+            out.println("  " + (i == 0 ? "" : "-> ") + graph.getNodeName(chain[i])
+                    + (cycleOf[chain[i]] >= 0 ? "  (cycle " + (cycleOf[chain[i]] + 1) + ")" : ""));
+        }
+        out.println();
+
+        writeRanking(out, "Highest fan-in, by number of direct dependents:", rankByFanIn(), fanIn);
+        out.println();
+        writeRanking(out, "Highest fan-out, by number of direct dependencies:", rankByFanOut(), fanOut);
+        out.flush();
+        if (out.checkError())
+            throw new IOException("Could not write the report");
+    }
+
+    private void writeRanking(PrintWriter out, String heading, int[] ranked, int[] degrees) {
+        out.println(heading);
+        for (int i = 0; i < Math.min(TOP, ranked.length) && degrees[ranked[i]] > 0; i++)
+            out.println(String.format("  %5d  %s", degrees[ranked[i]], graph.getNodeName(ranked[i])));
+    }
+}
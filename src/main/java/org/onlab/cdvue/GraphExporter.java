@@ -0,0 +1,393 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class that writes the component graph in a machine-readable format, for tools of its own rather than the viewer.
+ * <p>
+ * Exporters are handed the graph node by node and edge by edge, and write each straight to their buffered writer, so
+ * nothing but the compact graph is held in memory, however large it is. Several exporters are fed in one pass over the
+ * graph. Every node is exported with its name, its kind, which is "component", "serviceComponent" for a component
+ * providing services, or "ghost" for a service no component implements, the cycle it is part of, counted from 1 as on
+ * the page, if any, and the services it provides and refers to. Every dependency is exported as an edge from the node
+ * referring to a service to the node providing it.
+ * </p>
+ */
+abstract class GraphExporter {
+    /**
+     * The formats exporters are available for, told by the extension of the file to write.
+     */
+    enum Format {
+        JSON_LINES(".jsonl"),
+        DOT(".dot"),
+        GRAPHML(".graphml");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Returns the format of the given file.
+         *
+         * @param file      the file to write
+         * @return the format, or null if the extension of the file is not that of any format
+         */
+        static Format of(File file) {
+            for (Format format : values()) {
+                if (file.getName().endsWith(format.extension))
+                    return format;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the extensions of all formats, for messages.
+         *
+         * @return the extensions, separated by commas
+         */
+        static String extensions() {
+            List<String> extensions = new ArrayList<>();
+            for (Format format : values())
+                extensions.add(format.extension);
+            return String.join(", ", extensions);
+        }
+    }
+
+    final Writer writer;
+    ComponentGraph graph;
+    GraphAnalysis analysis;
+
+    GraphExporter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Returns an exporter writing the given format to the given writer.
+     *
+     * @param format    the format
+     * @param writer    the writer, which should be buffered
+     * @return the exporter
+     */
+    static GraphExporter create(Format format, Writer writer) {
+        switch (format) {
+            case DOT:
+                return new DotExporter(writer);
+            case GRAPHML:
+                return new GraphMlExporter(writer);
+            default:
+                return new JsonLinesExporter(writer);
+        }
+    }
+
+    /**
+     * Exports the given graph to each of the given files, in the format told by its extension, in one pass over it.
+     *
+     * @param graph     the graph
+     * @param analysis  the analysis of the graph
+     * @param files     the files to write
+     * @throws IOException if a file could not be written
+     */
+    static void export(ComponentGraph graph, GraphAnalysis analysis, List<File> files) throws IOException {
+        List<Writer> writers = new ArrayList<>();
+        try {
+            List<GraphExporter> exporters = new ArrayList<>();
+            for (File file : files) {
+                Format format = Format.of(file);
+                if (format == null)
+                    throw new IOException("Cannot tell the format of " + file + "; its name should end with "
+                            + Format.extensions() + ".");
+                Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+                writers.add(writer);
+                exporters.add(create(format, writer));
+            }
+            feed(graph, analysis, exporters);
+        }
+        finally {
+            for (Writer writer : writers)
+                writer.close();
+        }
+    }
+
+    /**
+     * Feeds the given graph to each of the given exporters, node by node and then edge by edge.
+     *
+     * @param graph     the graph
+     * @param analysis  the analysis of the graph
+     * @param exporters the exporters
+     * @throws IOException if an exporter could not write
+     */
+    static void feed(ComponentGraph graph, GraphAnalysis analysis, List<GraphExporter> exporters)
+            throws IOException {
+        for (GraphExporter exporter : exporters) {
+            exporter.graph = graph;
+            exporter.analysis = analysis;
+            exporter.begin();
+        }
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            for (GraphExporter exporter : exporters)
+                exporter.node(node);
+        }
+        int[] offsets = graph.getDependsOnOffsets();
+        int[] targets = graph.getDependsOn();
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                for (GraphExporter exporter : exporters)
+                    exporter.edge(node, targets[i]);
+            }
+        }
+        for (GraphExporter exporter : exporters) {
+            exporter.end();
+            exporter.writer.flush();
+        }
+    }
+
+    abstract void begin() throws IOException;
+
+    abstract void node(int node) throws IOException;
+
+    abstract void edge(int source, int target) throws IOException;
+
+    abstract void end() throws IOException;
+
+    /**
+     * Returns the kind of the given node.
+     */
+    String kindOf(int node) {
+        if (node >= graph.getComponentCount())
+            return "ghost";
+        return graph.isServiceComponent(node) ? "serviceComponent" : "component";
+    }
+
+    /**
+     * Returns the cycle the given node is part of, counted from 1, or 0 if it is part of none.
+     */
+    int cycleOf(int node) {
+        return analysis.getCycleOf(node) + 1;
+    }
+
+    /**
+     * Writes the names of the given services, escaped for the format, each surrounded by the given quote and
+     * separated by the given separator.
+     */
+    void writeServices(int[] services, String quote, String separator) throws IOException {
+        for (int i = 0; i < services.length; i++) {
+            if (i > 0)
+                writer.write(separator);
+            writer.write(quote);
+            writer.write(escape(graph.getServiceName(services[i])));
+            writer.write(quote);
+        }
+    }
+
+    /**
+     * Escapes the given name for the format, so that names of generic types cannot break the output.
+     */
+    abstract String escape(String name);
+
+    /**
+     * Writes the graph as JSON Lines: a JSON object on each line, first one for each node, then one for each edge,
+     * naming its ends.
+     */
+    private static class JsonLinesExporter extends GraphExporter {
+        JsonLinesExporter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void begin() {
+        }
+
+        @Override
+        void node(int node) throws IOException {
+            writer.write("{\"type\":\"node\",\"id\":");
+            writer.write(Integer.toString(node));
+            writer.write(",\"name\":\"");
+            writer.write(escape(graph.getNodeName(node)));
+            writer.write("\",\"kind\":\"");
+            writer.write(kindOf(node));
+            writer.write('"');
+            if (cycleOf(node) > 0) {
+                writer.write(",\"cycle\":");
+                writer.write(Integer.toString(cycleOf(node)));
+            }
+            writer.write(",\"provides\":[");
+            writeServices(graph.servicesOf(node), "\"", ",");
+            writer.write("],\"refersTo\":[");
+            writeServices(graph.referencesOf(node), "\"", ",");
+            writer.write("]}\n");
+        }
+
+        @Override
+        void edge(int source, int target) throws IOException {
+            writer.write("{\"type\":\"edge\",\"source\":\"");
+            writer.write(escape(graph.getNodeName(source)));
+            writer.write("\",\"target\":\"");
+            writer.write(escape(graph.getNodeName(target)));
+            writer.write("\"}\n");
+        }
+
+        @Override
+        void end() {
+        }
+
+        @Override
+        String escape(String name) {
+            return JSONValue.escape(name);
+        }
+    }
+
+    /**
+     * Writes the graph as a Graphviz digraph, with nodes named after the classes and colored as on the page: nodes
+     * of a cycle orange, ghost nodes dashed.
+     */
+    private static class DotExporter extends GraphExporter {
+        DotExporter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void begin() throws IOException {
+            writer.write("digraph cdvue {\n");
+            writer.write("  node [shape=box, fontname=\"Helvetica\"];\n");
+        }
+
+        @Override
+        void node(int node) throws IOException {
+            writer.write("  ");
+            writeId(node);
+            writer.write(" [kind=\"");
+            writer.write(kindOf(node));
+            writer.write('"');
+            if (cycleOf(node) > 0) {
+                writer.write(", cycle=");
+                writer.write(Integer.toString(cycleOf(node)));
+                writer.write(", color=\"#ff7f0e\"");
+            }
+            if (node >= graph.getComponentCount())
+                writer.write(", style=dashed");
+            writer.write(", provides=\"");
+            writeServices(graph.servicesOf(node), "", " ");
+            writer.write("\", refersTo=\"");
+            writeServices(graph.referencesOf(node), "", " ");
+            writer.write("\"];\n");
+        }
+
+        @Override
+        void edge(int source, int target) throws IOException {
+            writer.write("  ");
+            writeId(source);
+            writer.write(" -> ");
+            writeId(target);
+            writer.write(";\n");
+        }
+
+        @Override
+        void end() throws IOException {
+            writer.write("}\n");
+        }
+
+        private void writeId(int node) throws IOException {
+            writer.write('"');
+            writer.write(escape(graph.getNodeName(node)));
+            writer.write('"');
+        }
+
+        @Override
+        String escape(String name) {
+            return name.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+
+    /**
+     * Writes the graph as GraphML, with nodes identified by their ids in the graph and their attributes as data.
+     */
+    private static class GraphMlExporter extends GraphExporter {
+        GraphMlExporter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void begin() throws IOException {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+            writeKey("name", "string");
+            writeKey("kind", "string");
+            writeKey("cycle", "int");
+            writeKey("provides", "string");
+            writeKey("refersTo", "string");
+            writer.write("  <graph id=\"cdvue\" edgedefault=\"directed\">\n");
+        }
+
+        private void writeKey(String name, String type) throws IOException {
+            writer.write("  <key id=\"" + name + "\" for=\"node\" attr.name=\"" + name + "\" attr.type=\"" + type
+                    + "\"/>\n");
+        }
+
+        @Override
+        void node(int node) throws IOException {
+            writer.write("    <node id=\"n");
+            writer.write(Integer.toString(node));
+            writer.write("\"><data key=\"name\">");
+            writer.write(escape(graph.getNodeName(node)));
+            writer.write("</data><data key=\"kind\">");
+            writer.write(kindOf(node));
+            writer.write("</data>");
+            if (cycleOf(node) > 0) {
+                writer.write("<data key=\"cycle\">");
+                writer.write(Integer.toString(cycleOf(node)));
+                writer.write("</data>");
+            }
+            writer.write("<data key=\"provides\">");
+            writeServices(graph.servicesOf(node), "", " ");
+            writer.write("</data><data key=\"refersTo\">");
+            writeServices(graph.referencesOf(node), "", " ");
+            writer.write("</data></node>\n");
+        }
+
+        @Override
+        void edge(int source, int target) throws IOException {
+            writer.write("    <edge source=\"n");
+            writer.write(Integer.toString(source));
+            writer.write("\" target=\"n");
+            writer.write(Integer.toString(target));
+            writer.write("\"/>\n");
+        }
+
+        @Override
+        void end() throws IOException {
+            writer.write("  </graph>\n");
+            writer.write("</graphml>\n");
+        }
+
+        @Override
+        String escape(String name) {
+            return name.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+}
@@ -20,12 +20,14 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 
 import static org.onlab.cdvue.DependencyMapper.println;
 
 /**
- * Class that contains methods and variables to generate mappings and generates a graph of the inputted JSONObject's.
+ * Class that contains methods and variables to generate mappings and generates a graph of the inputted class facts.
  *
  * @author Parth Pendurkar
  * @version 1.0
@@ -33,74 +35,91 @@ import static org.onlab.cdvue.DependencyMapper.println;
 @SuppressWarnings("unchecked")
 class GraphHandler
 {
-    private JSONArray jsonObjects;
+    private List<ClassFacts> classFacts;
     private Map<String, Set<String>> serviceToComponents; //the map of service interfaces to the set of component classes that implement them
     private Map<String, Set<String>> componentToReferences; //the map of component classes to the set of interfaces they refer to
     private Map<String, Set<String>> componentToServices; //the map of component classes to the set of interfaces they implement
     //private Map<String, Boolean> isolatedNodes; //all isolated nodes (interfaces and classes that are not linked to anything)
     private JSONArray catalog;
-
-    private static final String TITLE_PLACEHOLDER = "TITLE_PLACEHOLDER";
-    private static final String DATA_PLACEHOLDER = "DATA_PLACEHOLDER";
-    private static final String D3JS_PLACEHOLDER = "D3JS_PLACEHOLDER";
-    private static final String D3JS = "d3.v3.min.js";
+    private ComponentGraph componentGraph;
+    private GraphAnalysis analysis;
+    private final ComponentGraph loadedGraph; //the graph loaded from a snapshot, if there were no facts to map
+    private RunMetrics metrics = new RunMetrics();
+    private int collapseAbove; //the number of nodes a package may hold on the page before it is collapsed, or 0
+    private boolean chunked; //whether to write the viewer as a directory of chunks rather than as a single page
+    private boolean gzip; //whether to compress the chunks
+    private List<File> exports = Collections.emptyList(); //the files to export the graph to, in the formats they name
 
     /**
      * Constructor for objects of class GraphHandler.
      *
-     * @param jsonObjects       the list of (specifically organized) JSONObject's to generate the graph from
+     * @param classFacts        the list of class facts to generate the graph from
      */
-    GraphHandler(JSONArray jsonObjects) {
-        this.jsonObjects = jsonObjects;
+    GraphHandler(List<ClassFacts> classFacts) {
+        this.classFacts = classFacts;
         serviceToComponents = new HashMap<>();
         componentToReferences = new HashMap<>();
         componentToServices = new HashMap<>();
         //isolatedNodes = new HashMap<>();
         catalog = new JSONArray();
+        loadedGraph = null;
     }
 
     /**
-     * Iteratively populates the two maps with each JSONObject. Also inspects them with a org.onlab.cdvue.JSONInspector object.
+     * Constructor for objects of class GraphHandler; shows a graph loaded from a snapshot instead of mapping facts.
+     *
+     * @param graph     the graph loaded from a snapshot
      */
-    private void prepareData() {
+    GraphHandler(ComponentGraph graph) {
+        classFacts = Collections.emptyList();
+        serviceToComponents = new HashMap<>();
+        componentToReferences = new HashMap<>();
+        componentToServices = new HashMap<>();
+        catalog = new JSONArray();
+        loadedGraph = graph;
+    }
 
-        for (Object jsonObject : jsonObjects) {
-            JSONObject j = (JSONObject) jsonObject;
-            try {
-                populateMaps(j);
-            }
-            catch (Exception e) {
-                e.printStackTrace();
+    /**
+     * Iteratively populates the maps with the facts of each class.
+     */
+    void prepareData() {
+        metrics.time(RunMetrics.Phase.POPULATE_MAPS, () -> {
+            for (ClassFacts facts : classFacts) {
+                try {
+                    populateMaps(facts);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
-        }
+        });
     }
 
     /**
-     * Populates the two maps with given JSONObject data.
+     * Populates the maps with the given class facts.
      *
-     * @param j     the given JSONObject
+     * @param facts     the given class facts
      */
-    private void populateMaps(JSONObject j) throws Exception {
+    private void populateMaps(ClassFacts facts) throws Exception {
         //getting basic information
-        String className = (String) j.get("cn");
-        boolean hc = (boolean) j.get("hc");
-        boolean hs = (boolean) j.get("hs");
-        //boolean ii = (boolean) j.get("ii");
+        String className = facts.getName();
+        boolean hc = facts.isComponent();
+        boolean hs = facts.isService();
 
         //if component class, modify componentToReferences Map
         if (hc) {
-            List <String> fields = (List) j.get("rf");
+            List <String> fields = facts.getReferences();
             Set<String> currentForC = new HashSet<>(fields); //adds the fully qualified name of the interface the annotation refers to
             componentToReferences.put(className, currentForC);
         }
         //if service and component class, modify serviceToComponents Map
         if (hs && hc) {
-            List<String> classes = (List) j.get("ic");
+            List<String> classes = facts.getInterfaces();
 
             Set<String> classSet = new HashSet<>(classes);
             componentToServices.put(className, classSet);
 
-            String serviceTag = (String) j.get("st");
+            String serviceTag = facts.getServiceTag();
             if (!serviceTag.equals("")) {
                 Set<String> previousClassSet = componentToServices.get(className);
                 previousClassSet.add(serviceTag);
@@ -125,162 +144,226 @@ class GraphHandler
     }
 
     /**
-     * Prepares and displays the yFiles graph.
+     * Updates the maps in place: the given removed facts are taken out of them first, then the added facts are put in.
+     *
+     * @param removed   the facts of classes which were removed or re-analyzed
+     * @param added     the facts of classes which were added or re-analyzed
      */
-    void prepareGraph() throws IOException {
-        prepareData();
-        buildComponentNodes();
-
-        String index = slurp(getClass().getResourceAsStream("/index.html"));
-        String d3js = slurp(getClass().getResourceAsStream("/" + D3JS));
-
-        FileWriter fw = new FileWriter("mapper.html");
-        fw.write(index.replace(TITLE_PLACEHOLDER, "Dependency Mapper").replace(D3JS_PLACEHOLDER, d3js).replace(DATA_PLACEHOLDER, catalog.toJSONString()));
-        fw.close();
+    void update(List<ClassFacts> removed, List<ClassFacts> added) {
+        removed.forEach(this::removeFromMaps);
+        for (ClassFacts facts : added) {
+            try {
+                populateMaps(facts);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
-     * Slurps the specified input stream into a string.
+     * Reverses what populating the maps with the given class facts did. Interfaces left without components are
+     * dropped from serviceToComponents, so that they show up as ghost nodes again.
      *
-     * @param stream input stream to be read
-     * @return string containing the contents of the input stream
-     * @throws IOException if issues encountered reading from the stream
+     * @param facts     the given class facts
      */
-    private static String slurp(InputStream stream) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader br = new BufferedReader(new InputStreamReader(stream));
-        String line;
-        while ((line = br.readLine()) != null) {
-            sb.append(line).append(System.lineSeparator());
+    private void removeFromMaps(ClassFacts facts) {
+        String className = facts.getName();
+        if (!facts.isComponent())
+            return;
+
+        componentToReferences.remove(className);
+        Set<String> services = componentToServices.remove(className);
+        if (services != null) {
+            for (String icName : services) {
+                Set<String> components = serviceToComponents.get(icName);
+                if (components != null) {
+                    components.remove(className);
+                    if (components.isEmpty())
+                        serviceToComponents.remove(icName);
+                }
+            }
         }
-        br.close();
-        return sb.toString();
     }
 
     /**
-     * Puts all nodes in the componentToReferences Map on the given graph.
+     * Prepares the graph and writes the viewer page to the given file, with the layout of the catalog computed ahead
+     * of time, or the viewer in chunks to the given directory, the analysis report to the second given file, if any,
+     * and a snapshot of the graph to the third, if any. The graph is exported to the files set, if any.
+     *
+     * @param output    the file to write the page to, or the directory to write the chunks to
+     * @param report    the file to write the report to, or null
+     * @param snapshot  the file to write the snapshot to, or null
      */
-    private void buildComponentNodes() {
-        if (!componentToReferences.isEmpty()) {
-            //iterates through each entry in the Map
-            for (Map.Entry<String, Set<String>> entry : componentToReferences.entrySet()) {
-                String componentClassName = entry.getKey();
+    void prepareGraph(File output, File report, File snapshot) throws IOException {
+        prepareData();
+        buildComponentNodes();
+        JSONObject layout = chunked ? null
+                : metrics.time(RunMetrics.Phase.LINK, () -> GraphLayout.build(catalog, collapseAbove));
+
+        metrics.time(RunMetrics.Phase.EMIT, () -> {
+            if (chunked)
+                new ChunkWriter(gzip).write("Dependency Mapper", catalog, output).forEach(metrics::written);
+            else {
+                new PageWriter().write("Dependency Mapper", catalog, layout, output);
+                metrics.written(output);
+            }
+            if (report != null) {
+                try (Writer writer = Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8)) {
+                    analysis.writeReport(writer);
+                }
+                metrics.written(report);
+            }
+            if (snapshot != null) {
+                GraphSnapshot.write(componentGraph, snapshot);
+                metrics.written(snapshot);
+            }
+            if (!exports.isEmpty()) {
+                GraphExporter.export(componentGraph, analysis, exports);
+                exports.forEach(metrics::written);
+            }
+        });
+        int cycles = analysis.getCycleCount();
+        if (cycles > 0)
+            System.out.println("Found " + cycles + (cycles == 1 ? " dependency cycle" : " dependency cycles")
+                    + "; highlighted on the page" + (report != null ? " and listed in " + report : "") + ".");
+    }
 
-                JSONObject newJSON = getJSONWithNameFromArray(componentClassName, catalog);
+    /**
+     * Puts all nodes in the componentToReferences Map, or of the loaded graph, on the catalog, analyzes the graph
+     * they make up, and flags the nodes which are part of a dependency cycle.
+     */
+    void buildComponentNodes() {
+        metrics.time(RunMetrics.Phase.LINK, () -> {
+            componentGraph = buildComponentGraph();
+            if (loadedGraph != null)
+                catalog = CatalogBuilder.build(componentGraph);
+            else
+                catalog = new CatalogBuilder(serviceToComponents, componentToReferences, componentToServices).build();
+            analysis = new GraphAnalysis(componentGraph);
+            analysis.markCycles(catalog);
+        });
+        countGraph();
+        println("Found " + analysis.getCycleCount() + " dependency cycles.");
+    }
 
-                if (newJSON == null)
-                    newJSON = addNewJSONToArray(componentClassName, new JSONArray(), 0, new JSONArray(), 0, new JSONArray(), catalog);
-                linkNode(componentClassName, entry.getValue(), newJSON); //link the node to every interface node in its associated Set
-            }
-        }
+    /**
+     * Sets the counters of the metrics which describe the graph.
+     */
+    private void countGraph() {
+        int components = componentGraph.getComponentCount();
+        long references = 0;
+        for (int node = 0; node < components; node++)
+            references += componentGraph.referencesOf(node).length;
+        metrics.set(RunMetrics.Counter.COMPONENTS, components);
+        metrics.set(RunMetrics.Counter.SERVICES, componentGraph.getServiceCount());
+        metrics.set(RunMetrics.Counter.REFERENCES, references);
+        metrics.set(RunMetrics.Counter.GHOST_NODES, componentGraph.getNodeCount() - components);
+        metrics.set(RunMetrics.Counter.DEPENDENCIES, componentGraph.getEdgeCount());
     }
 
     /**
-     * Helper method to link a node to everything in its associated Set.
+     * Sets the metrics to record the phases and counts of the graph in.
      *
-     * @param names     the given Set
+     * @param metrics       the metrics
      */
-    private void linkNode(String className, Set<String> names, JSONObject jsonObject) {
-        String nameFromJSON = (String) jsonObject.get("name");
-        JSONArray JSONarray = (JSONArray) jsonObject.get("dependsOn");
-        JSONArray dependsOnServices = (JSONArray) jsonObject.get("dependsOnServices");
-        JSONArray dependentsServices = (JSONArray) jsonObject.get("dependentsServices");
-
-        if (names != null)
-            dependsOnServices.addAll(names);
+    void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
 
+    /**
+     * Sets the number of nodes a package may hold on the page; packages holding more are collapsed into a single
+     * aggregate node.
+     *
+     * @param collapseAbove     the number of nodes, or 0 or less to never collapse packages
+     */
+    void setCollapseAbove(int collapseAbove) {
+        this.collapseAbove = collapseAbove;
+    }
 
-        Set<String> dependents = componentToServices.get(className);
-        if (dependents != null)
-            dependentsServices.addAll(dependents);
+    /**
+     * Sets whether to write the viewer as a directory holding an index page and a chunk for each package, which the
+     * page loads when the package is expanded, rather than as a single page.
+     *
+     * @param chunked   true to write chunks
+     * @param gzip      true to compress the chunks with gzip
+     */
+    void setChunked(boolean chunked, boolean gzip) {
+        this.chunked = chunked;
+        this.gzip = gzip;
+    }
 
-        int dependsOn = 0;
-        JSONObject jsonObject1;
+    /**
+     * Sets the files to export the graph to, each in the format told by its extension: JSON Lines, DOT or GraphML.
+     *
+     * @param exports   the files; empty to export nothing
+     */
+    void setExports(List<File> exports) {
+        this.exports = exports;
+    }
 
-        if (names != null) {
-            for (String name : names) {
-                Set<String> retrievedComponents = serviceToComponents.get(name);
-                if (retrievedComponents == null) {
-                    if (!stringPresentInArray(name + "?", JSONarray)) {
-                        if (!JSONPresentInArray(name + "?", catalog)) {
-                            JSONObject ghostJSON = new JSONObject();
-                            ghostJSON.put("name", name + "?");
-                            ghostJSON.put("dependsOn", new JSONArray());
-                            ghostJSON.put("numberDependsOn", "N/A");
-                            ghostJSON.put("dependsOnServices", new JSONArray());
-                            ghostJSON.put("numberDependents", 0);
-                            List ghostServices = new ArrayList();
-                            ghostServices.add(name);
-                            ghostJSON.put("dependentsServices", new ArrayList<>(ghostServices));
-                            catalog.add(ghostJSON);
-                        }
-                        jsonObject1 = getJSONWithNameFromArray(name + "?", catalog);
-                        JSONarray.add(name + "?");
-                        int previousNumberDependents = (int) jsonObject1.get("numberDependents");
-                        jsonObject1.put("numberDependents", previousNumberDependents + 1);
-                        dependsOn++;
-                    }
-                }
-                else {
-                    for (String n : retrievedComponents) {
-                        if (!stringPresentInArray(n, JSONarray) && !n.equals(nameFromJSON)) {
-                            jsonObject1 = getJSONWithNameFromArray(n, catalog);
-                            if (jsonObject1 == null)
-                                jsonObject1 = addNewJSONToArray(n, new JSONArray(), 0, new JSONArray(), 0, new JSONArray(), catalog);
-                            JSONarray.add(n);
-                            int previousNumberDependents = (int) jsonObject1.get("numberDependents");
-                            jsonObject1.put("numberDependents", previousNumberDependents + 1);
-                            dependsOn++;
-                        }
-                    }
-                }
-            }
-        }
-        else {
-            println("Names was null");
-        }
+    /**
+     * Builds the compact form of the graph held by the maps, for answering queries, or returns the loaded graph.
+     *
+     * @return the component graph
+     */
+    ComponentGraph buildComponentGraph() {
+        if (loadedGraph != null)
+            return loadedGraph;
+        return new ComponentGraph(serviceToComponents, componentToReferences, componentToServices);
+    }
 
-        jsonObject.put("numberDependsOn", dependsOn);
-        jsonObject.put("dependsOn", JSONarray);
-        jsonObject.put("dependsOnServices", dependsOnServices);
-        jsonObject.put("dependentsServices", dependentsServices);
+    /**
+     * Returns the compact form of the graph, as of the last time the component nodes were built.
+     *
+     * @return the component graph; null until the component nodes have been built
+     */
+    ComponentGraph getComponentGraph() {
+        return componentGraph;
     }
 
-    private boolean stringPresentInArray(String value, JSONArray jsonArray) {
-        for (Object i : jsonArray) {
-            if (value.equals(i))
-                return true;
-        }
-        return false;
+    /**
+     * Returns the analysis of the graph, as of the last time the component nodes were built.
+     *
+     * @return the analysis; null until the component nodes have been built
+     */
+    GraphAnalysis getAnalysis() {
+        return analysis;
     }
 
-    private boolean JSONPresentInArray(String name, JSONArray jsonArray) {
-        for (Object i : jsonArray) {
-            if (name.equals(((JSONObject) i).get("name")))
-                return true;
-        }
-        return false;
+    /**
+     * Returns the catalog of graph nodes.
+     *
+     * @return the catalog; empty until the component nodes have been built
+     */
+    JSONArray getCatalog() {
+        return catalog;
     }
 
-    private JSONObject getJSONWithNameFromArray(String name, JSONArray jsonArray) {
-        for (Object o : jsonArray) {
-            JSONObject jsonObject = (JSONObject) o;
-            if (jsonObject.get("name").equals(name))
-                return (JSONObject) o;
-        }
-        return null;
+    /**
+     * Returns the map of service interfaces to the components that implement them.
+     *
+     * @return the map; empty until the data has been prepared
+     */
+    Map<String, Set<String>> getServiceToComponents() {
+        return serviceToComponents;
     }
 
-    private JSONObject addNewJSONToArray(String name, JSONArray dependsOn, int numberDependsOn, JSONArray dependsOnServices, int numberDependents, JSONArray dependentsServices, JSONArray jsonArray) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("name", name);
-        jsonObject.put("dependsOn", dependsOn);
-        jsonObject.put("numberDependsOn", numberDependsOn);
-        jsonObject.put("dependsOnServices", dependsOnServices);
-        jsonObject.put("numberDependents", numberDependents);
-        jsonObject.put("dependentsServices", dependentsServices);
-        jsonArray.add(jsonObject);
+    /**
+     * Returns the map of components to the interfaces they refer to.
+     *
+     * @return the map; empty until the data has been prepared
+     */
+    Map<String, Set<String>> getComponentToReferences() {
+        return componentToReferences;
+    }
 
-        return jsonObject;
+    /**
+     * Returns the map of components to the interfaces they implement.
+     *
+     * @return the map; empty until the data has been prepared
+     */
+    Map<String, Set<String>> getComponentToServices() {
+        return componentToServices;
     }
 }
\ No newline at end of file
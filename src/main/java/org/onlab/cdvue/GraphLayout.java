@@ -0,0 +1,381 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that lays out a catalog for the viewer page ahead of time: the package hierarchy the nodes are drawn on, the
+ * radial coordinates the d3 cluster layout of the page gives each package and node, and the dependencies as pairs of
+ * node indexes. The page then only links the nodes up and draws them, instead of building the hierarchy, looking up
+ * every dependency by name and running the layout on each load.
+ * <p>
+ * Packages holding more nodes than a given size can be collapsed, each into one aggregate node which stands for all
+ * of them and is linked to whatever any of them depends on or is depended on by, so that the page stays responsive
+ * on very large graphs. Only the nodes directly in a package count; its subpackages are laid out as usual.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class GraphLayout {
+    private final JSONArray catalog;
+    private final Package root = new Package(null, "", "");
+    private final Map<String, Package> packages = new HashMap<>();
+    private final Map<String, Leaf> leafOf = new HashMap<>(); //the leaf drawing each catalog node, by name
+    private final List<Package> packageOrder = new ArrayList<>(); //packages in pre-order, a parent before its children
+    private final List<Leaf> leafOrder = new ArrayList<>(); //leaves in the order the layout visits them
+    private Node previous; //the node laid out last without children
+    private double x;
+
+    private GraphLayout(JSONArray catalog) {
+        this.catalog = catalog;
+        packages.put("", root);
+    }
+
+    /**
+     * Lays out the given catalog, collapsing the packages which hold more nodes than the given size.
+     *
+     * @param catalog       the catalog of graph nodes
+     * @param collapseAbove the number of nodes a package may hold before it is collapsed; 0 or less never collapses
+     * @return object holding the "packages", the "nodes", the "aggregates" and the "links" of the layout
+     */
+    static JSONObject build(JSONArray catalog, int collapseAbove) {
+        GraphLayout layout = new GraphLayout(catalog);
+        layout.buildHierarchy();
+        int collapsed = collapseAbove > 0 ? layout.collapse(collapseAbove) : 0;
+        layout.order(layout.root, -1);
+        layout.cluster(layout.root);
+        layout.scale();
+        JSONObject json = layout.toJSON();
+        println(() -> "Laid out " + layout.leafOrder.size() + " nodes in " + layout.packageOrder.size()
+                + " packages; collapsed " + collapsed + " packages.");
+        return json;
+    }
+
+    /**
+     * Puts every catalog node in its package, as the page would: a node whose name was already seen is left out, and
+     * packages are added in the order their first node appears.
+     */
+    private void buildHierarchy() {
+        for (int i = 0; i < catalog.size(); i++) {
+            String name = (String) ((JSONObject) catalog.get(i)).get("name");
+            if (leafOf.containsKey(name))
+                continue;
+            Package parent = find(packageOf(name));
+            Leaf leaf = new Leaf(parent);
+            leaf.members.add(i);
+            parent.children.add(leaf);
+            leafOf.put(name, leaf);
+        }
+    }
+
+    private Package find(String name) {
+        Package p = packages.get(name);
+        if (p == null) {
+            Package parent = find(packageOf(name));
+            p = new Package(parent, name, name.substring(name.lastIndexOf('.') + 1));
+            parent.children.add(p);
+            packages.put(name, p);
+        }
+        return p;
+    }
+
+    /**
+     * Replaces the nodes of every package holding more than the given number of them by a single aggregate node,
+     * which takes the place of the first one.
+     *
+     * @return the number of packages collapsed
+     */
+    private int collapse(int collapseAbove) {
+        int collapsed = 0;
+        for (Package p : packages.values()) {
+            List<Leaf> leaves = new ArrayList<>();
+            for (Node child : p.children) {
+                if (child instanceof Leaf)
+                    leaves.add((Leaf) child);
+            }
+            if (leaves.size() <= collapseAbove)
+                continue;
+
+            Leaf aggregate = new Leaf(p);
+            for (Leaf leaf : leaves)
+                aggregate.members.addAll(leaf.members);
+            aggregate.aggregate = new JSONObject();
+            aggregate.aggregate.put("name", aggregateName(p.name));
+            aggregate.aggregate.put("label", aggregateName(p.key) + " (" + aggregate.members.size() + ")");
+            for (int member : aggregate.members)
+                leafOf.put(name(member), aggregate);
+            p.children.set(p.children.indexOf(leaves.get(0)), aggregate);
+            p.children.removeAll(leaves.subList(1, leaves.size()));
+            collapsed++;
+        }
+        return collapsed;
+    }
+
+    /**
+     * Numbers the packages in pre-order and the leaves in the order the layout visits them.
+     */
+    private void order(Package p, int parent) {
+        p.index = packageOrder.size();
+        p.parentIndex = parent;
+        packageOrder.add(p);
+        for (Node child : p.children) {
+            if (child instanceof Package)
+                order((Package) child, p.index);
+            else
+                leafOrder.add((Leaf) child);
+        }
+    }
+
+    /**
+     * Runs the cluster layout of d3 over the hierarchy: leaves are spread evenly, one step apart from their sibling
+     * and two from a cousin, at depth 0, and each package sits at the mean of its children, one level above the
+     * highest of them.
+     */
+    private void cluster(Node node) {
+        List<Node> children = node instanceof Package ? ((Package) node).children : null;
+        if (children != null && !children.isEmpty()) {
+            double sum = 0;
+            double max = 0;
+            for (Node child : children) {
+                cluster(child);
+                sum += child.x;
+                max = Math.max(max, child.y);
+            }
+            node.x = sum / children.size();
+            node.y = 1 + max;
+        }
+        else {
+            node.x = previous != null ? x += separation(node, previous) : 0;
+            node.y = 0;
+            previous = node;
+        }
+    }
+
+    private static double separation(Node a, Node b) {
+        return a.parent == b.parent ? 1 : 2;
+    }
+
+    /**
+     * Scales the coordinates, the angle to a fraction of the circle and the depth to a fraction of the radius,
+     * leaves lying on the circle and the root at its center.
+     */
+    private void scale() {
+        Node left = root;
+        while (left instanceof Package && !((Package) left).children.isEmpty())
+            left = ((Package) left).children.get(0);
+        Node right = root;
+        while (right instanceof Package && !((Package) right).children.isEmpty())
+            right = ((Package) right).children.get(((Package) right).children.size() - 1);
+        double x0 = left.x - separation(left, right) / 2;
+        double x1 = right.x + separation(right, left) / 2;
+        double depth = root.y;
+
+        List<Node> nodes = new ArrayList<>(packageOrder);
+        nodes.addAll(leafOrder);
+        for (Node node : nodes) {
+            node.x = (node.x - x0) / (x1 - x0);
+            node.y = 1 - (depth != 0 ? node.y / depth : 1);
+        }
+    }
+
+    private JSONObject toJSON() {
+        JSONArray packagesJSON = new JSONArray();
+        for (Package p : packageOrder) {
+            JSONObject json = new JSONObject();
+            json.put("name", p.name);
+            json.put("key", p.key);
+            json.put("parent", p.parentIndex);
+            json.put("x", p.x);
+            json.put("y", p.y);
+            packagesJSON.add(json);
+        }
+
+        //links run from leaf to leaf, in the order of the leaves and of the dependencies of their nodes
+        Map<Leaf, Integer> indexOf = new HashMap<>();
+        for (Leaf leaf : leafOrder)
+            indexOf.put(leaf, indexOf.size());
+        JSONArray links = new JSONArray();
+        Map<Leaf, Set<Leaf>> dependsOn = new HashMap<>();
+        Map<Leaf, Set<Leaf>> dependents = new HashMap<>();
+        for (Leaf source : leafOrder) {
+            Set<Leaf> targets = new LinkedHashSet<>();
+            for (int member : source.members) {
+                JSONObject node = (JSONObject) catalog.get(member);
+                addTargets((List<String>) node.get("dependsOn"), source, targets);
+                addTargets((List<String>) node.get("dependsOnRemoved"), source, targets);
+            }
+            for (Leaf target : targets) {
+                links.add(indexOf.get(source));
+                links.add(indexOf.get(target));
+                dependents.computeIfAbsent(target, t -> new LinkedHashSet<>()).add(source);
+            }
+            dependsOn.put(source, targets);
+        }
+
+        //nodes are written as columns, which keeps the layout of very large graphs small
+        JSONArray node = new JSONArray();
+        JSONArray parent = new JSONArray();
+        JSONArray xs = new JSONArray();
+        JSONArray ys = new JSONArray();
+        JSONArray aggregates = new JSONArray();
+        for (Leaf leaf : leafOrder) {
+            if (leaf.aggregate != null) {
+                fillAggregate(leaf, dependsOn.get(leaf), dependents.getOrDefault(leaf, new LinkedHashSet<>()));
+                node.add(aggregate(aggregates.size()));
+                aggregates.add(leaf.aggregate);
+            }
+            else
+                node.add(leaf.members.get(0));
+            parent.add(leaf.parent.index);
+            xs.add(leaf.x);
+            ys.add(leaf.y);
+        }
+        JSONObject nodes = new JSONObject();
+        nodes.put("node", node);
+        nodes.put("parent", parent);
+        nodes.put("x", xs);
+        nodes.put("y", ys);
+
+        JSONObject layout = new JSONObject();
+        layout.put("packages", packagesJSON);
+        layout.put("nodes", nodes);
+        layout.put("aggregates", aggregates);
+        layout.put("links", links);
+        return layout;
+    }
+
+    /**
+     * Returns the package of the given node or package, as the page takes it: all of the name up to its last dot.
+     *
+     * @param name      the name of a node or package
+     * @return the name of the package, empty for the default package
+     */
+    static String packageOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    /**
+     * Returns the name of the aggregate node standing for the nodes of the given package.
+     *
+     * @param packageName   the name of the package, empty for the default package
+     * @return the name of the package followed by ".*"
+     */
+    static String aggregateName(String packageName) {
+        return packageName.isEmpty() ? "*" : packageName + ".*";
+    }
+
+    /**
+     * Encodes the index of an aggregate node, so that it can be told apart from the index of a catalog node.
+     *
+     * @param index     the index of the aggregate node
+     * @return the encoded index, which is negative
+     */
+    static int aggregate(int index) {
+        return ~index;
+    }
+
+    private void addTargets(List<String> names, Leaf source, Set<Leaf> targets) {
+        if (names == null)
+            return;
+        for (String name : names) {
+            Leaf target = leafOf.get(name);
+            if (target != null && target != source)
+                targets.add(target);
+        }
+    }
+
+    /**
+     * Fills in the catalog entry of an aggregate node, which the page shows like that of any other node: the nodes
+     * it depends on and the nodes depending on it take the place of the services, and it is marked changed if any
+     * of its members changed.
+     */
+    private void fillAggregate(Leaf leaf, Set<Leaf> dependsOn, Set<Leaf> dependents) {
+        JSONObject aggregate = leaf.aggregate;
+        aggregate.put("members", leaf.members.size());
+        aggregate.put("numberDependsOn", dependsOn.size());
+        aggregate.put("numberDependents", dependents.size());
+        aggregate.put("dependsOnServices", names(dependsOn));
+        aggregate.put("dependentsServices", names(dependents));
+        for (int member : leaf.members) {
+            if (((JSONObject) catalog.get(member)).get("diff") != null) {
+                aggregate.put("diff", "changed");
+                break;
+            }
+        }
+    }
+
+    private JSONArray names(Set<Leaf> leaves) {
+        JSONArray names = new JSONArray();
+        for (Leaf leaf : leaves)
+            names.add(leaf.aggregate != null ? leaf.aggregate.get("name") : name(leaf.members.get(0)));
+        return names;
+    }
+
+    private String name(int member) {
+        return (String) ((JSONObject) catalog.get(member)).get("name");
+    }
+
+    /**
+     * A package or a leaf of the hierarchy, with its coordinates.
+     */
+    private abstract static class Node {
+        final Package parent;
+        double x;
+        double y;
+
+        Node(Package parent) {
+            this.parent = parent;
+        }
+    }
+
+    private static class Package extends Node {
+        final String name;
+        final String key;
+        final List<Node> children = new ArrayList<>();
+        int index;
+        int parentIndex;
+
+        Package(Package parent, String name, String key) {
+            super(parent);
+            this.name = name;
+            this.key = key;
+        }
+    }
+
+    /**
+     * A node drawn on the circle: a catalog node, or an aggregate node standing for the nodes of a collapsed package.
+     */
+    private static class Leaf extends Node {
+        final List<Integer> members = new ArrayList<>(); //the indexes of the catalog nodes drawn as this leaf
+        JSONObject aggregate; //the catalog entry of an aggregate node; null for a catalog node
+
+        Leaf(Package parent) {
+            super(parent);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class that reads and writes snapshots of an analyzed graph, so that it can be queried, compared with another build
+ * or shown again without analyzing any source.
+ * <p>
+ * A snapshot is a binary file holding, after a header, a table of the class names sorted by name, whose index is
+ * the id of each class, a record of flags for each class, telling whether it is a component, a component providing
+ * services, a service interface, and an interface no component provides, and three relations in compressed sparse row
+ * form: the services each component refers to, the services it provides, and the nodes it depends on. Every section
+ * is made of big-endian ints, apart from the UTF-8 bytes of the names, which are padded to a whole number of ints.
+ * </p>
+ * <p>
+ * Snapshots are memory-mapped when opened, and the sections are read in place through int buffers. Names are only
+ * decoded when asked for, so opening a snapshot takes about as long whatever its size.
+ * </p>
+ */
+class GraphSnapshot {
+    static final int COMPONENT = 1; //the class has an @Component annotation
+    static final int SERVICE = 2; //the component has an @Service annotation
+    static final int INTERFACE = 4; //the class is referred to or provided as a service
+    static final int UNRESOLVED = 8; //the service is referred to, but no component provides it
+
+    private static final int MAGIC = 0x43445653; //"CDVS"
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final int nameCount;
+    private final int componentCount;
+    private final int interfaceCount;
+    private final int unresolvedCount;
+    private final IntBuffer nameOffsets;
+    private final ByteBuffer nameBytes;
+    private final IntBuffer flags;
+    private final Rows references;
+    private final Rows provides;
+    private final Rows dependsOn;
+    private final String[] names; //decoded names, filled in as they are asked for
+
+    private GraphSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Snapshot version " + version + " is not supported");
+        nameCount = buffer.getInt();
+        componentCount = buffer.getInt();
+        interfaceCount = buffer.getInt();
+        unresolvedCount = buffer.getInt();
+        int byteCount = buffer.getInt();
+
+        nameOffsets = ints(nameCount + 1);
+        nameBytes = section(byteCount);
+        buffer.position(buffer.position() + padding(byteCount));
+        flags = ints(nameCount);
+        references = rows();
+        provides = rows();
+        dependsOn = rows();
+        names = new String[nameCount];
+    }
+
+    /**
+     * Returns whether the given file is a snapshot, of any version.
+     *
+     * @param file      the file
+     * @return true if the file starts like a snapshot
+     */
+    static boolean isSnapshot(File file) {
+        if (!file.isFile())
+            return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the given snapshot by mapping it into memory.
+     *
+     * @param file      the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file could not be mapped, or is not a snapshot of this version
+     */
+    static GraphSnapshot open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new GraphSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Cannot read snapshot " + file + ": it is truncated or damaged", e);
+        }
+        catch (IOException e) {
+            throw new IOException("Cannot read snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private ByteBuffer section(int bytes) {
+        ByteBuffer section = buffer.duplicate();
+        section.limit(buffer.position() + bytes);
+        buffer.position(buffer.position() + bytes);
+        return section.slice();
+    }
+
+    private IntBuffer ints(int count) {
+        return section(count * 4).asIntBuffer();
+    }
+
+    private Rows rows() {
+        IntBuffer offsets = ints(nameCount + 1);
+        return new Rows(offsets, ints(offsets.get(nameCount)));
+    }
+
+    private static int padding(int bytes) {
+        return (4 - bytes % 4) % 4;
+    }
+
+    /**
+     * Writes a snapshot of the given graph to the given file.
+     *
+     * @param graph     the graph
+     * @param file      the file to write
+     * @throws IOException if the file could not be written
+     */
+    static void write(ComponentGraph graph, File file) throws IOException {
+        //merges the sorted component names with the sorted service names, a class being possibly both
+        int components = graph.getComponentCount();
+        int services = graph.getServiceCount();
+        List<String> names = new ArrayList<>();
+        int[] flags = new int[components + services];
+        int[] nameOfNode = new int[graph.getNodeCount()]; //ghost nodes are encoded as unresolved references
+        int[] nameOfService = new int[services];
+        int unresolved = 0;
+        int c = 0;
+        int s = 0;
+        while (c < components || s < services) {
+            int order = c == components ? 1 : s == services ? -1
+                    : graph.getNodeName(c).compareTo(graph.getServiceName(s));
+            int id = names.size();
+            int f = 0;
+            if (order <= 0) {
+                f |= COMPONENT | (graph.isServiceComponent(c) ? SERVICE : 0);
+                names.add(graph.getNodeName(c));
+                nameOfNode[c++] = id;
+            }
+            if (order >= 0) {
+                f |= INTERFACE;
+                if (graph.getGhostNode(s) >= 0) {
+                    f |= UNRESOLVED;
+                    nameOfNode[graph.getGhostNode(s)] = unresolved(id);
+                    unresolved++;
+                }
+                if (order > 0)
+                    names.add(graph.getServiceName(s));
+                nameOfService[s++] = id;
+            }
+            flags[id] = f;
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            Files.createDirectories(parent.toPath());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()),
+                                                                                  256 * 1024))) {
+            List<byte[]> bytes = new ArrayList<>(names.size());
+            int byteCount = 0;
+            for (String name : names) {
+                byte[] b = name.getBytes(StandardCharsets.UTF_8);
+                bytes.add(b);
+                byteCount += b.length;
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            out.writeInt(components);
+            out.writeInt(services);
+            out.writeInt(unresolved);
+            out.writeInt(byteCount);
+
+            int offset = 0;
+            out.writeInt(0);
+            for (byte[] b : bytes)
+                out.writeInt(offset += b.length);
+            for (byte[] b : bytes)
+                out.write(b);
+            out.write(new byte[padding(byteCount)]);
+            for (int id = 0; id < names.size(); id++)
+                out.writeInt(flags[id]);
+
+            //rows are written per name; only components have any
+            int[] componentOf = new int[names.size()];
+            Arrays.fill(componentOf, -1);
+            for (int node = 0; node < components; node++)
+                componentOf[nameOfNode[node]] = node;
+            writeRows(out, componentOf, graph::referencesOf, nameOfService);
+            writeRows(out, componentOf, graph::servicesOf, nameOfService);
+            writeRows(out, componentOf, graph::dependenciesOf, nameOfNode);
+        }
+    }
+
+    private interface RowSource {
+        int[] row(int node);
+    }
+
+    private static void writeRows(DataOutputStream out, int[] componentOf, RowSource source, int[] map)
+            throws IOException {
+        int offset = 0;
+        out.writeInt(0);
+        for (int node : componentOf)
+            out.writeInt(offset += node < 0 ? 0 : source.row(node).length);
+        for (int node : componentOf) {
+            if (node >= 0) {
+                for (int target : source.row(node))
+                    out.writeInt(map[target]);
+            }
+        }
+    }
+
+    /**
+     * Encodes a dependency on the ghost node of the given unresolved service, or decodes it back.
+     *
+     * @param id    the name id of the service, or an encoded dependency
+     * @return the encoded dependency, which is negative, or the name id
+     */
+    static int unresolved(int id) {
+        return ~id;
+    }
+
+    /**
+     * Returns the number of classes in the name table.
+     *
+     * @return number of names
+     */
+    int getNameCount() {
+        return nameCount;
+    }
+
+    /**
+     * Returns the name of the given class, decoding it on first use.
+     *
+     * @param id    the name id
+     * @return the fully qualified name
+     */
+    String getName(int id) {
+        String name = names[id];
+        if (name == null) {
+            int start = nameOffsets.get(id);
+            byte[] bytes = new byte[nameOffsets.get(id + 1) - start];
+            ByteBuffer b = nameBytes.duplicate();
+            b.position(start);
+            b.get(bytes);
+            name = names[id] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the flags of the given class: a combination of COMPONENT, SERVICE, INTERFACE and UNRESOLVED.
+     *
+     * @param id    the name id
+     * @return the flags
+     */
+    int getFlags(int id) {
+        return flags.get(id);
+    }
+
+    /**
+     * Returns the number of components.
+     *
+     * @return number of classes flagged COMPONENT
+     */
+    int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Returns the number of service interfaces, resolved or not.
+     *
+     * @return number of classes flagged INTERFACE
+     */
+    int getInterfaceCount() {
+        return interfaceCount;
+    }
+
+    /**
+     * Returns the number of service interfaces which no component provides.
+     *
+     * @return number of classes flagged UNRESOLVED
+     */
+    int getUnresolvedCount() {
+        return unresolvedCount;
+    }
+
+    /**
+     * Returns the services each component refers to, as sorted name ids.
+     *
+     * @return rows indexed by name id
+     */
+    Rows getReferences() {
+        return references;
+    }
+
+    /**
+     * Returns the services each component provides, as sorted name ids.
+     *
+     * @return rows indexed by name id
+     */
+    Rows getProvides() {
+        return provides;
+    }
+
+    /**
+     * Returns the nodes each component depends on: the name ids of components, followed by the encoded name ids of
+     * the unresolved services it refers to, each sorted by name.
+     *
+     * @return rows indexed by name id
+     */
+    Rows getDependsOn() {
+        return dependsOn;
+    }
+
+    /**
+     * A relation in compressed sparse row form, read in place.
+     */
+    static class Rows {
+        private final IntBuffer offsets;
+        private final IntBuffer targets;
+
+        Rows(IntBuffer offsets, IntBuffer targets) {
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        int start(int id) {
+            return offsets.get(id);
+        }
+
+        int end(int id) {
+            return offsets.get(id + 1);
+        }
+
+        int get(int k) {
+            return targets.get(k);
+        }
+
+        /**
+         * Returns the targets of every row, one row after the other, copied in bulk.
+         *
+         * @return the targets
+         */
+        int[] getAll() {
+            int[] all = new int[targets.limit()];
+            targets.duplicate().get(all);
+            return all;
+        }
+    }
+}
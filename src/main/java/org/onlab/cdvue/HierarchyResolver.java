@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import com.thoughtworks.qdox.model.JavaAnnotation;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaField;
+import com.thoughtworks.qdox.model.JavaMethod;
+import com.thoughtworks.qdox.model.JavaParameter;
+import com.thoughtworks.qdox.model.JavaType;
+import com.thoughtworks.qdox.model.expression.AnnotationValue;
+import com.thoughtworks.qdox.model.expression.AnnotationValueList;
+import com.thoughtworks.qdox.model.expression.TypeRef;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that resolves what a class inherits from its annotated superclasses: the @Reference types of the
+ * @Component superclass chain, the interfaces of the @Service superclass chain, and the service tag of each class.
+ * <p>
+ * Annotations are told apart by the {@link AnnotationRules} in force, so @Component stands for any annotation with
+ * the component role, @Service for any with the service role, and @Reference for any with the reference role.
+ * </p>
+ * <p>
+ * What superclasses contribute is memoized by their fully qualified name, so a base class shared by many components
+ * is only walked once. Every QDox builder resolves superclasses through the same index, so a name stands for the same
+ * class in all of them, and one resolver can be shared by all parsing threads. The classes being processed may share
+ * a name, since the tree may declare a class twice, so their own service tags are never memoized. Two threads may
+ * occasionally resolve the same class at once; both compute the same immutable result and the first one stored is
+ * kept.
+ * </p>
+ */
+class HierarchyResolver {
+    private final Map<String, List<String>> inheritedReferences = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> inheritedInterfaces = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the types referred to by the @Reference fields and methods declared along the chain of @Component
+     * classes starting at the given superclass, nearest superclass first.
+     *
+     * @param superClass    the superclass of the class being processed, or null
+     * @return unmodifiable list of fully qualified type names; empty if the superclass is not a component
+     */
+    List<String> inheritedReferences(JavaClass superClass) {
+        if (superClass == null || !containsClassAnnotation(superClass, AnnotationRules.Role.COMPONENT))
+            return Collections.emptyList();
+
+        String name = superClass.getFullyQualifiedName();
+        List<String> references = inheritedReferences.get(name);
+        if (references == null) {
+            List<String> resolved = declaredReferences(superClass);
+            resolved.addAll(inheritedReferences(superClass.getSuperJavaClass()));
+            references = putIfAbsent(inheritedReferences, name, resolved);
+        }
+        return references;
+    }
+
+    /**
+     * Returns the interfaces provided along the chain of @Service classes starting at the given superclass. Each
+     * interface of a superclass is followed by that superclass's service tags, if any, and then by everything its
+     * own superclass provides, so the list can hold repeated names.
+     *
+     * @param superClass    the superclass of the class being processed, or null
+     * @return unmodifiable list of fully qualified interface names; empty if the superclass is not a service
+     */
+    List<String> inheritedInterfaces(JavaClass superClass) {
+        if (superClass == null || !containsClassAnnotation(superClass, AnnotationRules.Role.SERVICE))
+            return Collections.emptyList();
+
+        String name = superClass.getFullyQualifiedName();
+        List<String> interfaces = inheritedInterfaces.get(name);
+        if (interfaces == null) {
+            List<JavaClass> implemented = superClass.getImplementedInterfaces();
+            List<String> resolved = new ArrayList<>();
+            if (!implemented.isEmpty()) {
+                List<String> tags = serviceTags(superClass);
+                List<String> inherited = inheritedInterfaces(superClass.getSuperJavaClass());
+                for (JavaClass javaInterface : implemented) {
+                    resolved.add(javaInterface.getFullyQualifiedName());
+                    resolved.addAll(tags);
+                    resolved.addAll(inherited);
+                }
+            }
+            interfaces = putIfAbsent(inheritedInterfaces, name, resolved);
+        }
+        return interfaces;
+    }
+
+    /**
+     * Returns the service types named by the elements of the given class's @Service annotations, such as the value
+     * of a Felix @Service or the service of a Declarative Services @Component, leaving out the class itself. They are
+     * read from the class every time rather than memoized, since classes being processed may share a name. Names are
+     * resolved through the imports of the class rather than taken as written, so they match the referred types.
+     *
+     * @param javaClass     the class
+     * @return list of fully qualified type names, in the order they are named
+     */
+    static List<String> serviceTags(JavaClass javaClass) {
+        String name = javaClass.getFullyQualifiedName();
+        List<String> tags = new ArrayList<>();
+        for (JavaAnnotation ja : javaClass.getAnnotations()) {
+            AnnotationRules.Rule rule = ruleOf(ja, javaClass);
+            if (rule != null && rule.has(AnnotationRules.Role.SERVICE) && rule.getElement() != null) {
+                for (String tag : typeNames(ja.getProperty(rule.getElement()))) {
+                    if (!tag.equals(name) && !tag.equals(javaClass.getName()))
+                        tags.add(tag); //a class may name itself as its service
+                }
+            }
+        }
+        return tags;
+    }
+
+    private static List<String> putIfAbsent(Map<String, List<String>> memo, String name, List<String> resolved) {
+        List<String> result = Collections.unmodifiableList(resolved);
+        List<String> previous = memo.putIfAbsent(name, result);
+        return previous != null ? previous : result;
+    }
+
+    /**
+     * Returns whether the given class carries an annotation with the given role.
+     *
+     * @param javaClass     the class
+     * @param role          the role
+     * @return true if such an annotation is present
+     */
+    static boolean containsClassAnnotation(JavaClass javaClass, AnnotationRules.Role role) {
+        for (JavaAnnotation ja : javaClass.getAnnotations()) {
+            AnnotationRules.Rule rule = ruleOf(ja, javaClass);
+            if (rule != null && rule.has(role))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the types referred to by the @Reference fields and methods the given class declares: the service types
+     * named by the annotation, if it has an element naming them, or else the type of the field, or of the first
+     * parameter of the method.
+     *
+     * @param javaClass     the class
+     * @return list of fully qualified type names, fields first, in declaration order
+     */
+    static List<String> declaredReferences(JavaClass javaClass) {
+        List<String> references = new ArrayList<>();
+        for (JavaField field : javaClass.getFields())
+            addReferences(javaClass, field.getAnnotations(), field.getType(), references);
+        for (JavaMethod method : javaClass.getMethods()) {
+            List<JavaParameter> parameters = method.getParameters();
+            addReferences(javaClass, method.getAnnotations(), parameters.isEmpty() ? null : parameters.get(0).getType(),
+                          references);
+        }
+        return references;
+    }
+
+    private static void addReferences(JavaClass javaClass, List<JavaAnnotation> annotations, JavaType type,
+                                      List<String> references) {
+        for (JavaAnnotation ja : annotations) {
+            AnnotationRules.Rule rule = ruleOf(ja, javaClass);
+            if (rule != null && rule.has(AnnotationRules.Role.REFERENCE)) {
+                List<String> named = rule.getElement() == null ? Collections.emptyList()
+                        : typeNames(ja.getProperty(rule.getElement()));
+                if (!named.isEmpty())
+                    references.addAll(named);
+                else if (type != null)
+                    references.add(type.getFullyQualifiedName());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the rule for the given annotation of the given class or of one of its members. An annotation imported
+     * through a wildcard is only known by its simple name, which is looked up with the imports of the class's source.
+     *
+     * @param ja            the annotation
+     * @param javaClass     the class the annotation is found in
+     * @return the rule, or null if the annotation plays no role
+     */
+    static AnnotationRules.Rule ruleOf(JavaAnnotation ja, JavaClass javaClass) {
+        AnnotationRules rules = AnnotationRules.get();
+        String name = ja.getType().getFullyQualifiedName();
+        AnnotationRules.Rule rule = rules.ofName(name);
+        if (rule == null && name.indexOf('.') < 0) {
+            List<String> imports = javaClass.getSource() == null ? Collections.emptyList()
+                    : javaClass.getSource().getImports();
+            rule = rules.ofSimpleName(name, imports);
+        }
+        return rule;
+    }
+
+    /**
+     * Returns the fully qualified names of the types given by an annotation element, which holds a class literal or
+     * an array of them.
+     */
+    private static List<String> typeNames(AnnotationValue value) {
+        if (value instanceof TypeRef)
+            return Collections.singletonList(((TypeRef) value).getType().getFullyQualifiedName());
+        if (!(value instanceof AnnotationValueList))
+            return Collections.emptyList();
+        List<String> names = new ArrayList<>();
+        for (AnnotationValue element : ((AnnotationValueList) value).getValueList())
+            names.addAll(typeNames(element));
+        return names;
+    }
+}
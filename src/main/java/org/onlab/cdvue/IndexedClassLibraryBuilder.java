@@ -0,0 +1,267 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import com.thoughtworks.qdox.builder.ModelBuilderFactory;
+import com.thoughtworks.qdox.library.AbstractClassLibrary;
+import com.thoughtworks.qdox.library.ClassLibrary;
+import com.thoughtworks.qdox.library.ClassLibraryBuilder;
+import com.thoughtworks.qdox.library.ClassLoaderLibrary;
+import com.thoughtworks.qdox.library.ClassNameLibrary;
+import com.thoughtworks.qdox.library.ErrorHandler;
+import com.thoughtworks.qdox.library.SourceLibrary;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaSource;
+import com.thoughtworks.qdox.writer.ModelWriterFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QDox class library builder which resolves classes from outside of the explicitly added sources through an index of
+ * the fully qualified names of all top-level classes to the files declaring them, rather than by probing every
+ * source folder on each lookup.
+ * The index is only read, so one index can be shared by builders running on different threads. Files are opened
+ * through the source tree, so trees read from a git revision are parsed from memory. Classes missing from the tree
+ * can be looked up in the indexes of other trees, such as the other roots of a federated analysis.
+ */
+@SuppressWarnings("serial") //QDox makes libraries serializable, but these are never serialized
+class IndexedClassLibraryBuilder implements ClassLibraryBuilder {
+    private final ClassNameLibrary classNameLibrary = new ClassNameLibrary();
+    private final ClassLoaderLibrary classLoaderLibrary = new ClassLoaderLibrary(classNameLibrary);
+    private final List<IndexLibrary> indexLibraries = new ArrayList<>(); //the tree's own index last
+    private final TreeLibrary sourceLibrary;
+
+    /**
+     * Constructor for objects of class IndexedClassLibraryBuilder.
+     *
+     * @param tree      the scanned tree, whose class index maps fully qualified top-level class names to files
+     */
+    IndexedClassLibraryBuilder(SourceTree tree) {
+        this(tree, Collections.emptyList());
+    }
+
+    /**
+     * Constructor for objects of class IndexedClassLibraryBuilder.
+     *
+     * @param tree      the scanned tree, whose class index maps fully qualified top-level class names to files
+     * @param libraries other scanned trees, looked up in order for classes the tree does not declare
+     */
+    IndexedClassLibraryBuilder(SourceTree tree, List<SourceTree> libraries) {
+        classLoaderLibrary.addDefaultLoader();
+        //each library asks its parent only after its own index, so the first tree of the chain is looked up first
+        AbstractClassLibrary parent = classLoaderLibrary;
+        for (int i = libraries.size() - 1; i >= 0; i--)
+            parent = addIndexLibrary(parent, libraries.get(i));
+        sourceLibrary = new TreeLibrary(addIndexLibrary(parent, tree), tree);
+    }
+
+    private IndexLibrary addIndexLibrary(AbstractClassLibrary parent, SourceTree tree) {
+        IndexLibrary library = new IndexLibrary(parent, tree);
+        indexLibraries.add(library);
+        return library;
+    }
+
+    @Override
+    public ClassLibraryBuilder appendClassLoader(ClassLoader classLoader) {
+        classLoaderLibrary.addClassLoader(classLoader);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder appendDefaultClassLoaders() {
+        classLoaderLibrary.addDefaultLoader();
+        return this;
+    }
+
+    /**
+     * Does nothing: every class of the tree, whichever folder it is in, is already resolved through the index, which
+     * is never probed folder by folder.
+     *
+     * @param sourceFolder  the source folder, which is ignored
+     * @return this builder
+     */
+    @Override
+    public ClassLibraryBuilder appendSourceFolder(File sourceFolder) {
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder appendSource(InputStream stream) throws IOException {
+        sourceLibrary.addSource(stream);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder appendSource(Reader reader) {
+        sourceLibrary.addSource(reader);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder appendSource(URL url) throws IOException {
+        sourceLibrary.addSource(url);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder appendSource(File file) throws IOException {
+        sourceLibrary.addSource(file);
+        return this;
+    }
+
+    @Override
+    public JavaSource addSource(InputStream stream) throws IOException {
+        return sourceLibrary.addSource(stream);
+    }
+
+    @Override
+    public JavaSource addSource(Reader reader) {
+        return sourceLibrary.addSource(reader);
+    }
+
+    @Override
+    public JavaSource addSource(URL url) throws IOException {
+        return sourceLibrary.addSource(url);
+    }
+
+    @Override
+    public JavaSource addSource(File file) throws IOException {
+        return sourceLibrary.addSource(file);
+    }
+
+    @Override
+    public ClassLibraryBuilder setDebugLexer(boolean debugLexer) {
+        classLoaderLibrary.setDebugLexer(debugLexer);
+        indexLibraries.forEach(library -> library.setDebugLexer(debugLexer));
+        sourceLibrary.setDebugLexer(debugLexer);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder setDebugParser(boolean debugParser) {
+        classLoaderLibrary.setDebugParser(debugParser);
+        indexLibraries.forEach(library -> library.setDebugParser(debugParser));
+        sourceLibrary.setDebugParser(debugParser);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder setEncoding(String encoding) {
+        indexLibraries.forEach(library -> library.setEncoding(encoding));
+        sourceLibrary.setEncoding(encoding);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder setModelBuilderFactory(ModelBuilderFactory factory) {
+        classNameLibrary.setModelBuilderFactory(factory);
+        classLoaderLibrary.setModelBuilderFactory(factory);
+        indexLibraries.forEach(library -> library.setModelBuilderFactory(factory));
+        sourceLibrary.setModelBuilderFactory(factory);
+        return this;
+    }
+
+    @Override
+    public ClassLibraryBuilder setModelWriterFactory(ModelWriterFactory factory) {
+        classNameLibrary.setModelWriterFactory(factory);
+        classLoaderLibrary.setModelWriterFactory(factory);
+        indexLibraries.forEach(library -> library.setModelWriterFactory(factory));
+        sourceLibrary.setModelWriterFactory(factory);
+        return this;
+    }
+
+    @Override
+    public ClassLibrary getClassLibrary() {
+        return sourceLibrary;
+    }
+
+    @Override
+    public ClassLibraryBuilder setErrorHander(ErrorHandler errorHandler) {
+        classLoaderLibrary.setErrorHandler(errorHandler);
+        indexLibraries.forEach(library -> library.setErrorHandler(errorHandler));
+        sourceLibrary.setErrorHandler(errorHandler);
+        return this;
+    }
+
+    /**
+     * Source library which lazily parses the file an indexed class is declared in.
+     */
+    private static class IndexLibrary extends SourceLibrary {
+        private final SourceTree tree;
+        private final Map<String, File> index;
+
+        IndexLibrary(AbstractClassLibrary parent, SourceTree tree) {
+            super(parent);
+            this.tree = tree;
+            this.index = tree.getClassIndex();
+        }
+
+        @Override
+        protected JavaClass resolveJavaClass(String className) {
+            File file = index.get(topLevelName(className));
+            if (file == null)
+                return null;
+            try {
+                JavaSource source = parse(tree.open(file), file.toURI().toURL());
+                return source == null ? null : source.getClassByName(className);
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected boolean containsClassReference(String className) {
+            return index.containsKey(topLevelName(className));
+        }
+
+        private static String topLevelName(String className) {
+            int i = className.indexOf('$');
+            return i < 0 ? className : className.substring(0, i);
+        }
+    }
+
+    /**
+     * Source library for the explicitly added sources, which reads the files of in-memory trees through the tree.
+     */
+    private static class TreeLibrary extends SourceLibrary {
+        private final SourceTree tree;
+
+        TreeLibrary(AbstractClassLibrary parent, SourceTree tree) {
+            super(parent);
+            this.tree = tree;
+        }
+
+        @Override
+        public JavaSource addSource(File file) throws IOException {
+            if (!tree.isInMemory())
+                return super.addSource(file);
+            JavaSource source = parse(tree.open(file), file.toURI().toURL());
+            if (source != null)
+                registerJavaSource(source);
+            return source;
+        }
+    }
+}
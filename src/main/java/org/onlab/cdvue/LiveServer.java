@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that serves the viewer page from a local HTTP server and pushes the changes to the catalog to every open page
+ * as server-sent events.
+ * <p>
+ * Each published catalog gets the next version number. A page is written with the version of the catalog it shows
+ * and subscribes to the changes after it; a page which fell behind, for example because it reconnected after missing
+ * some changes, is sent the whole catalog instead.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class LiveServer {
+    private static final int MAX_PENDING_EVENTS = 64;
+
+    private final HttpServer server;
+    private final PageWriter pageWriter = new PageWriter();
+    private final String title;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructor for objects of class LiveServer; binds the server to the loopback address.
+     *
+     * @param port      the port to listen on
+     * @param title     the title of the page
+     * @param catalog   the initial catalog
+     * @throws IOException if the server could not be bound
+     */
+    LiveServer(int port, String title, JSONArray catalog) throws IOException {
+        this.title = title;
+        snapshot = new Snapshot(0, catalog);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::servePage);
+        server.createContext("/events", this::subscribe);
+    }
+
+    /**
+     * Answers queries sent to /query?q=... with the given processor.
+     *
+     * @param queries   the query processor
+     */
+    void addQueries(QueryProcessor queries) {
+        server.createContext("/query", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            query = query != null && query.startsWith("q=") ? URLDecoder.decode(query.substring(2), "UTF-8") : "";
+            byte[] answer = queries.query(query).toJSONString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, answer.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(answer);
+            }
+        });
+    }
+
+    /**
+     * Starts serving in the background.
+     */
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the address of the viewer page.
+     *
+     * @return the url
+     */
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Makes the given catalog the current one and sends the given changes to every open page.
+     *
+     * @param catalog   the new catalog
+     * @param delta     the changes from the previous catalog, as made by {@link CatalogBuilder#diff}
+     */
+    void publish(JSONArray catalog, JSONObject delta) {
+        Snapshot next = new Snapshot(snapshot.version + 1, catalog);
+        snapshot = next;
+        delta.put("version", next.version);
+        String event = delta.toJSONString();
+        clients.forEach(client -> client.send(event));
+    }
+
+    private void servePage(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        Snapshot current = snapshot;
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            pageWriter.writeLive(title, current.catalog, current.version, writer);
+        }
+    }
+
+    /**
+     * Keeps the response open as an event stream; the exchange is only closed once writing to it fails.
+     */
+    private void subscribe(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Client client = new Client(exchange);
+        clients.add(client); //added first, so that no change published from here on is missed
+
+        Snapshot current = snapshot;
+        if (since(exchange) != current.version) {
+            JSONObject reset = new JSONObject();
+            reset.put("reset", true);
+            reset.put("updated", current.catalog);
+            reset.put("removed", new JSONArray());
+            reset.put("version", current.version);
+            client.send(reset.toJSONString());
+        }
+        else
+            client.send(null);
+        println("Viewer connected; " + clients.size() + " open.");
+    }
+
+    private static long since(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null && query.startsWith("since=")) {
+            try {
+                return Long.parseLong(query.substring("since=".length()));
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A catalog together with its version.
+     */
+    private static class Snapshot {
+        private final long version;
+        private final JSONArray catalog;
+
+        Snapshot(long version, JSONArray catalog) {
+            this.version = version;
+            this.catalog = catalog;
+        }
+    }
+
+    /**
+     * An open event stream. Events are queued and written by a thread of its own, so that a page which stops reading
+     * never holds up the watcher publishing the changes; a page which falls too far behind is dropped, and catches up
+     * with the whole catalog when it reconnects.
+     */
+    private class Client {
+        private final HttpExchange exchange;
+        private final OutputStream stream;
+        private final BlockingQueue<String> events = new ArrayBlockingQueue<>(MAX_PENDING_EVENTS);
+        private final Thread writer;
+
+        Client(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.stream = exchange.getResponseBody();
+            writer = new Thread(this::write, "cdvue-events");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /**
+         * Queues the given data as one event, or just a comment to flush the headers if there is none.
+         */
+        void send(String data) {
+            if (!events.offer(data == null ? ":\n\n" : "data: " + data + "\n\n")) {
+                writer.interrupt();
+                disconnect("fell behind");
+            }
+        }
+
+        private void write() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    stream.write(events.take().getBytes(StandardCharsets.UTF_8));
+                    stream.flush();
+                }
+            }
+            catch (IOException e) {
+                disconnect("disconnected");
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                exchange.close();
+            }
+        }
+
+        private void disconnect(String reason) {
+            if (clients.remove(this))
+                println("Viewer " + reason + "; " + clients.size() + " open.");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class that writes the viewer page. The page template is split at its placeholders once, and the template parts,
+ * the d3 library, the catalog and its layout are then streamed one after another to a buffered writer, so that the
+ * page is never assembled as a whole in memory.
+ */
+class PageWriter {
+    private static final String TITLE_PLACEHOLDER = "TITLE_PLACEHOLDER";
+    private static final String DATA_PLACEHOLDER = "DATA_PLACEHOLDER";
+    private static final String D3JS_PLACEHOLDER = "D3JS_PLACEHOLDER";
+    private static final String LIVE_PLACEHOLDER = "LIVE_PLACEHOLDER";
+    private static final String LAYOUT_PLACEHOLDER = "LAYOUT_PLACEHOLDER";
+    private static final String CHUNKED_PLACEHOLDER = "CHUNKED_PLACEHOLDER";
+    private static final String[] PLACEHOLDERS = {TITLE_PLACEHOLDER, D3JS_PLACEHOLDER, DATA_PLACEHOLDER, LIVE_PLACEHOLDER,
+                                                  LAYOUT_PLACEHOLDER, CHUNKED_PLACEHOLDER};
+    private static final String TEMPLATE = "index.html";
+    static final String D3JS = "d3.v3.min.js";
+
+    private final List<String> literals = new ArrayList<>(); //the template text preceding each placeholder, and the tail
+    private final List<String> placeholders = new ArrayList<>(); //the placeholders in the order they appear
+
+    /**
+     * Constructor for objects of class PageWriter; loads and splits the page template.
+     *
+     * @throws IOException if the template could not be read
+     */
+    PageWriter() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = open(TEMPLATE)) {
+            copyLines(br, sb);
+        }
+        String template = sb.toString();
+
+        int start = 0;
+        while (true) {
+            int next = -1;
+            String placeholder = null;
+            for (String p : PLACEHOLDERS) {
+                int i = template.indexOf(p, start);
+                if (i >= 0 && (next < 0 || i < next)) {
+                    next = i;
+                    placeholder = p;
+                }
+            }
+            if (placeholder == null)
+                break;
+            literals.add(template.substring(start, next));
+            placeholders.add(placeholder);
+            start = next + placeholder.length();
+        }
+        literals.add(template.substring(start));
+    }
+
+    /**
+     * Writes the page for the given catalog to the given file.
+     *
+     * @param title     the title of the page
+     * @param catalog   the catalog of graph nodes
+     * @param layout    the layout of the catalog, as made by {@link GraphLayout#build}, or null to lay it out in the page
+     * @param output    the file to write
+     * @throws IOException if the page could not be written
+     */
+    void write(String title, JSONArray catalog, JSONObject layout, File output) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            write(title, catalog, layout, writer);
+        }
+    }
+
+    /**
+     * Writes the page for the given catalog to the given writer.
+     *
+     * @param title     the title of the page
+     * @param catalog   the catalog of graph nodes
+     * @param layout    the layout of the catalog, as made by {@link GraphLayout#build}, or null to lay it out in the page
+     * @param writer    the writer to write to
+     * @throws IOException if the page could not be written
+     */
+    void write(String title, JSONArray catalog, JSONObject layout, Writer writer) throws IOException {
+        write(title, catalog, layout, "null", false, writer);
+    }
+
+    /**
+     * Writes the index page of a graph written in chunks to the given file. The page loads the d3 library from the
+     * directory it is in, and shows the given summaries of the packages until they are expanded.
+     *
+     * @param title     the title of the page
+     * @param packages  the summaries of the packages, as made by {@link ChunkWriter}
+     * @param output    the file to write
+     * @throws IOException if the page could not be written
+     */
+    void writeIndex(String title, JSONArray packages, File output) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            write(title, packages, null, "null", true, writer);
+        }
+    }
+
+    /**
+     * Writes the d3 library to the given file, for index pages to load.
+     *
+     * @param output    the file to write
+     * @throws IOException if the library could not be written
+     */
+    void writeD3(File output) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8);
+             BufferedReader br = open(D3JS)) {
+            copyLines(br, writer);
+        }
+    }
+
+    /**
+     * Writes the page for the given version of a live catalog to the given writer. The page subscribes to the
+     * server it was loaded from for the changes made after that version, and lays the catalog out itself, as it
+     * changes.
+     *
+     * @param title     the title of the page
+     * @param catalog   the catalog of graph nodes
+     * @param version   the version of the catalog
+     * @param writer    the writer to write to
+     * @throws IOException if the page could not be written
+     */
+    void writeLive(String title, JSONArray catalog, long version, Writer writer) throws IOException {
+        write(title, catalog, null, Long.toString(version), false, writer);
+    }
+
+    private void write(String title, JSONArray catalog, JSONObject layout, String live, boolean chunked,
+                       Writer writer) throws IOException {
+        for (int i = 0; i < placeholders.size(); i++) {
+            writer.write(literals.get(i));
+            switch (placeholders.get(i)) {
+                case TITLE_PLACEHOLDER:
+                    writer.write(title);
+                    break;
+                case D3JS_PLACEHOLDER:
+                    if (chunked) {
+                        writer.write("<script src=\"" + D3JS + "\"></script>");
+                        break;
+                    }
+                    writer.write("<script>" + System.lineSeparator());
+                    try (BufferedReader br = open(D3JS)) {
+                        copyLines(br, writer);
+                    }
+                    writer.write("</script>");
+                    break;
+                case LIVE_PLACEHOLDER:
+                    writer.write(live);
+                    break;
+                case CHUNKED_PLACEHOLDER:
+                    writer.write(Boolean.toString(chunked));
+                    break;
+                case LAYOUT_PLACEHOLDER:
+                    if (layout == null)
+                        writer.write("null");
+                    else
+                        layout.writeJSONString(writer);
+                    break;
+                default:
+                    catalog.writeJSONString(writer);
+                    break;
+            }
+        }
+        writer.write(literals.get(literals.size() - 1));
+    }
+
+    private BufferedReader open(String resource) throws IOException {
+        InputStream stream = getClass().getResourceAsStream("/" + resource);
+        if (stream == null)
+            throw new IOException("Missing resource " + resource);
+        return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copies the lines read from the given reader, ending each with the platform line separator.
+     */
+    private static void copyLines(BufferedReader br, Appendable out) throws IOException {
+        String line;
+        while ((line = br.readLine()) != null) {
+            out.append(line).append(System.lineSeparator());
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Class that answers dependency queries against a component graph, typed one per line on the console or sent to the
+ * server. A query names a command followed by components or services, given by their full or simple names:
+ * <pre>
+ *   dependents NAME            components which directly depend on NAME
+ *   dependencies NAME          components NAME directly depends on
+ *   all-dependents NAME        components which depend on NAME, directly or transitively, with their distance
+ *   all-dependencies NAME      components NAME depends on, directly or transitively, with their distance
+ *   path FROM TO               a shortest chain of dependencies from FROM to TO
+ *   impact NAME...             services left without a provider and components broken if the NAMEs are removed
+ * </pre>
+ * Answers come back as JSON objects holding the names found as "results"; transitive queries add the distance of
+ * each name as "distances". The console prints them one per line.
+ */
+@SuppressWarnings("unchecked")
+class QueryProcessor {
+    private static final String HELP = "Commands: dependents NAME, dependencies NAME, all-dependents NAME, "
+            + "all-dependencies NAME, path FROM TO, impact NAME..., help, quit";
+
+    private volatile ComponentGraph graph;
+
+    /**
+     * Constructor for objects of class QueryProcessor.
+     *
+     * @param graph     the graph to query
+     */
+    QueryProcessor(ComponentGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Replaces the graph queries are answered from.
+     *
+     * @param graph     the new graph
+     */
+    void setGraph(ComponentGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Answers the given query.
+     *
+     * @param query     the query line
+     * @return object holding the query and either its results and the time it took, or an error
+     */
+    JSONObject query(String query) {
+        ComponentGraph g = graph;
+        JSONObject answer = new JSONObject();
+        answer.put("query", query);
+        String[] words = query.trim().split("\\s+");
+        long start = System.nanoTime();
+        try {
+            switch (words[0]) {
+                case "dependents":
+                case "dependencies":
+                    expectArguments(words, 1);
+                    answer.put("results", direct(g, resolve(g, words[1]), words[0].equals("dependencies")));
+                    break;
+                case "all-dependents":
+                case "all-dependencies":
+                    expectArguments(words, 1);
+                    transitive(g, resolve(g, words[1]), words[0].equals("all-dependencies"), answer);
+                    break;
+                case "path":
+                    expectArguments(words, 2);
+                    answer.put("results", names(g, g.path(resolve(g, words[1]).nodes(g), resolve(g, words[2]).nodes(g))));
+                    break;
+                case "impact":
+                    if (words.length < 2)
+                        throw new IllegalArgumentException("Expected at least one name");
+                    answer.put("results", impact(g, Arrays.copyOfRange(words, 1, words.length)));
+                    break;
+                default:
+                    throw new IllegalArgumentException(HELP);
+            }
+            answer.put("micros", (System.nanoTime() - start) / 1000.0);
+        }
+        catch (IllegalArgumentException e) {
+            answer.put("error", e.getMessage());
+        }
+        return answer;
+    }
+
+    private static void expectArguments(String[] words, int count) {
+        if (words.length != count + 1)
+            throw new IllegalArgumentException("Expected " + count + (count == 1 ? " name" : " names"));
+    }
+
+    private static JSONArray direct(ComponentGraph g, Target target, boolean dependencies) {
+        if (target.service >= 0)
+            return names(g, dependencies ? g.providersOf(target.service) : g.referrersOf(target.service));
+        return names(g, dependencies ? g.dependenciesOf(target.node) : g.dependentsOf(target.node));
+    }
+
+    /**
+     * Lists what a node or service reaches; for a service, the first step leads to its referrers or providers.
+     */
+    private static void transitive(ComponentGraph g, Target target, boolean dependencies, JSONObject answer) {
+        JSONArray results = new JSONArray();
+        JSONArray distances = new JSONArray();
+        int[] starts;
+        int offset = 0;
+        if (target.service >= 0) {
+            starts = dependencies ? g.providersOf(target.service) : g.referrersOf(target.service);
+            offset = 1;
+            for (int node : starts) {
+                results.add(g.getNodeName(node));
+                distances.add(1);
+            }
+        }
+        else
+            starts = new int[]{target.node};
+
+        int[][] reached = g.reach(starts, dependencies);
+        for (int i = 0; i < reached[0].length; i++) {
+            results.add(g.getNodeName(reached[0][i]));
+            distances.add(reached[1][i] + offset);
+        }
+        answer.put("results", results);
+        answer.put("distances", distances);
+    }
+
+    private static JSONObject impact(ComponentGraph g, String[] names) {
+        int[] nodes = new int[names.length];
+        int[] services = new int[names.length];
+        int nodeCount = 0;
+        int serviceCount = 0;
+        for (String name : names) {
+            Target target = resolve(g, name);
+            if (target.service >= 0)
+                services[serviceCount++] = target.service;
+            else
+                nodes[nodeCount++] = target.node;
+        }
+
+        int[][] impact = g.impact(Arrays.copyOf(nodes, nodeCount), Arrays.copyOf(services, serviceCount));
+        JSONArray orphaned = new JSONArray();
+        for (int service : impact[0])
+            orphaned.add(g.getServiceName(service));
+        JSONArray broken = new JSONArray();
+        JSONArray rounds = new JSONArray();
+        for (int i = 0; i < impact[1].length; i++) {
+            broken.add(g.getNodeName(impact[1][i]));
+            rounds.add(impact[2][i]);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("orphanedServices", orphaned);
+        result.put("brokenComponents", broken);
+        result.put("rounds", rounds);
+        return result;
+    }
+
+    private static JSONArray names(ComponentGraph g, int[] nodes) {
+        JSONArray names = new JSONArray();
+        for (int node : nodes)
+            names.add(g.getNodeName(node));
+        return names;
+    }
+
+    /**
+     * Resolves a name to a node, or to a service; full names are tried first, then simple names if they are unique.
+     */
+    private static Target resolve(ComponentGraph g, String name) {
+        int node = g.getNodeId(name);
+        if (node >= 0)
+            return new Target(node, -1);
+        int service = g.getServiceId(name);
+        if (service >= 0)
+            return new Target(-1, service);
+
+        List<String> candidates = g.getFullNames(name).stream().distinct().collect(Collectors.toList());
+        if (candidates.size() == 1)
+            return resolve(g, candidates.get(0));
+        if (candidates.isEmpty())
+            throw new IllegalArgumentException("No component or service named " + name);
+        throw new IllegalArgumentException(name + " is ambiguous: " + String.join(", ", candidates));
+    }
+
+    /**
+     * A resolved name: either a node, or a service.
+     */
+    private static class Target {
+        private final int node;
+        private final int service;
+
+        Target(int node, int service) {
+            this.node = node;
+            this.service = service;
+        }
+
+        /**
+         * Returns the node itself, or the nodes providing the service.
+         */
+        int[] nodes(ComponentGraph g) {
+            return service >= 0 ? g.providersOf(service) : new int[]{node};
+        }
+    }
+
+    /**
+     * Reads queries from the given reader and prints their answers until the input ends or "quit" is read.
+     *
+     * @param in        the reader to read queries from
+     * @param out       the stream to print answers to
+     * @throws IOException if the input could not be read
+     */
+    void run(BufferedReader in, PrintStream out) throws IOException {
+        ComponentGraph g = graph;
+        out.println("Loaded " + g.getNodeCount() + " nodes and " + g.getEdgeCount() + " dependencies. " + HELP);
+        String line;
+        while ((line = in.readLine()) != null && !line.trim().equals("quit")) {
+            if (line.trim().isEmpty())
+                continue;
+            if (line.trim().equals("help")) {
+                out.println(HELP);
+                continue;
+            }
+            print(query(line), out);
+        }
+    }
+
+    private static void print(JSONObject answer, PrintStream out) {
+        if (answer.containsKey("error")) {
+            out.println(answer.get("error"));
+            return;
+        }
+        Object results = answer.get("results");
+        int count;
+        if (results instanceof JSONObject) {
+            JSONArray orphaned = (JSONArray) ((JSONObject) results).get("orphanedServices");
+            JSONArray broken = (JSONArray) ((JSONObject) results).get("brokenComponents");
+            out.println("Services left without a provider:");
+            orphaned.forEach(service -> out.println("  " + service));
+            out.println("Components broken, by round:");
+            print(broken, (JSONArray) ((JSONObject) results).get("rounds"), out);
+            count = orphaned.size() + broken.size();
+        }
+        else {
+            print((JSONArray) results, (JSONArray) answer.get("distances"), out);
+            count = ((JSONArray) results).size();
+        }
+        out.println(String.format("(%d results in %.1f us)", count, (double) answer.get("micros")));
+    }
+
+    private static void print(JSONArray names, JSONArray numbers, PrintStream out) {
+        for (int i = 0; i < names.size(); i++) {
+            if (numbers == null)
+                out.println("  " + names.get(i));
+            else
+                out.println(String.format("  %3d %s", ((Number) numbers.get(i)).intValue(), names.get(i)));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that records where the time of a run goes: the wall and CPU time of each phase, counters of what was found,
+ * the bytes written and the peak heap, and writes them as a JSON report.
+ * <p>
+ * Phases are timed around whole steps, or whole work units when they run on the fork-join pool, never around single
+ * classes, so keeping the metrics costs next to nothing. Times of work units are added up over the threads running
+ * them, so the wall time of a parallel phase may exceed the wall time of the run.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class RunMetrics {
+    /**
+     * The phases of a run, named as in the report.
+     */
+    enum Phase {
+        SCAN("scan"), //walking the tree and pre-scanning files, or finding jars and class files
+        PARSE("parse"), //building the QDox model of source files, or reading class files
+        EXTRACT("extract"), //compiling the facts of each class
+        POPULATE_MAPS("populateMaps"), //filling the maps of the graph handler with the facts
+        LINK("link"), //building the catalog and the component graph, analyzing it and laying the page out
+        EMIT("emit"); //writing the page, the report and the snapshot
+
+        private final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The counters of a run, named as in the report.
+     */
+    enum Counter {
+        FILES("files"), //source files, jars or class files found
+        PARSED_FILES("parsedFiles"), //source files handed to QDox
+        CACHED_FILES("cachedFiles"), //source files whose facts were cached
+        CLASSES("classes"),
+        COMPONENTS("components"),
+        SERVICES("services"), //service interfaces, provided or referred to
+        REFERENCES("references"), //services referred to, summed over the components
+        GHOST_NODES("ghostNodes"),
+        DEPENDENCIES("dependencies"),
+        SPILLED_BYTES("spilledBytes"), //estimated heap of the facts spilled to disk to stay within the budget
+        BYTES_WRITTEN("bytesWritten");
+
+        private final String name;
+
+        Counter(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long start = System.nanoTime();
+    private final AtomicLongArray wallNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray cpuNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * Runs the given step on the current thread and adds the time it takes to the given phase.
+     *
+     * @param phase     the phase
+     * @param step      the step
+     * @param <T>       the type of the result of the step
+     * @param <E>       the type of the exception the step may throw
+     * @return the result of the step
+     * @throws E if the step failed; its time is recorded all the same
+     */
+    <T, E extends Exception> T time(Phase phase, Step<T, E> step) throws E {
+        long wallStart = System.nanoTime();
+        long cpuStart = threadCpuNanos();
+        try {
+            return step.run();
+        }
+        finally {
+            wallNanos.addAndGet(phase.ordinal(), System.nanoTime() - wallStart);
+            cpuNanos.addAndGet(phase.ordinal(), threadCpuNanos() - cpuStart);
+        }
+    }
+
+    /**
+     * Runs the given task on the current thread and adds the time it takes to the given phase.
+     *
+     * @param phase     the phase
+     * @param task      the task
+     * @param <E>       the type of the exception the task may throw
+     * @throws E if the task failed; its time is recorded all the same
+     */
+    <E extends Exception> void time(Phase phase, Task<E> task) throws E {
+        time(phase, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Adds the given amount to the given counter.
+     *
+     * @param counter   the counter
+     * @param amount    the amount to add
+     */
+    void count(Counter counter, long amount) {
+        counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    /**
+     * Sets the given counter, for counts taken from a finished result rather than added up.
+     *
+     * @param counter   the counter
+     * @param value     the value
+     */
+    void set(Counter counter, long value) {
+        counters.set(counter.ordinal(), value);
+    }
+
+    /**
+     * Counts the size of the given file, which was just written, as bytes written.
+     *
+     * @param file      the file
+     */
+    void written(File file) {
+        count(Counter.BYTES_WRITTEN, file.length());
+    }
+
+    long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    long getWallNanos(Phase phase) {
+        return wallNanos.get(phase.ordinal());
+    }
+
+    long getCpuNanos(Phase phase) {
+        return cpuNanos.get(phase.ordinal());
+    }
+
+    /**
+     * Returns the peak heap use so far, as the sum of the peaks of the heap memory pools.
+     *
+     * @return bytes
+     */
+    static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * Writes the report to the given file.
+     *
+     * @param file      the file to write
+     * @throws IOException if the file could not be written
+     */
+    void write(File file) throws IOException {
+        JSONObject phases = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            JSONObject times = new JSONObject();
+            times.put("wallMillis", millis(getWallNanos(phase)));
+            times.put("cpuMillis", millis(getCpuNanos(phase)));
+            phases.put(phase.name, times);
+            println(() -> "Phase " + phase.name + ": " + millis(getWallNanos(phase)) + " ms wall, "
+                    + millis(getCpuNanos(phase)) + " ms CPU.");
+        }
+        JSONObject counts = new JSONObject();
+        for (Counter counter : Counter.values())
+            counts.put(counter.name, get(counter));
+
+        JSONObject report = new JSONObject();
+        report.put("wallMillis", millis(System.nanoTime() - start));
+        long cpu = processCpuNanos();
+        if (cpu >= 0)
+            report.put("cpuMillis", millis(cpu));
+        report.put("peakHeapBytes", getPeakHeap());
+        report.put("phases", phases);
+        report.put("counters", counts);
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            report.writeJSONString(writer);
+        }
+    }
+
+    /**
+     * Returns the CPU time of the whole process, if the JVM tells it.
+     *
+     * @return nanoseconds, or -1 if unknown
+     */
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    private static long threadCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * A step of a run which computes a result.
+     */
+    interface Step<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * A step of a run which computes nothing.
+     */
+    interface Task<E extends Exception> {
+        void run() throws E;
+    }
+}
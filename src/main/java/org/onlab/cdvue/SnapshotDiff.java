@@ -0,0 +1,422 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+
+/**
+ * Class that compares two snapshots of a graph: the components added, removed and changed, the references, provided
+ * services and dependencies they gained or lost, the services left without any component implementing them, and the
+ * dependency cycles which appeared or were broken.
+ * <p>
+ * Components, services and the relations of each component are sorted in both snapshots, and nodes of the component
+ * graphs rebuilt from them are sorted as well, components ahead of ghost nodes. The comparison is therefore a single
+ * merge of the two node sequences, which merges the rows of every node present in both along the way, and takes time
+ * linear in the size of the snapshots.
+ * </p>
+ * <p>
+ * Cycles are compared by their members: a cycle is new if none of its members were part of a cycle before, and
+ * broken if none of its members are part of a cycle any more. Components which joined or left a cycle which is
+ * otherwise still there are listed on their own.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+class SnapshotDiff {
+    private static final String ADDED = "added";
+    private static final String REMOVED = "removed";
+    private static final String CHANGED = "changed";
+
+    private final GraphSnapshot before;
+    private final GraphSnapshot after;
+    private final ComponentGraph beforeGraph;
+    private final ComponentGraph afterGraph;
+    private final GraphAnalysis beforeAnalysis;
+    private final GraphAnalysis afterAnalysis;
+    private final int[] beforeNodes; //name ids of the earlier snapshot to component nodes, or -1
+    private final int[] afterNodes;
+
+    private final List<NodeChange> changes = new ArrayList<>(); //changed components, in name order
+    private final List<String> ghostsAdded = new ArrayList<>(); //services which became unresolved
+    private final List<String> ghostsRemoved = new ArrayList<>();
+    private final boolean[] joinedCycle; //nodes of the later graph which were not part of a cycle before
+    private final boolean[] leftCycle; //nodes of the earlier graph which are not part of a cycle any more
+    private final List<List<String>> cyclesAdded = new ArrayList<>();
+    private final List<List<String>> cyclesRemoved = new ArrayList<>();
+    private final List<String> componentsJoiningCycles = new ArrayList<>();
+    private final List<String> componentsLeavingCycles = new ArrayList<>();
+    private int componentsAdded;
+    private int componentsRemoved;
+    private int referencesAdded;
+    private int referencesRemoved;
+    private int providesAdded;
+    private int providesRemoved;
+    private int dependenciesAdded;
+    private int dependenciesRemoved;
+
+    /**
+     * Constructor for objects of class SnapshotDiff; compares the snapshots.
+     *
+     * @param before    the earlier snapshot
+     * @param after     the later snapshot
+     */
+    SnapshotDiff(GraphSnapshot before, GraphSnapshot after) {
+        this.before = before;
+        this.after = after;
+        beforeGraph = new ComponentGraph(before);
+        afterGraph = new ComponentGraph(after);
+        beforeAnalysis = new GraphAnalysis(beforeGraph);
+        afterAnalysis = new GraphAnalysis(afterGraph);
+        beforeNodes = componentNodes(before);
+        afterNodes = componentNodes(after);
+        joinedCycle = new boolean[afterGraph.getNodeCount()];
+        leftCycle = new boolean[beforeGraph.getNodeCount()];
+
+        int i = 0;
+        int j = 0;
+        int m = before.getNameCount();
+        int n = after.getNameCount();
+        while (i < m || j < n) {
+            int order = i == m ? 1 : j == n ? -1 : before.getName(i).compareTo(after.getName(j));
+            if (order < 0)
+                compareClass(i++, -1);
+            else if (order > 0)
+                compareClass(-1, j++);
+            else
+                compareClass(i++, j++);
+        }
+        compareCycles();
+    }
+
+    /**
+     * Returns the node each component of the given snapshot is in the graph loaded from it, which numbers the
+     * components in name order.
+     */
+    private static int[] componentNodes(GraphSnapshot snapshot) {
+        int[] nodes = new int[snapshot.getNameCount()];
+        int node = 0;
+        for (int id = 0; id < nodes.length; id++)
+            nodes[id] = (snapshot.getFlags(id) & GraphSnapshot.COMPONENT) != 0 ? node++ : -1;
+        return nodes;
+    }
+
+    /**
+     * Compares the class of the earlier snapshot with the same class of the later snapshot, either of which may be
+     * -1 when the class is only part of one of them.
+     */
+    private void compareClass(int i, int j) {
+        int flagsBefore = i < 0 ? 0 : before.getFlags(i);
+        int flagsAfter = j < 0 ? 0 : after.getFlags(j);
+        boolean unresolvedBefore = (flagsBefore & GraphSnapshot.UNRESOLVED) != 0;
+        boolean unresolvedAfter = (flagsAfter & GraphSnapshot.UNRESOLVED) != 0;
+        if (unresolvedAfter && !unresolvedBefore)
+            ghostsAdded.add(after.getName(j));
+        else if (unresolvedBefore && !unresolvedAfter)
+            ghostsRemoved.add(before.getName(i));
+
+        boolean componentBefore = (flagsBefore & GraphSnapshot.COMPONENT) != 0;
+        boolean componentAfter = (flagsAfter & GraphSnapshot.COMPONENT) != 0;
+        if (componentBefore || componentAfter)
+            compareComponent(componentBefore ? i : -1, componentAfter ? j : -1);
+    }
+
+    private void compareComponent(int i, int j) {
+        boolean cyclicBefore = i >= 0 && beforeAnalysis.getCycleOf(beforeNodes[i]) >= 0;
+        boolean cyclicAfter = j >= 0 && afterAnalysis.getCycleOf(afterNodes[j]) >= 0;
+        if (cyclicBefore && !cyclicAfter)
+            leftCycle[beforeNodes[i]] = true;
+        else if (cyclicAfter && !cyclicBefore)
+            joinedCycle[afterNodes[j]] = true;
+
+        NodeChange change = new NodeChange(i < 0 ? after.getName(j) : before.getName(i),
+                                           i < 0 ? ADDED : j < 0 ? REMOVED : CHANGED);
+        IntBinaryOperator byName = (a, b) -> before.getName(a).compareTo(after.getName(b));
+        merge(before.getReferences(), i, after.getReferences(), j, byName,
+              a -> change.referencesRemoved.add(before.getName(a)), b -> change.referencesAdded.add(after.getName(b)));
+        merge(before.getProvides(), i, after.getProvides(), j, byName,
+              a -> change.providesRemoved.add(before.getName(a)), b -> change.providesAdded.add(after.getName(b)));
+        merge(before.getDependsOn(), i, after.getDependsOn(), j, this::compareDependencies,
+              a -> change.dependsOnRemoved.add(nodeName(before, a)), b -> change.dependsOnAdded.add(nodeName(after, b)));
+
+        if (change.status.equals(CHANGED) && change.isEmpty())
+            return;
+        changes.add(change);
+        if (change.status.equals(ADDED))
+            componentsAdded++;
+        else if (change.status.equals(REMOVED))
+            componentsRemoved++;
+        referencesAdded += change.referencesAdded.size();
+        referencesRemoved += change.referencesRemoved.size();
+        providesAdded += change.providesAdded.size();
+        providesRemoved += change.providesRemoved.size();
+        dependenciesAdded += change.dependsOnAdded.size();
+        dependenciesRemoved += change.dependsOnRemoved.size();
+    }
+
+    /**
+     * Orders a dependency of the earlier snapshot against one of the later snapshot, as the snapshots order them:
+     * components by name, then unresolved services by name.
+     */
+    private int compareDependencies(int a, int b) {
+        if ((a < 0) != (b < 0))
+            return a < 0 ? 1 : -1;
+        return a < 0 ? before.getName(GraphSnapshot.unresolved(a)).compareTo(after.getName(GraphSnapshot.unresolved(b)))
+                : before.getName(a).compareTo(after.getName(b));
+    }
+
+    private static String nodeName(GraphSnapshot snapshot, int dependency) {
+        return dependency < 0 ? snapshot.getName(GraphSnapshot.unresolved(dependency)) + "?"
+                : snapshot.getName(dependency);
+    }
+
+    /**
+     * Merges row i of the first relation with row j of the second, reporting the targets only in the first row as
+     * removed and those only in the second as added. A row of -1 is empty.
+     */
+    private static void merge(GraphSnapshot.Rows rowsA, int i, GraphSnapshot.Rows rowsB, int j,
+                              IntBinaryOperator order, IntConsumer removed, IntConsumer added) {
+        int a = i < 0 ? 0 : rowsA.start(i);
+        int aEnd = i < 0 ? 0 : rowsA.end(i);
+        int b = j < 0 ? 0 : rowsB.start(j);
+        int bEnd = j < 0 ? 0 : rowsB.end(j);
+        while (a < aEnd || b < bEnd) {
+            int c = a == aEnd ? 1 : b == bEnd ? -1 : order.applyAsInt(rowsA.get(a), rowsB.get(b));
+            if (c < 0)
+                removed.accept(rowsA.get(a++));
+            else if (c > 0)
+                added.accept(rowsB.get(b++));
+            else {
+                a++;
+                b++;
+            }
+        }
+    }
+
+    /**
+     * Sorts out the cycles all of whose members joined or left a cycle, and the components which joined or left
+     * a cycle which is still there.
+     */
+    private void compareCycles() {
+        compareCycles(afterGraph, afterAnalysis, joinedCycle, cyclesAdded, componentsJoiningCycles);
+        compareCycles(beforeGraph, beforeAnalysis, leftCycle, cyclesRemoved, componentsLeavingCycles);
+    }
+
+    private static void compareCycles(ComponentGraph graph, GraphAnalysis analysis, boolean[] flagged,
+                                      List<List<String>> cycles, List<String> components) {
+        boolean[] whole = new boolean[analysis.getCycleCount()];
+        for (int c = 0; c < whole.length; c++) {
+            int[] members = analysis.getCycle(c);
+            whole[c] = true;
+            for (int node : members)
+                whole[c] &= flagged[node];
+            if (whole[c]) {
+                List<String> names = new ArrayList<>();
+                for (int node : members)
+                    names.add(graph.getNodeName(node));
+                cycles.add(names);
+            }
+        }
+        for (int node = 0; node < flagged.length; node++) {
+            if (flagged[node] && !whole[analysis.getCycleOf(node)])
+                components.add(graph.getNodeName(node));
+        }
+    }
+
+    /**
+     * Returns whether the snapshots hold the same graph.
+     *
+     * @return true if nothing changed
+     */
+    boolean isEmpty() {
+        return changes.isEmpty() && ghostsAdded.isEmpty() && ghostsRemoved.isEmpty()
+                && componentsJoiningCycles.isEmpty() && componentsLeavingCycles.isEmpty() && cyclesAdded.isEmpty()
+                && cyclesRemoved.isEmpty();
+    }
+
+    /**
+     * Returns the number of dependency cycles which only the later snapshot has.
+     *
+     * @return number of new cycles
+     */
+    int getNewCycleCount() {
+        return cyclesAdded.size();
+    }
+
+    /**
+     * Writes a plain text report of the differences: a summary, every added, removed and changed component with what
+     * it gained and lost, the services which became unresolved or were resolved, and the new and broken cycles.
+     *
+     * @param writer    the writer to write to
+     * @throws IOException if the report could not be written
+     */
+    void writeReport(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("Before: " + before.getComponentCount() + " components, " + beforeGraph.getEdgeCount()
+                + " dependencies, " + cycles(beforeAnalysis.getCycleCount()) + ".");
+        out.println("After:  " + after.getComponentCount() + " components, " + afterGraph.getEdgeCount()
+                + " dependencies, " + cycles(afterAnalysis.getCycleCount()) + ".");
+        out.println();
+        out.println("Components: " + componentsAdded + " added, " + componentsRemoved + " removed, "
+                + (changes.size() - componentsAdded - componentsRemoved) + " changed.");
+        out.println("References: " + referencesAdded + " added, " + referencesRemoved + " removed.");
+        out.println("Provided services: " + providesAdded + " added, " + providesRemoved + " removed.");
+        out.println("Dependencies: " + dependenciesAdded + " added, " + dependenciesRemoved + " removed.");
+        out.println("Unresolved services: " + ghostsAdded.size() + " new, " + ghostsRemoved.size() + " gone.");
+        out.println("Dependency cycles: " + cyclesAdded.size() + " new, " + cyclesRemoved.size() + " broken; "
+                + componentsJoiningCycles.size() + " components joined and " + componentsLeavingCycles.size()
+                + " left the others.");
+
+        if (!changes.isEmpty())
+            out.println();
+        for (NodeChange change : changes) {
+            out.println((change.status.equals(ADDED) ? "+ " : change.status.equals(REMOVED) ? "- " : "~ ")
+                    + change.name);
+            for (String line : change.describe())
+                out.println("    " + line);
+        }
+        writeNames(out, "Newly unresolved services:", ghostsAdded);
+        writeNames(out, "Services no longer unresolved:", ghostsRemoved);
+        writeCycles(out, "New dependency cycles:", cyclesAdded);
+        writeCycles(out, "Broken dependency cycles:", cyclesRemoved);
+        writeNames(out, "Components which joined a dependency cycle:", componentsJoiningCycles);
+        writeNames(out, "Components which left a dependency cycle:", componentsLeavingCycles);
+        out.flush();
+        if (out.checkError())
+            throw new IOException("Could not write the report");
+    }
+
+    private static String cycles(int count) {
+        return count + (count == 1 ? " dependency cycle" : " dependency cycles");
+    }
+
+    private static void writeNames(PrintWriter out, String heading, List<String> names) {
+        if (names.isEmpty())
+            return;
+        out.println();
+        out.println(heading);
+        for (String name : names)
+            out.println("    " + name);
+    }
+
+    private static void writeCycles(PrintWriter out, String heading, List<List<String>> cycles) {
+        if (cycles.isEmpty())
+            return;
+        out.println();
+        out.println(heading);
+        for (List<String> cycle : cycles) {
+            out.println("  " + cycle.size() + " components:");
+            for (String name : cycle)
+                out.println("    " + name);
+        }
+    }
+
+    /**
+     * Builds the catalog of the later graph, with the nodes of the earlier graph which are gone added back, for the
+     * viewer to highlight the differences. Changed nodes are flagged with "diff", set to "added", "removed" or
+     * "changed", and list their changes in "changes". Dependencies which are gone are listed in "dependsOnRemoved",
+     * and new ones, which are also in "dependsOn", in "dependsOnAdded".
+     *
+     * @return the catalog
+     */
+    JSONArray buildCatalog() {
+        JSONArray catalog = CatalogBuilder.build(afterGraph);
+        afterAnalysis.markCycles(catalog);
+        JSONArray previous = CatalogBuilder.build(beforeGraph);
+        Map<String, JSONObject> nodes = index(catalog);
+        Map<String, JSONObject> previousNodes = index(previous);
+
+        for (NodeChange change : changes) {
+            JSONObject node;
+            if (change.status.equals(REMOVED)) {
+                node = previousNodes.get(change.name);
+                catalog.add(node);
+                node.put("dependsOn", new JSONArray());
+            }
+            else
+                node = nodes.get(change.name);
+            node.put("diff", change.status);
+            node.put("changes", change.describe());
+            if (!change.dependsOnAdded.isEmpty())
+                node.put("dependsOnAdded", change.dependsOnAdded);
+            if (!change.dependsOnRemoved.isEmpty())
+                node.put("dependsOnRemoved", change.dependsOnRemoved);
+        }
+        for (String service : ghostsAdded)
+            nodes.get(service + "?").put("diff", ADDED);
+        for (String service : ghostsRemoved) {
+            JSONObject ghost = previousNodes.get(service + "?");
+            ghost.put("diff", REMOVED);
+            catalog.add(ghost);
+        }
+        return catalog;
+    }
+
+    private static Map<String, JSONObject> index(JSONArray catalog) {
+        Map<String, JSONObject> nodes = new HashMap<>();
+        for (Object o : catalog)
+            nodes.put((String) ((JSONObject) o).get("name"), (JSONObject) o);
+        return nodes;
+    }
+
+    /**
+     * What a component gained and lost between the snapshots.
+     */
+    private static class NodeChange {
+        private final String name;
+        private final String status;
+        private final List<String> referencesAdded = new ArrayList<>();
+        private final List<String> referencesRemoved = new ArrayList<>();
+        private final List<String> providesAdded = new ArrayList<>();
+        private final List<String> providesRemoved = new ArrayList<>();
+        private final List<String> dependsOnAdded = new ArrayList<>();
+        private final List<String> dependsOnRemoved = new ArrayList<>();
+
+        NodeChange(String name, String status) {
+            this.name = name;
+            this.status = status;
+        }
+
+        boolean isEmpty() {
+            return referencesAdded.isEmpty() && referencesRemoved.isEmpty() && providesAdded.isEmpty()
+                    && providesRemoved.isEmpty() && dependsOnAdded.isEmpty() && dependsOnRemoved.isEmpty();
+        }
+
+        /**
+         * Returns a line for each gained or lost reference, provided service and dependency.
+         */
+        List<String> describe() {
+            List<String> lines = new ArrayList<>();
+            referencesAdded.forEach(s -> lines.add("+ refers to " + s));
+            referencesRemoved.forEach(s -> lines.add("- refers to " + s));
+            providesAdded.forEach(s -> lines.add("+ provides " + s));
+            providesRemoved.forEach(s -> lines.add("- provides " + s));
+            dependsOnAdded.forEach(s -> lines.add("+ depends on " + s));
+            dependsOnRemoved.forEach(s -> lines.add("- depends on " + s));
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class that walks a directory in a stable order and splits the java files found there into shards, one per package
+ * directory, along with an index of the top-level classes that the shards need to resolve classes declared outside
+ * of themselves. The index holds every top-level class a file declares, not only the one it is named after.
+ * <p>
+ * Every file is read once into a reusable buffer and lexically pre-scanned: besides its package declaration, the
+ * scan looks for a component annotation, such as @Component, by the simple names given by the annotation rules.
+ * Files without one cannot contribute to the graph, so they are left out of the shards and are only parsed if some
+ * candidate class needs them as a superclass. When asked for, the content digests used by the cache are computed
+ * from the same buffer.
+ * </p>
+ * <p>
+ * In watch mode, single files are re-scanned as they change, which keeps the class index and the set of candidates
+ * current; the shards only ever reflect the initial walk.
+ * </p>
+ * <p>
+ * A tree can also be scanned from a revision of a git repository. Its files are then named by where they would be in
+ * a checkout, but only exist in memory: the contents of the candidates are kept, and the other files are read from
+ * the repository again if they are ever opened.
+ * </p>
+ */
+class SourceTree {
+    private static final byte[] PACKAGE = "package".getBytes();
+    private static final byte[] CLASS = "class".getBytes();
+    private static final byte[] INTERFACE = "interface".getBytes();
+    private static final byte[] ENUM = "enum".getBytes();
+
+    /**
+     * Orders files the way the walk visits them, that is by comparing their paths name by name.
+     */
+    static final Comparator<File> WALK_ORDER = (a, b) -> {
+        Iterator<Path> i = a.toPath().iterator();
+        Iterator<Path> j = b.toPath().iterator();
+        while (i.hasNext() && j.hasNext()) {
+            int c = new File(i.next().toString()).compareTo(new File(j.next().toString()));
+            if (c != 0)
+                return c;
+        }
+        return Boolean.compare(i.hasNext(), j.hasNext());
+    };
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final Map<String, File> classIndex = new HashMap<>();
+    private final Map<File, String> digests = new HashMap<>();
+    private final Map<File, List<String>> topLevelNames = new HashMap<>(); //the class index keys of every file
+    private final Set<File> candidates = new HashSet<>();
+    private final boolean computeDigests;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private GitRevision revision; //the revision the files were read from, or null if they were read from disk
+    private final Map<File, byte[]> contents = new HashMap<>(); //the contents of the candidates read from a revision
+    private final Map<File, String> blobIds = new HashMap<>(); //the object ids of the other files read from a revision
+
+    private int fileCount;
+    private int skippedCount;
+    private long skippedBytes;
+    private long scanNanos;
+
+    private SourceTree(boolean computeDigests) {
+        this.computeDigests = computeDigests;
+    }
+
+    /**
+     * Walks the given directory and groups the candidate java files by the directory they live in.
+     *
+     * @param directory         the directory to walk
+     * @param computeDigests    whether to compute the content digest of every file
+     * @return the scanned source tree
+     * @throws IOException  if a file could not be read
+     */
+    static SourceTree scan(File directory, boolean computeDigests) throws IOException {
+        SourceTree tree = new SourceTree(computeDigests);
+        long start = System.nanoTime();
+        Map<File, List<File>> filesByDirectory = new LinkedHashMap<>();
+        tree.walk(directory, filesByDirectory);
+        filesByDirectory.forEach((dir, files) -> tree.shards.add(new Shard(dir, files)));
+        tree.scanNanos = System.nanoTime() - start;
+        return tree;
+    }
+
+    /**
+     * Reads the java files of the given revision, below the directory it was listed for, and groups the candidates by
+     * the directory they would live in, in the same order as a walk of a checkout would.
+     *
+     * @param revision          the revision to read
+     * @param computeDigests    whether to compute the content digest of every file
+     * @return the scanned source tree
+     * @throws IOException  if the revision could not be read
+     */
+    static SourceTree scan(GitRevision revision, boolean computeDigests) throws IOException {
+        SourceTree tree = new SourceTree(computeDigests);
+        tree.revision = revision;
+        long start = System.nanoTime();
+        List<File> found = new ArrayList<>();
+        revision.read((file, id, stream, size) -> {
+            tree.fileCount++;
+            tree.grow(size);
+            GitRevision.readFully(stream, tree.buffer.array(), size);
+            if (tree.add(file, size)) {
+                tree.contents.put(file, Arrays.copyOf(tree.buffer.array(), size));
+                found.add(file);
+            }
+            else
+                tree.blobIds.put(file, id);
+        });
+
+        found.sort(WALK_ORDER);
+        Map<File, List<File>> filesByDirectory = new LinkedHashMap<>();
+        for (File file : found)
+            filesByDirectory.computeIfAbsent(file.getParentFile(), d -> new ArrayList<>()).add(file);
+        filesByDirectory.forEach((dir, files) -> tree.shards.add(new Shard(dir, files)));
+        tree.scanNanos = System.nanoTime() - start;
+        return tree;
+    }
+
+    private void walk(File current, Map<File, List<File>> filesByDirectory) throws IOException {
+        File[] children = current.listFiles();
+        if (children == null)
+            return;
+        Arrays.sort(children); //listFiles makes no ordering promise; sorting keeps shards and their merge order stable
+
+        for (File child : children) {
+            if (child.isDirectory())
+                walk(child, filesByDirectory);
+            else if (isSource(child)) {
+                fileCount++;
+                if (add(child))
+                    filesByDirectory.computeIfAbsent(current, d -> new ArrayList<>()).add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given file is a java source file that the walk picks up.
+     *
+     * @param file      the file
+     * @return true if it is a source file
+     */
+    static boolean isSource(File file) {
+        return file.getName().endsWith(".java") && !file.getName().equals("package-info.java");
+    }
+
+    /**
+     * Scans the given file and adds it to the class index, or updates its entry if it was scanned before.
+     *
+     * @param file      the source file
+     * @return true if the file is a candidate for parsing
+     * @throws IOException  if the file could not be read
+     */
+    boolean add(File file) throws IOException {
+        return add(file, read(file));
+    }
+
+    /**
+     * Adds the file whose contents are held by the buffer.
+     */
+    private boolean add(File file, int length) {
+        remove(file);
+        List<String> names = readTopLevelNames(buffer, length, file);
+        for (String name : names)
+            classIndex.putIfAbsent(name, file);
+        topLevelNames.put(file, names);
+        if (computeDigests)
+            digests.put(file, AnalysisCache.digest(buffer, length));
+
+        if (containsAnnotation(buffer, length)) {
+            candidates.add(file);
+            return true;
+        }
+        skippedCount++;
+        skippedBytes += length;
+        return false;
+    }
+
+    /**
+     * Removes the given file from the class index and from the candidates.
+     *
+     * @param file      the source file
+     */
+    void remove(File file) {
+        List<String> names = topLevelNames.remove(file);
+        if (names != null) {
+            for (String name : names)
+                classIndex.remove(name, file);
+        }
+        digests.remove(file);
+        candidates.remove(file);
+    }
+
+    /**
+     * Returns whether the given file was scanned.
+     *
+     * @param file      the source file
+     * @return true if the file is in the class index
+     */
+    boolean contains(File file) {
+        return topLevelNames.containsKey(file);
+    }
+
+    /**
+     * Returns whether the given file was scanned and found to be a candidate for parsing.
+     *
+     * @param file      the source file
+     * @return true if the file is a candidate
+     */
+    boolean isCandidate(File file) {
+        return candidates.contains(file);
+    }
+
+    /**
+     * Returns all scanned files in the given directory or below it.
+     *
+     * @param directory     the directory
+     * @return list of files
+     */
+    List<File> getFiles(File directory) {
+        List<File> files = new ArrayList<>();
+        for (File file : topLevelNames.keySet()) {
+            if (file.toPath().startsWith(directory.toPath()))
+                files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Opens the given scanned file for reading, from disk, or from memory or the repository if the tree was read from
+     * a revision.
+     *
+     * @param file      the source file
+     * @return a stream of the file's contents
+     * @throws IOException if the file could not be opened
+     */
+    InputStream open(File file) throws IOException {
+        if (revision == null)
+            return new FileInputStream(file);
+        byte[] bytes = contents.get(file);
+        if (bytes == null) {
+            String id = blobIds.get(file);
+            if (id == null)
+                throw new FileNotFoundException(file + " is not part of revision " + revision.getRevision());
+            bytes = revision.read(id);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Returns the size of the given scanned file.
+     *
+     * @param file      the source file
+     * @return the size in bytes; 0 if the file is unknown
+     */
+    long length(File file) {
+        if (revision == null)
+            return file.length();
+        byte[] bytes = contents.get(file);
+        return bytes != null ? bytes.length : 0;
+    }
+
+    /**
+     * Returns whether the files were read from a revision rather than from disk.
+     *
+     * @return true if the files only exist in memory
+     */
+    boolean isInMemory() {
+        return revision != null;
+    }
+
+    /**
+     * Reads the whole file into the reusable buffer, growing it if needed.
+     *
+     * @return the number of bytes read
+     */
+    private int read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            grow(size);
+            buffer.clear();
+            while (buffer.position() < size && channel.read(buffer) >= 0) {
+                //keep reading until the whole file is in the buffer
+            }
+            return buffer.position();
+        }
+    }
+
+    private void grow(long size) {
+        if (size > buffer.capacity())
+            buffer = ByteBuffer.allocate((int) Math.max(size, buffer.capacity() * 2L));
+    }
+
+    /**
+     * Returns the fully qualified names of the top-level classes declared in the file held by the buffer: first the
+     * one the file is named after, then any other top-level class, interface, enum or annotation type it declares.
+     * Those can be superclasses of classes in other files too, so they have to be indexed as well.
+     */
+    private static List<String> readTopLevelNames(ByteBuffer buffer, int length, File file) {
+        String packageName = readPackage(buffer, length);
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        List<String> names = new ArrayList<>();
+        names.add(prefix + file.getName().substring(0, file.getName().length() - ".java".length()));
+
+        int braces = 0;
+        int parentheses = 0;
+        byte previous = 0; //the last byte outside of comments, literals and whitespace
+        boolean declaration = false; //whether the last word was a keyword declaring a type
+        int i = 0;
+        while (i < length) {
+            byte c = buffer.get(i);
+            if (c == '/' && i + 1 < length && buffer.get(i + 1) == '/') {
+                while (i < length && buffer.get(i) != '\n')
+                    i++;
+            }
+            else if (c == '/' && i + 1 < length && buffer.get(i + 1) == '*') {
+                i += 2;
+                while (i + 1 < length && !(buffer.get(i) == '*' && buffer.get(i + 1) == '/'))
+                    i++;
+                i += 2;
+            }
+            else if (c == '"' || c == '\'') {
+                i++;
+                while (i < length && buffer.get(i) != c && buffer.get(i) != '\n')
+                    i += buffer.get(i) == '\\' ? 2 : 1;
+                i++;
+                previous = c;
+                declaration = false;
+            }
+            else if (Character.isJavaIdentifierStart(c) || c < 0) {
+                int start = i;
+                while (i < length && (Character.isJavaIdentifierPart(buffer.get(i)) || buffer.get(i) < 0))
+                    i++;
+                if (declaration) {
+                    String name = prefix + new String(buffer.array(), buffer.arrayOffset() + start, i - start,
+                                                      StandardCharsets.UTF_8);
+                    if (!names.contains(name))
+                        names.add(name);
+                }
+                //"class" after a dot is a class literal, such as those given to annotations
+                declaration = braces == 0 && parentheses == 0 && previous != '.'
+                        && (isWord(buffer, start, i, CLASS) || isWord(buffer, start, i, INTERFACE)
+                        || isWord(buffer, start, i, ENUM));
+                previous = 'a';
+            }
+            else {
+                if (c == '{')
+                    braces++;
+                else if (c == '}')
+                    braces--;
+                else if (c == '(')
+                    parentheses++;
+                else if (c == ')')
+                    parentheses--;
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                    declaration = false;
+                }
+                i++;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Lexically reads the package declaration from the first bytes of the buffer, skipping any leading comments.
+     *
+     * @param buffer    the buffer holding the file
+     * @param length    the number of bytes of the file
+     * @return the package name, or an empty string for the default package
+     */
+    static String readPackage(ByteBuffer buffer, int length) {
+        int i = 0;
+        while (i < length) {
+            byte c = buffer.get(i);
+            if (Character.isWhitespace(c))
+                i++;
+            else if (c == '/' && i + 1 < length && buffer.get(i + 1) == '/') {
+                while (i < length && buffer.get(i) != '\n')
+                    i++;
+            }
+            else if (c == '/' && i + 1 < length && buffer.get(i + 1) == '*') {
+                i += 2;
+                while (i + 1 < length && !(buffer.get(i) == '*' && buffer.get(i + 1) == '/'))
+                    i++;
+                i += 2;
+            }
+            else
+                break;
+        }
+
+        if (!matches(buffer, i, length, PACKAGE) || i + PACKAGE.length >= length
+                || Character.isJavaIdentifierPart(buffer.get(i + PACKAGE.length)))
+            return "";
+        StringBuilder sb = new StringBuilder();
+        for (i += PACKAGE.length; i < length && buffer.get(i) != ';'; i++) {
+            byte c = buffer.get(i);
+            if (!Character.isWhitespace(c))
+                sb.append((char) c);
+        }
+        return i < length ? sb.toString() : "";
+    }
+
+    /**
+     * Returns whether the buffer holds an annotation whose simple name is that of a component annotation, written
+     * either by its simple or by its fully qualified name. Matches in comments or strings are tolerated, since they
+     * only cost an unnecessary parse.
+     */
+    static boolean containsAnnotation(ByteBuffer buffer, int length) {
+        byte[][] candidates = AnnotationRules.get().getComponentNames();
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) != '@')
+                continue;
+
+            int j = i + 1;
+            while (j < length && Character.isWhitespace(buffer.get(j)))
+                j++;
+            int nameStart = j;
+            while (j < length && (Character.isJavaIdentifierPart(buffer.get(j)) || buffer.get(j) == '.')) {
+                if (buffer.get(j) == '.')
+                    nameStart = j + 1;
+                j++;
+            }
+            for (byte[] annotation : candidates) {
+                if (j - nameStart == annotation.length && matches(buffer, nameStart, length, annotation))
+                    return true;
+            }
+            i = j - 1;
+        }
+        return false;
+    }
+
+    private static boolean isWord(ByteBuffer buffer, int start, int end, byte[] word) {
+        return end - start == word.length && matches(buffer, start, end, word);
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, int length, byte[] token) {
+        if (offset + token.length > length)
+            return false;
+        for (int k = 0; k < token.length; k++) {
+            if (buffer.get(offset + k) != token[k])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shards in walk order; they hold candidate files only.
+     *
+     * @return list of shards
+     */
+    List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the index of fully qualified top-level class names to the files declaring them, for all files and all
+     * the top-level classes declared in each.
+     *
+     * @return class index
+     */
+    Map<String, File> getClassIndex() {
+        return Collections.unmodifiableMap(classIndex);
+    }
+
+    /**
+     * Returns a digest of the top-level classes each package declares across the given trees, which tells whether
+     * names written in a package, or imported from it through a wildcard, may resolve differently than they did.
+     *
+     * @param trees     the scanned trees
+     * @return map of package names to hex encoded digests of the sorted names of their classes
+     */
+    static Map<String, String> packageDigests(List<SourceTree> trees) {
+        Map<String, Set<String>> classesByPackage = new HashMap<>();
+        for (SourceTree tree : trees) {
+            for (String name : tree.classIndex.keySet()) {
+                int dot = name.lastIndexOf('.');
+                classesByPackage.computeIfAbsent(dot < 0 ? "" : name.substring(0, dot), p -> new TreeSet<>())
+                        .add(name.substring(dot + 1));
+            }
+        }
+        Map<String, String> digests = new HashMap<>();
+        classesByPackage.forEach((packageName, classes) -> {
+            byte[] bytes = String.join("\n", classes).getBytes(StandardCharsets.UTF_8);
+            digests.put(packageName, AnalysisCache.digest(ByteBuffer.wrap(bytes), bytes.length));
+        });
+        return digests;
+    }
+
+    /**
+     * Returns the content digests of all files, if they were asked for.
+     *
+     * @return map of files to digests; empty if digests were not computed
+     */
+    Map<File, String> getDigests() {
+        return Collections.unmodifiableMap(digests);
+    }
+
+    /**
+     * Returns the number of java files found.
+     *
+     * @return number of files
+     */
+    int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Returns the number of files left out of the shards by the pre-scan.
+     *
+     * @return number of skipped files
+     */
+    int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Returns the total size of the files left out of the shards by the pre-scan.
+     *
+     * @return number of bytes
+     */
+    long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Returns the time it took to walk and pre-scan the tree.
+     *
+     * @return nanoseconds
+     */
+    long getScanNanos() {
+        return scanNanos;
+    }
+
+    /**
+     * Group of java files which are parsed together by one QDox builder.
+     */
+    static class Shard {
+        private final File directory;
+        private final List<File> files;
+
+        Shard(File directory, List<File> files) {
+            this.directory = directory;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        File getDirectory() {
+            return directory;
+        }
+
+        List<File> getFiles() {
+            return files;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.onlab.cdvue.DependencyMapper.println;
+
+/**
+ * Class that keeps the graph of a source tree current while the tree is being edited.
+ * <p>
+ * Every directory of the tree is registered with a watch service. File events are collected until none has arrived
+ * for a short while, so that a save touching several files, or a checkout, is handled as one batch. The changed files
+ * are then re-analyzed, the graph maps are updated in place, and the changed catalog nodes are pushed to the open
+ * pages. If the watch service drops events, the whole tree is analyzed again.
+ * </p>
+ */
+class SourceWatcher {
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private final Path root;
+    private final DependencyParser parser;
+    private final LiveServer server;
+    private final QueryProcessor queries;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private GraphHandler graph;
+
+    /**
+     * Constructor for objects of class SourceWatcher; registers every directory of the tree.
+     *
+     * @param root      the root of the source tree
+     * @param parser    the parser which analyzed the tree
+     * @param graph     the graph prepared from the parser's class facts
+     * @param server    the server to push changes to
+     * @param queries   the query processor to keep current
+     * @throws IOException if the tree could not be watched
+     */
+    SourceWatcher(File root, DependencyParser parser, GraphHandler graph, LiveServer server, QueryProcessor queries)
+            throws IOException {
+        this.root = root.getAbsoluteFile().toPath();
+        this.parser = parser;
+        this.graph = graph;
+        this.server = server;
+        this.queries = queries;
+        watchService = FileSystems.getDefault().newWatchService();
+        register(this.root, null);
+    }
+
+    /**
+     * Registers the given directory and all directories below it, adding the source files found in them to the
+     * given set, if any.
+     */
+    private void register(Path directory, Set<File> found) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path))
+                    directories.put(path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), path);
+                else if (found != null && SourceTree.isSource(path.toFile()))
+                    found.add(path.toFile());
+            }
+        }
+    }
+
+    /**
+     * Handles batches of file events until the thread is interrupted.
+     *
+     * @throws Exception        if the tree could not be analyzed
+     */
+    void run() throws Exception {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key = watchService.take();
+            Set<File> changed = new LinkedHashSet<>();
+            boolean overflow = false;
+            do {
+                overflow |= collect(key, changed);
+            } while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+            if (overflow || !changed.isEmpty())
+                apply(changed, overflow);
+        }
+    }
+
+    /**
+     * Collects the source files affected by the events of the given key.
+     *
+     * @return true if events were lost
+     */
+    private boolean collect(WatchKey key, Set<File> changed) throws IOException {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path))
+                register(path, changed);
+            else if (event.kind() == ENTRY_DELETE && !SourceTree.isSource(path.toFile()))
+                changed.addAll(parser.getSourceTree().getFiles(path.toFile())); //a directory may have been deleted
+            else if (SourceTree.isSource(path.toFile()))
+                changed.add(path.toFile());
+        }
+        if (!key.reset())
+            directories.remove(key);
+        return overflow;
+    }
+
+    private void apply(Set<File> changed, boolean overflow) throws Exception {
+        long start = System.nanoTime();
+        JSONArray previous = graph.getCatalog();
+        if (overflow) {
+            parser.execute();
+            graph = new GraphHandler(parser.getClassFacts());
+            graph.prepareData();
+        }
+        else {
+            DependencyParser.FactsChange change = parser.update(changed);
+            graph.update(change.getRemoved(), change.getAdded());
+        }
+        graph.buildComponentNodes();
+        queries.setGraph(graph.getComponentGraph());
+
+        JSONObject delta = CatalogBuilder.diff(previous, graph.getCatalog());
+        int updated = ((JSONArray) delta.get("updated")).size();
+        int removed = ((JSONArray) delta.get("removed")).size();
+        if (updated > 0 || removed > 0)
+            server.publish(graph.getCatalog(), delta);
+        System.out.println((overflow ? "Re-analyzed the tree" : "Re-analyzed " + changed.size() + " changed files")
+                + " in " + (System.nanoTime() - start) / 1000000 + " ms; " + updated + " nodes updated, "
+                + removed + " removed; " + graph.getAnalysis().getCycleCount() + " dependency cycles.");
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that cached facts are reused while everything they were derived from is unchanged, and only then.
+ */
+@SuppressWarnings("unchecked")
+public class AnalysisCacheTest {
+    private static final int CANDIDATES = 4; //FooImpl, Base, Sub and User
+
+    private Path tree;
+    private File cacheFile;
+    private RunMetrics metrics;
+
+    @Before
+    public void setUp() throws IOException {
+        tree = Files.createTempDirectory("cdvue-cache");
+        cacheFile = tree.resolve("cache/facts.json").toFile();
+        write("org/p/api/FooService.java", "package org.p.api;\n\npublic interface FooService {\n}\n");
+        write("org/p/impl/FooImpl.java", "package org.p.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Service;\n"
+                + "import org.p.api.FooService;\n\n"
+                + "@Component\n@Service\npublic class FooImpl implements FooService {\n}\n");
+        write("org/p/impl/Base.java", "package org.p.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n"
+                + "import org.p.api.FooService;\n\n"
+                + "@Component(componentAbstract = true)\n"
+                + "public abstract class Base {\n    @Reference\n    protected FooService foo;\n}\n");
+        write("org/p/impl/Sub.java", "package org.p.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n\n"
+                + "@Component\npublic class Sub extends Base {\n}\n");
+        write("org/p/use/User.java", "package org.p.use;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n"
+                + "import org.q.*;\n\n"
+                + "@Component\npublic class User {\n    @Reference\n    protected Widget widget;\n}\n");
+        write("org/q/Gadget.java", "package org.q;\n\npublic interface Gadget {\n}\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SyntheticTreeGenerator.delete(tree);
+    }
+
+    private void write(String path, String source) throws IOException {
+        Path file = tree.resolve("src/main/java").resolve(path);
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+    }
+
+    private List<String> parse(File cache) throws Exception {
+        DependencyParser parser = new DependencyParser(tree.resolve("src").toString(), 1);
+        metrics = new RunMetrics();
+        parser.setMetrics(metrics);
+        parser.setCacheFile(cache);
+        parser.execute();
+        List<String> facts = new ArrayList<>();
+        for (ClassFacts classFacts : parser.getClassFacts()) {
+            facts.add(classFacts.getName() + " " + classFacts.isComponent() + " " + classFacts.isService() + " "
+                              + classFacts.getServiceTag() + " " + classFacts.getInterfaces() + " "
+                              + classFacts.getReferences());
+        }
+        return facts;
+    }
+
+    private List<String> parseCached() throws Exception {
+        return parse(cacheFile);
+    }
+
+    private long parsed() {
+        return metrics.get(RunMetrics.Counter.PARSED_FILES);
+    }
+
+    private long cached() {
+        return metrics.get(RunMetrics.Counter.CACHED_FILES);
+    }
+
+    @Test
+    public void warmRunReusesEveryFile() throws Exception {
+        List<String> cold = parseCached();
+        assertEquals(CANDIDATES, parsed());
+        assertEquals(0, cached());
+
+        assertEquals(cold, parseCached());
+        assertEquals(0, parsed());
+        assertEquals(CANDIDATES, cached());
+    }
+
+    @Test
+    public void changedFilesAreParsedAgain() throws Exception {
+        parseCached();
+        write("org/p/impl/FooImpl.java", "package org.p.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n\n"
+                + "@Component\npublic class FooImpl {\n}\n");
+        List<String> facts = parseCached();
+        assertEquals(1, parsed());
+        assertEquals(facts, parse(null));
+
+        //a changed superclass invalidates the facts of its subclasses too
+        write("org/p/impl/Base.java", "package org.p.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n"
+                + "import org.p.api.FooService;\n"
+                + "import org.q.Gadget;\n\n"
+                + "@Component(componentAbstract = true)\n"
+                + "public abstract class Base {\n    @Reference\n    protected FooService foo;\n\n"
+                + "    @Reference\n    protected Gadget gadget;\n}\n");
+        facts = parseCached();
+        assertEquals(2, parsed());
+        assertTrue(facts.contains("org.p.impl.Sub true false  [] [org.p.api.FooService, org.q.Gadget]"));
+        assertEquals(facts, parse(null));
+    }
+
+    @Test
+    public void classAddedToImportedPackageInvalidates() throws Exception {
+        assertTrue(parseCached().contains("org.p.use.User true false  [] [Widget]"));
+
+        //editing a class of the package does not change what names resolve to
+        write("org/q/Gadget.java", "package org.q;\n\n/** A gadget. */\npublic interface Gadget {\n}\n");
+        parseCached();
+        assertEquals(0, parsed());
+
+        write("org/q/Widget.java", "package org.q;\n\npublic interface Widget {\n}\n");
+        List<String> facts = parseCached();
+        assertEquals(1, parsed());
+        assertTrue(facts.contains("org.p.use.User true false  [] [org.q.Widget]"));
+        assertEquals(facts, parse(null));
+
+        Files.delete(tree.resolve("src/main/java/org/q/Widget.java"));
+        facts = parseCached();
+        assertEquals(1, parsed());
+        assertTrue(facts.contains("org.p.use.User true false  [] [Widget]"));
+    }
+
+    @Test
+    public void cacheOfAnotherVersionIsIgnored() throws Exception {
+        parseCached();
+        JSONObject root;
+        try (Reader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            root = (JSONObject) new JSONParser().parse(reader);
+        }
+        root.put("version", (Long) root.get("version") - 1);
+        try (Writer writer = Files.newBufferedWriter(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            root.writeJSONString(writer);
+        }
+
+        parseCached();
+        assertEquals(CANDIDATES, parsed());
+        assertEquals(0, cached());
+    }
+
+    @Test
+    public void cacheOfOtherRulesIsIgnored() throws Exception {
+        parseCached();
+        File rules = tree.resolve("rules.txt").toFile();
+        try {
+            Files.write(rules.toPath(), "org.example.Inject reference\n".getBytes(StandardCharsets.UTF_8));
+            AnnotationRules.configure(rules);
+            parseCached();
+            assertEquals(CANDIDATES, parsed());
+            assertEquals(0, cached());
+        }
+        finally {
+            Files.write(rules.toPath(), new byte[0]);
+            AnnotationRules.configure(rules); //no further rules, so only the bundled ones
+        }
+
+        parseCached();
+        assertEquals(CANDIDATES, parsed()); //the cache was last written under the other rules
+        parseCached();
+        assertEquals(CANDIDATES, cached());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the bundled annotation rules, further rules read from a file, and the facts extracted under them.
+ */
+public class AnnotationRulesTest {
+    private static final String FELIX = "org.apache.felix.scr.annotations.";
+    private static final String DS = "org.osgi.service.component.annotations.";
+
+    private Path tree;
+    private File rules;
+
+    @Before
+    public void setUp() throws IOException {
+        tree = Files.createTempDirectory("cdvue-rules");
+        rules = tree.resolve("annotations.txt").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        configure(""); //no further rules, so only the bundled ones
+        SyntheticTreeGenerator.delete(tree);
+    }
+
+    private void configure(String lines) throws IOException {
+        Files.write(rules.toPath(), lines.getBytes(StandardCharsets.UTF_8));
+        AnnotationRules.configure(rules);
+    }
+
+    private void write(String path, String source) throws IOException {
+        Path file = tree.resolve("src/main/java").resolve(path);
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+    }
+
+    private List<String> parse() throws Exception {
+        DependencyParser parser = new DependencyParser(tree.resolve("src").toString(), 1);
+        parser.execute();
+        List<String> facts = new ArrayList<>();
+        for (ClassFacts classFacts : parser.getClassFacts()) {
+            facts.add(classFacts.getName() + " " + classFacts.isComponent() + " " + classFacts.isService() + " "
+                              + classFacts.getServiceTag() + " " + classFacts.getInterfaces() + " "
+                              + classFacts.getReferences());
+        }
+        Collections.sort(facts);
+        return facts;
+    }
+
+    private static boolean isDescriptor(AnnotationRules rules, String descriptor) {
+        byte[] bytes = descriptor.getBytes(StandardCharsets.UTF_8);
+        return rules.isDescriptor(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    @Test
+    public void bundledRules() {
+        AnnotationRules rules = AnnotationRules.get();
+        AnnotationRules.Rule component = rules.ofName(FELIX + "Component");
+        assertTrue(component.has(AnnotationRules.Role.COMPONENT));
+        assertFalse(component.has(AnnotationRules.Role.SERVICE));
+        assertEquals("value", rules.ofName(FELIX + "Service").getElement());
+        assertNull(rules.ofName(FELIX + "Reference").getElement());
+
+        AnnotationRules.Rule dsComponent = rules.ofName(DS + "Component");
+        assertTrue(dsComponent.has(AnnotationRules.Role.COMPONENT) && dsComponent.has(AnnotationRules.Role.SERVICE));
+        assertEquals("service", dsComponent.getElement());
+        assertEquals("service", rules.ofName(DS + "Reference").getElement());
+        assertNull(rules.ofName("org.example.Component"));
+
+        //simple names of wildcard imports go to the imported package, or else to the first rule of the table
+        assertSame(dsComponent, rules.ofSimpleName("Component", Arrays.asList("java.util.*", DS + "*")));
+        assertSame(component, rules.ofSimpleName("Component", Collections.emptyList()));
+        assertNull(rules.ofSimpleName("Inject", Collections.emptyList()));
+
+        assertSame(component, rules.ofDescriptor("Lorg/apache/felix/scr/annotations/Component;"));
+        assertTrue(isDescriptor(rules, "Lorg/osgi/service/component/annotations/Reference;"));
+        assertFalse(isDescriptor(rules, "Lorg/osgi/service/component/annotations/Reverence;"));
+        assertFalse(isDescriptor(rules, "Ljava/lang/Deprecated;"));
+    }
+
+    @Test
+    public void furtherRulesAddAndReplace() throws Exception {
+        String bundled = AnnotationRules.get().getFingerprint();
+        configure("# ours\n\norg.example.Managed   component,service   provides\n"
+                          + "org.example.Inject reference\n"
+                          + FELIX + "Reference reference referenceInterface\n");
+        AnnotationRules rules = AnnotationRules.get();
+        assertFalse(bundled.equals(rules.getFingerprint()));
+
+        AnnotationRules.Rule managed = rules.ofName("org.example.Managed");
+        assertTrue(managed.has(AnnotationRules.Role.COMPONENT) && managed.has(AnnotationRules.Role.SERVICE));
+        assertFalse(managed.has(AnnotationRules.Role.REFERENCE));
+        assertEquals("provides", managed.getElement());
+        assertTrue(rules.ofName("org.example.Inject").has(AnnotationRules.Role.REFERENCE));
+        assertEquals("referenceInterface", rules.ofName(FELIX + "Reference").getElement());
+        assertTrue(isDescriptor(rules, "Lorg/example/Inject;"));
+
+        List<String> componentNames = new ArrayList<>();
+        for (byte[] name : rules.getComponentNames())
+            componentNames.add(new String(name, StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("Component", "Managed"), componentNames);
+
+        configure("");
+        assertEquals(bundled, AnnotationRules.get().getFingerprint());
+    }
+
+    @Test
+    public void invalidRulesAreRejected() throws Exception {
+        String bundled = AnnotationRules.get().getFingerprint();
+        for (String line : new String[]{"org.example.Inject", "org.example.Inject reference service extra",
+                                        "org.example.Inject gadget"}) {
+            try {
+                configure("# ours\n" + line + "\n");
+                fail("Accepted " + line);
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2 of " + rules.getPath()));
+            }
+            assertEquals(bundled, AnnotationRules.get().getFingerprint());
+        }
+    }
+
+    @Test
+    public void factsOfFelixDeclarativeServicesAndFurtherAnnotations() throws Exception {
+        write("org/p/api/FooService.java", "package org.p.api;\n\npublic interface FooService {\n}\n");
+        write("org/p/api/BarService.java", "package org.p.api;\n\npublic interface BarService {\n}\n");
+        write("org/p/felix/FelixFoo.java", "package org.p.felix;\n\n"
+                + "import org.apache.felix.scr.annotations.*;\n"
+                + "import org.p.api.BarService;\n"
+                + "import org.p.api.FooService;\n\n"
+                + "@Component\n@Service(value = FooService.class)\npublic class FelixFoo implements FooService {\n"
+                + "    @Reference\n    protected BarService bar;\n}\n");
+        write("org/p/ds/DsBar.java", "package org.p.ds;\n\n"
+                + "import org.osgi.service.component.annotations.Component;\n"
+                + "import org.osgi.service.component.annotations.Reference;\n"
+                + "import org.p.api.BarService;\n"
+                + "import org.p.api.FooService;\n\n"
+                + "@Component(service = {BarService.class, FooService.class})\n"
+                + "public class DsBar implements BarService {\n"
+                + "    @Reference(service = FooService.class)\n    protected Object foo;\n\n"
+                + "    @Reference\n    protected void setBar(BarService bar) {\n    }\n}\n");
+        write("org/p/ds/DsPlain.java", "package org.p.ds;\n\n"
+                + "import org.osgi.service.component.annotations.*;\n"
+                + "import org.p.api.FooService;\n\n"
+                + "@Component\npublic class DsPlain implements FooService {\n}\n");
+        write("org/p/own/Own.java", "package org.p.own;\n\n"
+                + "import org.example.Inject;\n"
+                + "import org.example.Managed;\n"
+                + "import org.p.api.FooService;\n\n"
+                + "@Managed\npublic class Own implements FooService {\n"
+                + "    @Inject\n    protected FooService foo;\n}\n");
+
+        List<String> bundled = parse();
+        assertEquals(Arrays.asList(
+                "org.p.ds.DsBar true true org.p.api.BarService [org.p.api.BarService, org.p.api.FooService] "
+                        + "[org.p.api.FooService, org.p.api.BarService]",
+                "org.p.ds.DsPlain true true  [org.p.api.FooService] []",
+                "org.p.felix.FelixFoo true true org.p.api.FooService [org.p.api.FooService] [org.p.api.BarService]"),
+                     bundled);
+
+        configure("org.example.Managed component,service\norg.example.Inject reference\n");
+        List<String> further = new ArrayList<>(bundled);
+        further.add("org.p.own.Own true true  [org.p.api.FooService] [org.p.api.FooService]");
+        Collections.sort(further);
+        assertEquals(further, parse());
+    }
+}
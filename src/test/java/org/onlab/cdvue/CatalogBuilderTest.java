@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the catalog built with hash indexes is byte for byte the catalog built by the linear scans it replaced.
+ */
+@SuppressWarnings("unchecked")
+public class CatalogBuilderTest {
+
+    /**
+     * Parses a synthetic tree and builds its catalog both ways.
+     *
+     * @param components    the number of components
+     * @param services      the number of services; more than components leaves services without a provider
+     * @return the number of nodes of the catalog
+     */
+    private static int assertSameCatalog(int components, int services) throws Exception {
+        Path tree = Files.createTempDirectory("cdvue-catalog");
+        GraphHandler handler;
+        try {
+            new SyntheticTreeGenerator(components, services, 3, 2, 1).generate(tree);
+            DependencyParser parser = new DependencyParser(tree.toString(), 0);
+            parser.execute();
+            handler = new GraphHandler(parser.getClassFacts());
+            handler.prepareData();
+        }
+        finally {
+            SyntheticTreeGenerator.delete(tree);
+        }
+
+        JSONArray expected = new LinearScanCatalog(handler.getServiceToComponents(),
+                                                   handler.getComponentToReferences(),
+                                                   handler.getComponentToServices()).build();
+        JSONArray actual = new CatalogBuilder(handler.getServiceToComponents(), handler.getComponentToReferences(),
+                                              handler.getComponentToServices()).build();
+        assertEquals(expected.toJSONString(), actual.toJSONString());
+        return actual.size();
+    }
+
+    @Test
+    public void sharedServices() throws Exception {
+        assertEquals(2000, assertSameCatalog(2000, 500));
+    }
+
+    @Test
+    public void ghostServices() throws Exception {
+        assertTrue(assertSameCatalog(1000, 1300) > 1000);
+    }
+
+    /**
+     * The catalog construction CatalogBuilder replaced, which looked nodes and edges up by scanning the catalog and
+     * each node's dependsOn array.
+     */
+    private static class LinearScanCatalog {
+        private final Map<String, Set<String>> serviceToComponents;
+        private final Map<String, Set<String>> componentToReferences;
+        private final Map<String, Set<String>> componentToServices;
+        private final JSONArray catalog = new JSONArray();
+
+        LinearScanCatalog(Map<String, Set<String>> serviceToComponents,
+                          Map<String, Set<String>> componentToReferences,
+                          Map<String, Set<String>> componentToServices) {
+            this.serviceToComponents = serviceToComponents;
+            this.componentToReferences = componentToReferences;
+            this.componentToServices = componentToServices;
+        }
+
+        JSONArray build() {
+            for (Map.Entry<String, Set<String>> entry : componentToReferences.entrySet()) {
+                String componentClassName = entry.getKey();
+                JSONObject node = getJSONWithNameFromArray(componentClassName, catalog);
+                if (node == null)
+                    node = addNewJSONToArray(componentClassName, catalog);
+                linkNode(componentClassName, entry.getValue(), node);
+            }
+            return catalog;
+        }
+
+        private void linkNode(String className, Set<String> names, JSONObject jsonObject) {
+            String nameFromJSON = (String) jsonObject.get("name");
+            JSONArray dependsOnArray = (JSONArray) jsonObject.get("dependsOn");
+            JSONArray dependsOnServices = (JSONArray) jsonObject.get("dependsOnServices");
+            JSONArray dependentsServices = (JSONArray) jsonObject.get("dependentsServices");
+
+            if (names != null)
+                dependsOnServices.addAll(names);
+            Set<String> dependents = componentToServices.get(className);
+            if (dependents != null)
+                dependentsServices.addAll(dependents);
+
+            int dependsOn = 0;
+            if (names != null) {
+                for (String name : names) {
+                    Set<String> retrievedComponents = serviceToComponents.get(name);
+                    if (retrievedComponents == null) {
+                        if (!stringPresentInArray(name + "?", dependsOnArray)) {
+                            if (!jsonPresentInArray(name + "?", catalog)) {
+                                JSONObject ghostJSON = new JSONObject();
+                                ghostJSON.put("name", name + "?");
+                                ghostJSON.put("dependsOn", new JSONArray());
+                                ghostJSON.put("numberDependsOn", "N/A");
+                                ghostJSON.put("dependsOnServices", new JSONArray());
+                                ghostJSON.put("numberDependents", 0);
+                                List<String> ghostServices = new ArrayList<>();
+                                ghostServices.add(name);
+                                ghostJSON.put("dependentsServices", new ArrayList<>(ghostServices));
+                                catalog.add(ghostJSON);
+                            }
+                            JSONObject ghost = getJSONWithNameFromArray(name + "?", catalog);
+                            dependsOnArray.add(name + "?");
+                            ghost.put("numberDependents", (int) ghost.get("numberDependents") + 1);
+                            dependsOn++;
+                        }
+                    }
+                    else {
+                        for (String n : retrievedComponents) {
+                            if (!stringPresentInArray(n, dependsOnArray) && !n.equals(nameFromJSON)) {
+                                JSONObject target = getJSONWithNameFromArray(n, catalog);
+                                if (target == null)
+                                    target = addNewJSONToArray(n, catalog);
+                                dependsOnArray.add(n);
+                                target.put("numberDependents", (int) target.get("numberDependents") + 1);
+                                dependsOn++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            jsonObject.put("numberDependsOn", dependsOn);
+            jsonObject.put("dependsOn", dependsOnArray);
+            jsonObject.put("dependsOnServices", dependsOnServices);
+            jsonObject.put("dependentsServices", dependentsServices);
+        }
+
+        private static boolean stringPresentInArray(String value, JSONArray jsonArray) {
+            for (Object i : jsonArray) {
+                if (value.equals(i))
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean jsonPresentInArray(String name, JSONArray jsonArray) {
+            for (Object i : jsonArray) {
+                if (name.equals(((JSONObject) i).get("name")))
+                    return true;
+            }
+            return false;
+        }
+
+        private static JSONObject getJSONWithNameFromArray(String name, JSONArray jsonArray) {
+            for (Object o : jsonArray) {
+                JSONObject jsonObject = (JSONObject) o;
+                if (jsonObject.get("name").equals(name))
+                    return jsonObject;
+            }
+            return null;
+        }
+
+        private static JSONObject addNewJSONToArray(String name, JSONArray jsonArray) {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("name", name);
+            jsonObject.put("dependsOn", new JSONArray());
+            jsonObject.put("numberDependsOn", 0);
+            jsonObject.put("dependsOnServices", new JSONArray());
+            jsonObject.put("numberDependents", 0);
+            jsonObject.put("dependentsServices", new JSONArray());
+            jsonArray.add(jsonObject);
+            return jsonObject;
+        }
+    }
+}
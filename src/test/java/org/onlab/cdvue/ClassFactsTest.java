@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that class facts pack their flags, intern their names and cannot be changed once built.
+ */
+public class ClassFactsTest {
+
+    private static String copy(String name) {
+        return new String(name.toCharArray());
+    }
+
+    @Test
+    public void flags() {
+        for (int i = 0; i < 8; i++) {
+            boolean component = (i & 1) != 0;
+            boolean service = (i & 2) != 0;
+            boolean isInterface = (i & 4) != 0;
+            ClassFacts facts = new ClassFacts("org.x.C", component, service, isInterface, "",
+                                              Collections.emptyList(), Collections.emptyList());
+            assertEquals(component, facts.isComponent());
+            assertEquals(service, facts.isService());
+            assertEquals(isInterface, facts.isInterface());
+        }
+    }
+
+    @Test
+    public void namesAreInterned() {
+        ClassFacts first = new ClassFacts(copy("org.x.A"), true, true, false, copy("org.x.api.FooService"),
+                                          Arrays.asList(copy("org.x.api.BarService")),
+                                          Arrays.asList(copy("org.x.api.BazService")));
+        ClassFacts second = new ClassFacts(copy("org.x.B"), true, false, false, "",
+                                           Arrays.asList(copy("org.x.api.FooService")),
+                                           Arrays.asList(copy("org.x.api.BarService"), copy("org.x.api.BazService")));
+        assertSame("org.x.A", first.getName());
+        assertSame(first.getServiceTag(), second.getInterfaces().get(0));
+        assertSame(first.getInterfaces().get(0), second.getReferences().get(0));
+        assertSame(first.getReferences().get(0), second.getReferences().get(1));
+    }
+
+    @Test
+    public void orderAndDuplicatesAreKept() {
+        List<String> interfaces = Arrays.asList("org.x.api.B", "org.x.api.A", "org.x.api.B");
+        List<String> references = Arrays.asList("org.x.api.C", "org.x.api.C");
+        ClassFacts facts = new ClassFacts("org.x.C", true, true, false, "org.x.api.A", interfaces, references);
+        assertEquals("org.x.C", facts.getName());
+        assertEquals("org.x.api.A", facts.getServiceTag());
+        assertEquals(interfaces, facts.getInterfaces());
+        assertEquals(references, facts.getReferences());
+    }
+
+    @Test
+    public void changingTheGivenListsDoesNotChangeTheFacts() {
+        List<String> interfaces = new ArrayList<>(Arrays.asList("org.x.api.A"));
+        List<String> references = new ArrayList<>(Arrays.asList("org.x.api.B"));
+        ClassFacts facts = new ClassFacts("org.x.C", true, true, false, "", interfaces, references);
+        interfaces.set(0, "org.x.api.Other");
+        references.add("org.x.api.Other");
+        assertEquals(Collections.singletonList("org.x.api.A"), facts.getInterfaces());
+        assertEquals(Collections.singletonList("org.x.api.B"), facts.getReferences());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void interfacesCannotBeChanged() {
+        new ClassFacts("org.x.C", true, true, false, "", Arrays.asList("org.x.api.A"), Collections.emptyList())
+                .getInterfaces().set(0, "org.x.api.Other");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void referencesCannotBeChanged() {
+        new ClassFacts("org.x.C", true, false, false, "", Collections.emptyList(), new ArrayList<>())
+                .getReferences().add("org.x.api.Other");
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that classes compiled from annotated sources give the same facts as the sources themselves.
+ */
+public class ClassFileTest {
+    private static final Map<String, String> ANNOTATIONS = new LinkedHashMap<>();
+    static {
+        //the annotations keep their default class retention, as the SCR and Declarative Services ones do
+        ANNOTATIONS.put("org/apache/felix/scr/annotations/Component.java",
+                        "package org.apache.felix.scr.annotations;\n\npublic @interface Component {\n"
+                                + "    boolean componentAbstract() default false;\n"
+                                + "    boolean immediate() default false;\n}\n");
+        ANNOTATIONS.put("org/apache/felix/scr/annotations/Service.java",
+                        "package org.apache.felix.scr.annotations;\n\npublic @interface Service {\n"
+                                + "    Class<?>[] value() default {};\n}\n");
+        ANNOTATIONS.put("org/apache/felix/scr/annotations/Reference.java",
+                        "package org.apache.felix.scr.annotations;\n\npublic @interface Reference {\n"
+                                + "    String name() default \"\";\n}\n");
+        ANNOTATIONS.put("org/apache/felix/scr/annotations/Property.java",
+                        "package org.apache.felix.scr.annotations;\n\npublic @interface Property {\n"
+                                + "    String name();\n    String[] value() default {};\n"
+                                + "    long[] longValue() default {};\n    double[] doubleValue() default {};\n}\n");
+        ANNOTATIONS.put("org/apache/felix/scr/annotations/Properties.java",
+                        "package org.apache.felix.scr.annotations;\n\npublic @interface Properties {\n"
+                                + "    Property[] value();\n}\n");
+        ANNOTATIONS.put("org/osgi/service/component/annotations/Component.java",
+                        "package org.osgi.service.component.annotations;\n\npublic @interface Component {\n"
+                                + "    Class<?>[] service() default {};\n    String[] property() default {};\n}\n");
+        ANNOTATIONS.put("org/osgi/service/component/annotations/Reference.java",
+                        "package org.osgi.service.component.annotations;\n\npublic @interface Reference {\n"
+                                + "    Class<?> service() default Object.class;\n}\n");
+    }
+
+    private Path tree;
+
+    @Before
+    public void setUp() throws IOException {
+        tree = Files.createTempDirectory("cdvue-classfile");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SyntheticTreeGenerator.delete(tree);
+    }
+
+    /**
+     * Compiles the given sources along with the annotations, in memory.
+     *
+     * @param sources   the sources by path
+     * @return the class files by binary name
+     */
+    private static Map<String, byte[]> compile(Map<String, String> sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<JavaFileObject> units = new ArrayList<>();
+        Map<String, String> all = new LinkedHashMap<>(ANNOTATIONS);
+        all.putAll(sources);
+        for (Map.Entry<String, String> source : all.entrySet()) {
+            units.add(new SimpleJavaFileObject(URI.create("string:///" + source.getKey()), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source.getValue();
+                }
+            });
+        }
+
+        Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/')), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return outputs.computeIfAbsent(className, name -> new ByteArrayOutputStream());
+                    }
+                };
+            }
+        };
+        StringWriter errors = new StringWriter();
+        boolean compiled = compiler.getTask(errors, fileManager, null, Collections.singletonList("-proc:none"), null,
+                                            units).call();
+        assertTrue(errors.toString(), compiled);
+
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        outputs.forEach((name, bytes) -> classes.put(name, bytes.toByteArray()));
+        return classes;
+    }
+
+    private static String describe(ClassFacts facts) {
+        return facts.getName() + " " + facts.isComponent() + " " + facts.isService() + " " + facts.isInterface() + " "
+                + facts.getServiceTag() + " " + facts.getInterfaces() + " " + facts.getReferences();
+    }
+
+    private List<String> sourceFacts() throws Exception {
+        DependencyParser parser = new DependencyParser(tree.resolve("src").toString(), 1);
+        parser.execute();
+        List<String> facts = new ArrayList<>();
+        for (ClassFacts classFacts : parser.getClassFacts())
+            facts.add(describe(classFacts));
+        Collections.sort(facts);
+        return facts;
+    }
+
+    private List<String> bytecodeFacts(Map<String, byte[]> classes) throws Exception {
+        Path jar = tree.resolve("bundle.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey().replace('.', '/') + ".class"));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        BytecodeParser parser = new BytecodeParser(jar.toString(), 1);
+        parser.execute();
+        List<String> facts = new ArrayList<>();
+        for (ClassFacts classFacts : parser.getClassFacts())
+            facts.add(describe(classFacts));
+        Collections.sort(facts);
+        return facts;
+    }
+
+    private void write(Map<String, String> sources) throws IOException {
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            Path file = tree.resolve("src/main/java").resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write(source.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void sourceAndBytecodeGiveSameFacts() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("org/f/api/FooService.java", "package org.f.api;\n\npublic interface FooService {\n}\n");
+        sources.put("org/f/api/BarService.java", "package org.f.api;\n\npublic interface BarService {\n}\n");
+        sources.put("org/f/api/BazService.java", "package org.f.api;\n\npublic interface BazService {\n}\n");
+
+        //long and double constants take two constant pool slots each
+        sources.put("org/f/impl/FooImpl.java", "package org.f.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Properties;\n"
+                + "import org.apache.felix.scr.annotations.Property;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n"
+                + "import org.apache.felix.scr.annotations.Service;\n"
+                + "import org.f.api.BarService;\n"
+                + "import org.f.api.BazService;\n"
+                + "import org.f.api.FooService;\n\n"
+                + "@Properties({@Property(name = \"limits\", longValue = {3000000000L, -1L}),\n"
+                + "             @Property(name = \"ratios\", doubleValue = {0.25, 1e300}, value = {\"a\", \"b\"})})\n"
+                + "@Component(immediate = true)\n"
+                + "@Service\n"
+                + "public class FooImpl implements FooService {\n"
+                + "    static final long BIG = 1L << 40;\n"
+                + "    static final double RATIO = 0.125;\n"
+                + "    long total = 7000000000L;\n"
+                + "    double scale = 2.5;\n\n"
+                + "    @Reference\n    protected BarService bar;\n\n"
+                + "    @Reference\n    protected void bindBaz(BazService baz) {\n"
+                + "        total += BIG;\n        scale *= RATIO;\n    }\n}\n");
+
+        sources.put("org/f/impl/Base.java", "package org.f.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n"
+                + "import org.apache.felix.scr.annotations.Service;\n"
+                + "import org.f.api.BarService;\n"
+                + "import org.f.api.BazService;\n\n"
+                + "@Component(componentAbstract = true)\n"
+                + "@Service\n"
+                + "public abstract class Base implements BarService {\n"
+                + "    static final double LIMIT = 1.5;\n\n"
+                + "    @Reference\n    protected BazService baz;\n}\n");
+        sources.put("org/f/impl/Sub.java", "package org.f.impl;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Service;\n"
+                + "import org.f.api.FooService;\n\n"
+                + "@Component\n"
+                + "@Service(value = {Sub.class, FooService.class})\n"
+                + "public class Sub extends Base {\n"
+                + "    static final long MASK = 0xFFFFFFFFFFL;\n\n"
+                + "    @Component\n    public static class Inner {\n"
+                + "        @org.apache.felix.scr.annotations.Reference\n"
+                + "        protected FooService foo;\n    }\n}\n");
+
+        sources.put("org/f/ds/DsComponent.java", "package org.f.ds;\n\n"
+                + "import org.f.api.BarService;\n"
+                + "import org.f.api.BazService;\n"
+                + "import org.f.api.FooService;\n"
+                + "import org.osgi.service.component.annotations.Component;\n"
+                + "import org.osgi.service.component.annotations.Reference;\n\n"
+                + "@Component(service = {FooService.class, BarService.class}, property = {\"x=1\", \"y=2\"})\n"
+                + "public class DsComponent implements FooService, BarService {\n"
+                + "    static final long STAMP = 1234567890123L;\n\n"
+                + "    @Reference(service = BazService.class)\n    protected Object baz;\n\n"
+                + "    @Reference\n    protected void setFoo(FooService foo) {\n    }\n}\n");
+
+        write(sources);
+        List<String> expected = sourceFacts();
+        assertTrue(expected.contains("org.f.impl.Sub true true false org.f.api.FooService "
+                                             + "[org.f.api.BarService] [org.f.api.BazService]"));
+        assertEquals(expected, bytecodeFacts(compile(sources)));
+    }
+
+    @Test
+    public void namesAreDecodedAsModifiedUtf8() {
+        //a name outside ASCII, with a character outside the basic plane, which class files encode as a surrogate pair
+        String service = "org.f.Dienst\u00dc\ud801\udc00";
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("org/f/Gruesse.java", "package org.f;\n\n"
+                + "interface Dienst\\u00dc\\ud801\\udc00 {\n}\n\n"
+                + "@org.apache.felix.scr.annotations.Component\n"
+                + "@org.apache.felix.scr.annotations.Service\n"
+                + "class Gr\\u00fc\\u00dfe implements Dienst\\u00dc\\ud801\\udc00 {\n"
+                + "    static final String GREETING = \"gr\\u00fc\\u00df \\u0000 \\ud83d\\ude00\";\n\n"
+                + "    @org.apache.felix.scr.annotations.Reference\n"
+                + "    protected Dienst\\u00dc\\ud801\\udc00 self;\n}\n");
+        Map<String, byte[]> classes = compile(sources);
+
+        ClassFile classFile = ClassFile.read(ByteBuffer.wrap(classes.get("org.f.Gr\u00fc\u00dfe")));
+        assertEquals("org.f.Gr\u00fc\u00dfe", classFile.getName());
+        assertEquals(Collections.singletonList(service), classFile.getInterfaces());
+        assertEquals(Collections.singletonList(service), classFile.getReferences());
+        assertTrue(classFile.isComponent() && classFile.isService());
+        assertNull(ClassFile.read(ByteBuffer.wrap(classes.get(service))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedClassIsRejected() {
+        Map<String, String> sources = Collections.singletonMap("org/f/Plain.java", "package org.f;\n\n"
+                + "@org.apache.felix.scr.annotations.Component\npublic class Plain {\n}\n");
+        byte[] bytes = compile(sources).get("org.f.Plain");
+        ClassFile.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length / 2)));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the facts extracted from a tree do not depend on the number of threads or on how its files are split
+ * into work units, even when a superclass is declared as the second top-level class of a file.
+ */
+public class DependencyParserTest {
+    private static final String SUB_FACTS = "org.z.Sub true false false  [] [org.y.OtherService]";
+
+    private Path tree;
+
+    @Before
+    public void setUp() throws IOException {
+        tree = Files.createTempDirectory("cdvue-parser");
+        new SyntheticTreeGenerator(400, 100, 3, 2, 1).generate(tree);
+
+        //a base component declared as the second top-level class of a file, extended from another package
+        write("org/y/OtherService.java", "package org.y;\n\npublic interface OtherService {\n}\n");
+        write("org/y/Bases.java", "package org.y;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n\n"
+                + "public class Bases {\n}\n\n"
+                + "@Component(componentAbstract = true)\n"
+                + "abstract class SecondaryBase {\n    @Reference\n    protected OtherService other;\n}\n");
+        write("org/z/Sub.java", "package org.z;\n\n"
+                + "import org.apache.felix.scr.annotations.Component;\n\n"
+                + "@Component\npublic class Sub extends org.y.SecondaryBase {\n}\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SyntheticTreeGenerator.delete(tree);
+    }
+
+    private void write(String path, String source) throws IOException {
+        Path file = tree.resolve("extra/src/main/java").resolve(path);
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+    }
+
+    private List<String> parse(int threads, int unitSize) throws Exception {
+        DependencyParser parser = new DependencyParser(tree.toString(), threads);
+        parser.setUnitSize(unitSize);
+        parser.execute();
+        List<String> facts = new ArrayList<>();
+        for (ClassFacts classFacts : parser.getClassFacts()) {
+            facts.add(classFacts.getName() + " " + classFacts.isComponent() + " " + classFacts.isService() + " "
+                              + classFacts.isInterface() + " " + classFacts.getServiceTag() + " "
+                              + classFacts.getInterfaces() + " " + classFacts.getReferences());
+        }
+        return facts;
+    }
+
+    @Test
+    public void threadCountsGiveSameFacts() throws Exception {
+        List<String> oneThread = parse(1, 0);
+        assertTrue(oneThread.contains(SUB_FACTS));
+        assertEquals(oneThread, parse(2, 0));
+        assertEquals(oneThread, parse(4, 0));
+    }
+
+    @Test
+    public void splitUnitsMatchSingleUnit() throws Exception {
+        List<String> single = parse(1, Integer.MAX_VALUE);
+        assertTrue(single.contains(SUB_FACTS));
+        assertEquals(single, parse(1, 0));
+        assertEquals(single, parse(4, 1));
+    }
+}
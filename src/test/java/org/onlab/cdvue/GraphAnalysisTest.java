@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the cycles, the longest chain and the rankings found on small hand-built graphs.
+ */
+public class GraphAnalysisTest {
+
+    /**
+     * Builds a graph of components each providing a service of its own, such that every "from>to" edge makes the
+     * first component depend on the second. Components are numbered in name order.
+     */
+    private static ComponentGraph graph(String... edges) {
+        Map<String, Set<String>> serviceToComponents = new HashMap<>();
+        Map<String, Set<String>> componentToReferences = new HashMap<>();
+        Map<String, Set<String>> componentToServices = new HashMap<>();
+        for (String edge : edges) {
+            String[] ends = edge.split(">");
+            for (String component : ends) {
+                serviceToComponents.put("api." + component, Collections.singleton(component));
+                componentToServices.put(component, Collections.singleton("api." + component));
+                componentToReferences.computeIfAbsent(component, c -> new HashSet<>());
+            }
+            componentToReferences.get(ends[0]).add("api." + ends[1]);
+        }
+        return new ComponentGraph(serviceToComponents, componentToReferences, componentToServices);
+    }
+
+    private static int[] ids(ComponentGraph graph, String... names) {
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++)
+            ids[i] = graph.getNodeId(names[i]);
+        return ids;
+    }
+
+    @Test
+    public void disjointCycles() {
+        ComponentGraph graph = graph("a>b", "b>a", "c>d", "d>e", "e>c", "f>a", "f>c");
+        GraphAnalysis analysis = new GraphAnalysis(graph);
+        assertEquals(2, analysis.getCycleCount());
+        assertArrayEquals(ids(graph, "a", "b"), analysis.getCycle(0));
+        assertArrayEquals(ids(graph, "c", "d", "e"), analysis.getCycle(1));
+        assertEquals(0, analysis.getCycleOf(graph.getNodeId("b")));
+        assertEquals(1, analysis.getCycleOf(graph.getNodeId("e")));
+        assertEquals(-1, analysis.getCycleOf(graph.getNodeId("f")));
+    }
+
+    @Test
+    public void acyclicGraph() {
+        ComponentGraph graph = graph("f>g", "f>h", "g>h", "h>i", "j>i");
+        GraphAnalysis analysis = new GraphAnalysis(graph);
+        assertEquals(0, analysis.getCycleCount());
+        for (int node = 0; node < graph.getNodeCount(); node++)
+            assertEquals(-1, analysis.getCycleOf(node));
+        assertArrayEquals(ids(graph, "f", "g", "h", "i"), analysis.getLongestChain());
+    }
+
+    @Test
+    public void cycleOnTheChainCountsAsOneStep() {
+        //q and r depend on each other; the chain enters the cycle at q and leaves it from r
+        ComponentGraph graph = graph("p>q", "q>r", "r>q", "r>s", "s>t", "x>y", "y>x");
+        GraphAnalysis analysis = new GraphAnalysis(graph);
+        assertEquals(2, analysis.getCycleCount());
+        assertArrayEquals(ids(graph, "q", "r"), analysis.getCycle(0));
+        assertArrayEquals(ids(graph, "p", "q", "s", "t"), analysis.getLongestChain());
+    }
+
+    @Test
+    public void equalDegreesRankInIdOrder() {
+        ComponentGraph graph = graph("a>c", "a>d", "b>c", "b>d", "e>a");
+        GraphAnalysis analysis = new GraphAnalysis(graph);
+        assertArrayEquals(ids(graph, "c", "d", "a", "b", "e"), analysis.rankByFanIn());
+        assertArrayEquals(ids(graph, "a", "b", "e", "c", "d"), analysis.rankByFanOut());
+        assertEquals(2, analysis.getFanIn(graph.getNodeId("c")));
+        assertEquals(1, analysis.getFanOut(graph.getNodeId("e")));
+    }
+
+    @Test
+    public void deepChainDoesNotOverflowTheStack() {
+        int length = 200000;
+        String[] edges = new String[length];
+        for (int i = 0; i < length; i++)
+            edges[i] = String.format("n%06d>n%06d", i, i + 1);
+        GraphAnalysis analysis = new GraphAnalysis(graph(edges));
+        assertEquals(0, analysis.getCycleCount());
+        assertEquals(length + 1, analysis.getLongestChain().length);
+    }
+}
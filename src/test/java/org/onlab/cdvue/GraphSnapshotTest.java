@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that snapshots hold the graph they were written from, and that damaged ones are rejected.
+ */
+public class GraphSnapshotTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cdvue-snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SyntheticTreeGenerator.delete(directory);
+    }
+
+    /**
+     * Builds a graph where a provides api.A and refers to api.B, api.Self and the unprovided api.Ghost; b provides
+     * api.B; api.Self is a component providing itself; c provides nothing and refers to api.A and api.Ghost.
+     */
+    private static ComponentGraph graph() {
+        Map<String, Set<String>> serviceToComponents = new HashMap<>();
+        Map<String, Set<String>> componentToReferences = new HashMap<>();
+        Map<String, Set<String>> componentToServices = new HashMap<>();
+        componentToReferences.put("a", set("api.B", "api.Self", "api.Ghost"));
+        componentToReferences.put("b", set());
+        componentToReferences.put("api.Self", set());
+        componentToReferences.put("c", set("api.A", "api.Ghost"));
+        componentToServices.put("a", set("api.A"));
+        componentToServices.put("b", set("api.B"));
+        componentToServices.put("api.Self", set("api.Self"));
+        serviceToComponents.put("api.A", set("a"));
+        serviceToComponents.put("api.B", set("b"));
+        serviceToComponents.put("api.Self", set("api.Self"));
+        return new ComponentGraph(serviceToComponents, componentToReferences, componentToServices);
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private GraphSnapshot roundTrip(ComponentGraph graph) throws IOException {
+        File file = directory.resolve("graph.snapshot").toFile();
+        GraphSnapshot.write(graph, file);
+        assertTrue(GraphSnapshot.isSnapshot(file));
+        return GraphSnapshot.open(file);
+    }
+
+    private static List<String> names(GraphSnapshot snapshot, GraphSnapshot.Rows rows, int id) {
+        List<String> names = new ArrayList<>();
+        for (int k = rows.start(id); k < rows.end(id); k++) {
+            int target = rows.get(k);
+            names.add(target < 0 ? snapshot.getName(GraphSnapshot.unresolved(target)) + "?" : snapshot.getName(target));
+        }
+        return names;
+    }
+
+    private static void assertSameGraph(ComponentGraph expected, ComponentGraph actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getComponentCount(), actual.getComponentCount());
+        assertEquals(expected.getServiceCount(), actual.getServiceCount());
+        for (int node = 0; node < expected.getNodeCount(); node++) {
+            assertEquals(expected.getNodeName(node), actual.getNodeName(node));
+            assertEquals(expected.isServiceComponent(node), actual.isServiceComponent(node));
+            assertArrayEquals(expected.servicesOf(node), actual.servicesOf(node));
+            assertArrayEquals(expected.referencesOf(node), actual.referencesOf(node));
+        }
+        for (int service = 0; service < expected.getServiceCount(); service++) {
+            assertEquals(expected.getServiceName(service), actual.getServiceName(service));
+            assertEquals(expected.getGhostNode(service), actual.getGhostNode(service));
+        }
+        assertArrayEquals(expected.getDependsOnOffsets(), actual.getDependsOnOffsets());
+        assertArrayEquals(expected.getDependsOn(), actual.getDependsOn());
+    }
+
+    @Test
+    public void namesFlagsAndRows() throws Exception {
+        GraphSnapshot snapshot = roundTrip(graph());
+        List<String> names = new ArrayList<>();
+        for (int id = 0; id < snapshot.getNameCount(); id++)
+            names.add(snapshot.getName(id));
+        assertEquals(Arrays.asList("a", "api.A", "api.B", "api.Ghost", "api.Self", "b", "c"), names);
+        assertEquals(4, snapshot.getComponentCount());
+        assertEquals(4, snapshot.getInterfaceCount());
+        assertEquals(1, snapshot.getUnresolvedCount());
+
+        int component = GraphSnapshot.COMPONENT;
+        int serviceComponent = GraphSnapshot.COMPONENT | GraphSnapshot.SERVICE;
+        assertEquals(serviceComponent, snapshot.getFlags(0));
+        assertEquals(GraphSnapshot.INTERFACE, snapshot.getFlags(1));
+        assertEquals(GraphSnapshot.INTERFACE, snapshot.getFlags(2));
+        assertEquals(GraphSnapshot.INTERFACE | GraphSnapshot.UNRESOLVED, snapshot.getFlags(3));
+        assertEquals(serviceComponent | GraphSnapshot.INTERFACE, snapshot.getFlags(4));
+        assertEquals(serviceComponent, snapshot.getFlags(5));
+        assertEquals(component, snapshot.getFlags(6));
+
+        assertEquals(Arrays.asList("api.B", "api.Ghost", "api.Self"), names(snapshot, snapshot.getReferences(), 0));
+        assertEquals(Arrays.asList("api.A"), names(snapshot, snapshot.getProvides(), 0));
+        assertEquals(Arrays.asList("api.Self", "b", "api.Ghost?"), names(snapshot, snapshot.getDependsOn(), 0));
+        assertEquals(Arrays.asList("a", "api.Ghost?"), names(snapshot, snapshot.getDependsOn(), 6));
+        assertEquals(Arrays.asList(), names(snapshot, snapshot.getReferences(), 1)); //services have no rows
+    }
+
+    @Test
+    public void loadedGraphIsTheBuiltGraph() throws Exception {
+        ComponentGraph graph = graph();
+        assertSameGraph(graph, new ComponentGraph(roundTrip(graph)));
+    }
+
+    @Test
+    public void loadedTreeIsTheBuiltTree() throws Exception {
+        Path tree = directory.resolve("tree");
+        new SyntheticTreeGenerator(1000, 1300, 3, 2, 1).generate(tree);
+        DependencyParser parser = new DependencyParser(tree.toString(), 0);
+        parser.execute();
+        GraphHandler handler = new GraphHandler(parser.getClassFacts());
+        handler.prepareData();
+        ComponentGraph graph = new ComponentGraph(handler.getServiceToComponents(), handler.getComponentToReferences(),
+                                                  handler.getComponentToServices());
+        assertTrue(graph.getNodeCount() > graph.getComponentCount()); //some services have no provider
+        assertSameGraph(graph, new ComponentGraph(roundTrip(graph)));
+    }
+
+    @Test
+    public void damagedSnapshotsAreRejected() throws Exception {
+        File file = directory.resolve("graph.snapshot").toFile();
+        GraphSnapshot.write(graph(), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        File damaged = directory.resolve("damaged.snapshot").toFile();
+        for (int length : new int[]{4, 12, 40, bytes.length / 2, bytes.length - 4}) {
+            Files.write(damaged.toPath(), Arrays.copyOf(bytes, length));
+            try {
+                GraphSnapshot.open(damaged);
+                fail("Opened a snapshot cut at " + length + " of " + bytes.length + " bytes");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().endsWith("it is truncated or damaged"));
+            }
+        }
+
+        Files.write(damaged.toPath(), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        assertFalse(GraphSnapshot.isSnapshot(damaged));
+        try {
+            GraphSnapshot.open(damaged);
+            fail("Opened a file which is not a snapshot");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("Not a snapshot"));
+        }
+    }
+}
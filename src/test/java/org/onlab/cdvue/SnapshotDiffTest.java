@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the differences found between snapshots of hand-built graphs.
+ */
+public class SnapshotDiffTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cdvue-diff");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SyntheticTreeGenerator.delete(directory);
+    }
+
+    /**
+     * Writes a snapshot of a graph given as components, each followed by the services it provides, if any, after a
+     * "+", and the services it refers to, after a ">", e.g. "b+api.B>api.C".
+     */
+    private GraphSnapshot snapshot(String name, String... components) throws IOException {
+        Map<String, Set<String>> serviceToComponents = new HashMap<>();
+        Map<String, Set<String>> componentToReferences = new HashMap<>();
+        Map<String, Set<String>> componentToServices = new HashMap<>();
+        for (String component : components) {
+            String[] parts = component.split(">", -1);
+            Set<String> references = new HashSet<>();
+            if (parts.length > 1)
+                references.addAll(Arrays.asList(parts[1].split(",")));
+            String[] provides = parts[0].split("\\+");
+            componentToReferences.put(provides[0], references);
+            if (provides.length > 1) {
+                componentToServices.put(provides[0], new HashSet<>(Arrays.asList(provides[1].split(","))));
+                for (String service : provides[1].split(","))
+                    serviceToComponents.computeIfAbsent(service, s -> new HashSet<>()).add(provides[0]);
+            }
+        }
+        ComponentGraph graph = new ComponentGraph(serviceToComponents, componentToReferences, componentToServices);
+        Path file = directory.resolve(name + ".snapshot");
+        GraphSnapshot.write(graph, file.toFile());
+        return GraphSnapshot.open(file.toFile());
+    }
+
+    private static String report(SnapshotDiff diff) throws IOException {
+        StringWriter writer = new StringWriter();
+        diff.writeReport(writer);
+        return writer.toString();
+    }
+
+    private static Map<String, JSONObject> nodes(JSONArray catalog) {
+        Map<String, JSONObject> nodes = new HashMap<>();
+        for (Object node : catalog)
+            nodes.put((String) ((JSONObject) node).get("name"), (JSONObject) node);
+        return nodes;
+    }
+
+    @Test
+    public void identicalSnapshotsDoNotDiffer() throws Exception {
+        String[] graph = {"a>api.B", "b+api.B>api.C", "c+api.C>api.B", "d>api.Gone"};
+        SnapshotDiff diff = new SnapshotDiff(snapshot("before", graph), snapshot("after", graph));
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getNewCycleCount());
+        String report = report(diff);
+        assertTrue(report.contains("Components: 0 added, 0 removed, 0 changed.\n"));
+        assertTrue(report.contains("Dependency cycles: 0 new, 0 broken; 0 components joined and 0 left the others.\n"));
+        assertFalse(report.contains("\n~ "));
+        for (Object node : diff.buildCatalog())
+            assertNull(((JSONObject) node).get("diff"));
+    }
+
+    @Test
+    public void addedAndRemovedComponentsAndDependencies() throws Exception {
+        SnapshotDiff diff = new SnapshotDiff(
+                snapshot("before", "a>api.B", "b+api.B>api.C", "c+api.C", "d>api.Gone"),
+                snapshot("after", "b+api.B>api.C,api.New", "c+api.C>api.E", "d>api.Gone", "e+api.E>api.C"));
+        assertFalse(diff.isEmpty());
+        assertEquals(1, diff.getNewCycleCount());
+
+        String report = report(diff);
+        assertTrue(report.contains("Components: 1 added, 1 removed, 2 changed.\n"
+                                           + "References: 3 added, 1 removed.\n"
+                                           + "Provided services: 1 added, 0 removed.\n"
+                                           + "Dependencies: 3 added, 1 removed.\n"
+                                           + "Unresolved services: 1 new, 0 gone.\n"
+                                           + "Dependency cycles: 1 new, 0 broken; 0 components joined and 0 left "
+                                           + "the others.\n"));
+        assertTrue(report.contains("- a\n    - refers to api.B\n    - depends on b\n"));
+        assertTrue(report.contains("~ b\n    + refers to api.New\n    + depends on api.New?\n"));
+        assertTrue(report.contains("~ c\n    + refers to api.E\n    + depends on e\n"));
+        assertTrue(report.contains("+ e\n    + refers to api.C\n    + provides api.E\n    + depends on c\n"));
+        assertFalse(report.contains(" d\n"));
+        assertTrue(report.contains("Newly unresolved services:\n    api.New\n"));
+        assertTrue(report.contains("New dependency cycles:\n  2 components:\n    c\n    e\n"));
+
+        Map<String, JSONObject> nodes = nodes(diff.buildCatalog());
+        assertEquals("removed", nodes.get("a").get("diff"));
+        assertEquals("changed", nodes.get("b").get("diff"));
+        assertEquals("added", nodes.get("e").get("diff"));
+        assertEquals("added", nodes.get("api.New?").get("diff"));
+        assertNull(nodes.get("d").get("diff"));
+        assertEquals(Arrays.asList("e"), nodes.get("c").get("dependsOnAdded"));
+        assertEquals(Arrays.asList("b"), nodes.get("a").get("dependsOnRemoved"));
+    }
+
+    @Test
+    public void brokenCyclesAndResolvedServices() throws Exception {
+        SnapshotDiff diff = new SnapshotDiff(
+                snapshot("before", "a+api.A>api.B", "b+api.B>api.A", "c>api.Gone"),
+                snapshot("after", "a+api.A>api.B", "b+api.B", "c>api.Gone", "g+api.Gone"));
+        assertEquals(0, diff.getNewCycleCount());
+        String report = report(diff);
+        assertTrue(report.contains("Dependency cycles: 0 new, 1 broken; "));
+        assertTrue(report.contains("Broken dependency cycles:\n  2 components:\n    a\n    b\n"));
+        assertTrue(report.contains("Services no longer unresolved:\n    api.Gone\n"));
+        assertTrue(report.contains("~ c\n    + depends on g\n    - depends on api.Gone?\n"));
+        assertEquals("removed", nodes(diff.buildCatalog()).get("api.Gone?").get("diff"));
+    }
+}
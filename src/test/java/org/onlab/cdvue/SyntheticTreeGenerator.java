@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onlab.cdvue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Class that writes a synthetic source tree of OSGi components, laid out like a multi-module Maven project, for the
+ * benchmarks and the tests.
+ * <p>
+ * The tree has the given number of @Service interfaces and @Component classes. Each component provides one
+ * service, holds the given number of @Reference fields to randomly chosen services, and extends the deepest class
+ * of a chain of abstract base components of the given depth, each of which contributes one @Reference of its own.
+ * The same arguments and seed always produce the same tree.
+ * </p>
+ */
+class SyntheticTreeGenerator {
+    private static final String HEADER = "/*\n * Synthetic source generated for cdvue benchmarks.\n */\n\n";
+    private static final int COMPONENTS_PER_MODULE = 200;
+    private static final int CLASSES_PER_PACKAGE = 25;
+    private static final int COMPONENTS_PER_BASE_CHAIN = 50;
+
+    private final int components;
+    private final int services;
+    private final int fanOut;
+    private final int depth;
+    private final long seed;
+
+    /**
+     * Constructor for objects of class SyntheticTreeGenerator.
+     *
+     * @param components    the number of @Component classes
+     * @param services      the number of @Service interfaces
+     * @param fanOut        the number of @Reference fields per component
+     * @param depth         the depth of the abstract base component chain each component extends; 0 for none
+     * @param seed          the seed for choosing references
+     */
+    SyntheticTreeGenerator(int components, int services, int fanOut, int depth, long seed) {
+        this.components = components;
+        this.services = Math.max(1, services);
+        this.fanOut = fanOut;
+        this.depth = depth;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the tree into the given directory.
+     *
+     * @param root      the directory to write to
+     * @throws IOException if a file could not be written
+     */
+    void generate(Path root) throws IOException {
+        Random random = new Random(seed);
+
+        for (int s = 0; s < services; s++) {
+            write(root.resolve("api"), apiPackage(s), serviceName(s),
+                  "public interface " + serviceName(s) + " {\n\n    void execute();\n}\n");
+        }
+
+        int chains = depth == 0 ? 0 : (components + COMPONENTS_PER_BASE_CHAIN - 1) / COMPONENTS_PER_BASE_CHAIN;
+        for (int chain = 0; chain < chains; chain++) {
+            for (int level = 0; level < depth; level++) {
+                StringBuilder body = new StringBuilder();
+                body.append("@Component(componentAbstract = true)\n")
+                        .append("public abstract class ").append(baseName(chain, level));
+                if (level > 0)
+                    body.append(" extends ").append(basePackage(chain)).append('.').append(baseName(chain, level - 1));
+                body.append(" {\n\n");
+                appendReference(body, random, "base" + level);
+                body.append("}\n");
+                write(root.resolve("core"), basePackage(chain), baseName(chain, level), imports() + body);
+            }
+        }
+
+        for (int c = 0; c < components; c++) {
+            int service = c % services;
+            StringBuilder body = new StringBuilder();
+            body.append("/**\n * Synthetic component ").append(c).append(".\n */\n")
+                    .append("@Component(immediate = true)\n@Service\n")
+                    .append("public class ").append(componentName(c));
+            if (chains > 0) {
+                int chain = c / COMPONENTS_PER_BASE_CHAIN;
+                body.append(" extends ").append(basePackage(chain)).append('.').append(baseName(chain, depth - 1));
+            }
+            body.append(" implements ").append(apiPackage(service)).append('.').append(serviceName(service))
+                    .append(" {\n\n");
+            for (int r = 0; r < fanOut; r++)
+                appendReference(body, random, "ref" + r);
+            body.append("    @Override\n    public void execute() {\n    }\n}\n");
+
+            String module = "app" + (c / COMPONENTS_PER_MODULE);
+            write(root.resolve(module), componentPackage(c), componentName(c), imports() + body);
+        }
+    }
+
+    private void appendReference(StringBuilder body, Random random, String field) {
+        int target = random.nextInt(services);
+        body.append("    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)\n")
+                .append("    protected ").append(apiPackage(target)).append('.').append(serviceName(target))
+                .append(' ').append(field).append(";\n\n");
+    }
+
+    private static String imports() {
+        return "import org.apache.felix.scr.annotations.Component;\n"
+                + "import org.apache.felix.scr.annotations.Reference;\n"
+                + "import org.apache.felix.scr.annotations.ReferenceCardinality;\n"
+                + "import org.apache.felix.scr.annotations.Service;\n\n";
+    }
+
+    private static String apiPackage(int service) {
+        return "org.onlab.synthetic.api.p" + (service / CLASSES_PER_PACKAGE);
+    }
+
+    private static String serviceName(int service) {
+        return "SyntheticService" + service;
+    }
+
+    private static String basePackage(int chain) {
+        return "org.onlab.synthetic.base.p" + (chain / CLASSES_PER_PACKAGE);
+    }
+
+    private static String baseName(int chain, int level) {
+        return "AbstractSyntheticBase" + chain + "L" + level;
+    }
+
+    private static String componentPackage(int component) {
+        return "org.onlab.synthetic.impl.p" + (component / CLASSES_PER_PACKAGE);
+    }
+
+    private static String componentName(int component) {
+        return "SyntheticComponent" + component;
+    }
+
+    private static void write(Path module, String packageName, String className, String body) throws IOException {
+        Path dir = module.resolve("src/main/java").resolve(packageName.replace('.', File.separatorChar));
+        Files.createDirectories(dir);
+        try (Writer writer = Files.newBufferedWriter(dir.resolve(className + ".java"), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write("package " + packageName + ";\n\n");
+            writer.write(body);
+        }
+    }
+
+    /**
+     * Recursively deletes the given directory.
+     *
+     * @param root      the directory to delete
+     * @throws IOException if a file could not be deleted
+     */
+    static void delete(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    /**
+     * Writes a synthetic tree; usage: directory components [services [fanOut [depth [seed]]]].
+     *
+     * @param args      the command line arguments
+     * @throws IOException if a file could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        int components = Integer.parseInt(args[1]);
+        int services = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(1, components / 4);
+        int fanOut = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+        new SyntheticTreeGenerator(components, services, fanOut, depth, seed).generate(new File(args[0]).toPath());
+    }
+}